@@ -0,0 +1,72 @@
+package com.animalkingdom.benchmark;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.service.AnimalKingdomService;
+import com.animalkingdom.utilities.AnimalTreeDataLoader;
+import com.animalkingdom.utilities.AnimalTreeStore;
+import com.animalkingdom.utilities.Utilities;
+
+// AnimalKingdomService.addAnimal under a random animal of the generated tree, with the tree kept
+// in memory only (no write-ahead log), from one thread and from several concurrent ones. The tree
+// is generated again for every iteration, since every insert makes it grow
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AddAnimalBenchmark {
+
+    @Param({ "1000", "100000" })
+    private int size;
+
+    @Param({ "WIDE", "DEEP" })
+    private BenchmarkTrees.Shape shape;
+
+    private AnimalKingdomService animalKingdomService;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Utilities utilities = new Utilities();
+        List<Animal> animals = BenchmarkTrees.create(size, shape);
+        AnimalTreeDataLoader animalTreeDataLoader = new AnimalTreeDataLoader(utilities) {
+
+            @Override
+            public List<Animal> createAnimals() {
+                return animals;
+            }
+
+        };
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, new AnimalTreeStore());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long addAnimal() {
+        return add();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long addAnimal4Threads() {
+        return add();
+    }
+
+    private long add() {
+        long parentId = ThreadLocalRandom.current().nextInt(size) + 1;
+        return animalKingdomService.addAnimal(parentId, "cat");
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.animalkingdom.benchmark;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.utilities.AnimalTreeAnalyzer;
+import com.animalkingdom.utilities.AnimalTreeStatistics;
+
+// Scaling of the tree statistics (AnimalTreeAnalyzer) with the number of cores: the same tree is analyzed
+// on ForkJoinPools of 1 to 8 workers. Parallelism above the number of cores of the machine only measures
+// the overhead of the extra tasks
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AnalyticsBenchmark {
+
+    @Param({ "1000000" })
+    private int size;
+
+    @Param({ "WIDE", "DEEP" })
+    private BenchmarkTrees.Shape shape;
+
+    @Param({ "1", "2", "4", "8" })
+    private int parallelism;
+
+    private List<Animal> animals;
+
+    private ForkJoinPool pool;
+
+    private AnimalTreeAnalyzer analyzer;
+
+    @Setup
+    public void setUp() {
+        animals = BenchmarkTrees.create(size, shape);
+        pool = new ForkJoinPool(parallelism);
+        analyzer = new AnimalTreeAnalyzer(pool, AnimalTreeAnalyzer.DEFAULT_SEQUENTIAL_THRESHOLD);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public AnimalTreeStatistics analyze() {
+        return analyzer.analyze(animals);
+    }
+
+}
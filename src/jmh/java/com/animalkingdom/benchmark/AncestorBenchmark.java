@@ -0,0 +1,78 @@
+package com.animalkingdom.benchmark;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.service.AnimalKingdomService;
+import com.animalkingdom.utilities.AnimalTreeDataLoader;
+import com.animalkingdom.utilities.AnimalTreeStore;
+import com.animalkingdom.utilities.Utilities;
+
+// AnimalKingdomService.getCommonAncestor and getAncestorPath on the deepest possible trees: a chain of
+// half the animals, which then forks into two chains of a quarter each. The common ancestor of two
+// random animals of the forks is found with jump pointers, in a number of steps logarithmic in their
+// depth, while the path is as long as the depth of the animal
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AncestorBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    private int size;
+
+    private AnimalKingdomService animalKingdomService;
+
+    @Setup
+    public void setUp() {
+        Animal[] animals = new Animal[size];
+        animals[0] = new Animal(1, "root");
+        int fork = size / 2 - 1;
+        for (int i = 1; i < size; i++) {
+            animals[i] = new Animal(i + 1, "animal");
+            animals[i <= fork ? i - 1 : (i - fork <= 2 ? fork : i - 2)].linkChild(animals[i]);
+            animals[i].updateAncestry();
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            animals[i].updateSubtreeSize();
+        }
+
+        Utilities utilities = new Utilities();
+        AnimalTreeDataLoader animalTreeDataLoader = new AnimalTreeDataLoader(utilities) {
+
+            @Override
+            public List<Animal> createAnimals() {
+                return List.of(animals[0]);
+            }
+
+        };
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, new AnimalTreeStore());
+    }
+
+    @Benchmark
+    public Animal getCommonAncestor() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return animalKingdomService.getCommonAncestor(randomForkId(random), randomForkId(random));
+    }
+
+    @Benchmark
+    public List<Animal> getAncestorPath() {
+        return animalKingdomService.getAncestorPath(randomForkId(ThreadLocalRandom.current()));
+    }
+
+    // Returns the ID of a random animal of the two forks
+    private long randomForkId(ThreadLocalRandom random) {
+        return size / 2 + 1 + random.nextInt(size / 2);
+    }
+
+}
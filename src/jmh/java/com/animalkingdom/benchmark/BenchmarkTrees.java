@@ -0,0 +1,53 @@
+package com.animalkingdom.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.animalkingdom.model.Animal;
+
+// Generates the trees of animals measured by the benchmarks, with IDs from 1 to the given size
+// (in the order the animals are added, parents first)
+public final class BenchmarkTrees {
+
+    public enum Shape {
+        // Every animal has up to WIDE_FAN_OUT children, filled breadth-first (a shallow tree)
+        WIDE,
+        // Chains of up to DEEP_CHAIN_LENGTH animals under a single root (a deep tree, within the reach
+        // of the recursive baselines of TraversalBenchmark)
+        DEEP
+    }
+
+    public static final int WIDE_FAN_OUT = 100;
+
+    public static final int DEEP_CHAIN_LENGTH = 250;
+
+    private static final String[] LABELS = { "lion", "tiger", "cat", "dog", "wolf", "bear", "eagle", "owl",
+            "shark", "whale", "frog", "ant" };
+
+    private BenchmarkTrees() {
+    }
+
+    // Returns the roots of a tree of the given size (at least 1) and shape
+    public static List<Animal> create(int size, Shape shape) {
+        Animal[] animals = new Animal[size + 1]; // By ID
+        animals[1] = new Animal(1, "root");
+        for (int id = 2; id <= size; id++) {
+            Animal animal = new Animal(id, LABELS[id % LABELS.length]);
+            animals[getParentId(id, shape)].addChild(animal);
+            animals[id] = animal;
+        }
+
+        List<Animal> roots = new ArrayList<>();
+        roots.add(animals[1]);
+        return roots;
+    }
+
+    // Returns the ID of the parent of the animal with the given ID (above 1)
+    public static int getParentId(int id, Shape shape) {
+        if (shape == Shape.WIDE) {
+            return (id - 2) / WIDE_FAN_OUT + 1;
+        }
+        return (id - 2) % DEEP_CHAIN_LENGTH == 0 ? 1 : id - 1;
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.animalkingdom.benchmark;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.service.AnimalKingdomService;
+import com.animalkingdom.utilities.AnimalTreeDataLoader;
+import com.animalkingdom.utilities.AnimalTreeStore;
+import com.animalkingdom.utilities.Utilities;
+
+// Conditional inserts (POST /api/tree with If-Match) from many writers: every insert reads the
+// version of its parent and adds under it only if it is unchanged, as a client would with the ETag of
+// GET /api/tree/{parent}. The writers each add under their own child of the root (DISJOINT subtrees)
+// or all under the same animal (SHARED), with the check done by the compare-and-set on the parent
+// (conditionalAdd) or under one lock for the whole tree (globalLockAdd), and against plain inserts
+// (unconditionalAdd). Rejected inserts are counted as conflicts. The tree is kept in memory only,
+// and generated again for every iteration, since every insert makes it grow
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConditionalAddBenchmark {
+
+    public enum Subtrees {
+        DISJOINT, SHARED
+    }
+
+    private static final int WRITERS = 64;
+
+    @Param({ "DISJOINT", "SHARED" })
+    private Subtrees subtrees;
+
+    private AnimalKingdomService animalKingdomService;
+
+    private final Object globalLock = new Object();
+
+    private final AtomicInteger nextWriter = new AtomicInteger();
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        // A root with one child per writer
+        Animal root = new Animal(1, "root");
+        List<Animal> children = new ArrayList<>(WRITERS);
+        for (int i = 0; i < WRITERS; i++) {
+            children.add(new Animal(i + 2, "animal"));
+        }
+        root.addChildren(children);
+
+        Utilities utilities = new Utilities();
+        AnimalTreeDataLoader animalTreeDataLoader = new AnimalTreeDataLoader(utilities) {
+
+            @Override
+            public List<Animal> createAnimals() {
+                return List.of(root);
+            }
+
+        };
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, new AnimalTreeStore());
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Writer {
+
+        public long conflicts;
+
+        private long parentId;
+
+        private Animal parent;
+
+        @Setup(Level.Iteration)
+        public void setUp(ConditionalAddBenchmark benchmark) {
+            int writer = benchmark.subtrees == Subtrees.SHARED ? 0
+                    : benchmark.nextWriter.getAndIncrement() % WRITERS;
+            parentId = writer + 2;
+            parent = benchmark.animalKingdomService.getAnimal(parentId);
+        }
+
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long conditionalAdd(Writer writer) {
+        return conditional(writer);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long conditionalAdd4Threads(Writer writer) {
+        return conditional(writer);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long globalLockAdd4Threads(Writer writer) {
+        long version = writer.parent.getVersion();
+        synchronized (globalLock) {
+            if (writer.parent.getVersion() != version) {
+                writer.conflicts++;
+                return Animal.NO_ID;
+            }
+            return animalKingdomService.addAnimal(writer.parentId, "cat");
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long unconditionalAdd4Threads(Writer writer) {
+        return animalKingdomService.addAnimal(writer.parentId, "cat");
+    }
+
+    private long conditional(Writer writer) {
+        try {
+            return animalKingdomService.addAnimal(writer.parentId, "cat", writer.parent.getVersion());
+        } catch (ConcurrentModificationException e) {
+            writer.conflicts++;
+            return Animal.NO_ID;
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.animalkingdom.benchmark;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.utilities.AnimalIdIndex;
+
+// Index of the animals by ID: the primitive-keyed AnimalIdIndex against the map with String keys it
+// replaced. Lookups go to random animals (so mostly cache misses, like requests for random animals),
+// and building the index of every animal is run with -Pjmh.profilers=gc to see what it allocates. The
+// String keys are created while building the map, as they were the IDs the animals kept before
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IdIndexBenchmark {
+
+    private static final int LOOKUPS = 1 << 16;
+
+    @Param({ "1000000" })
+    private int size;
+
+    private Animal[] animals;
+
+    private Map<String, Animal> stringMap;
+
+    private AnimalIdIndex idIndex;
+
+    private String[] stringIds;
+
+    private long[] ids;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        animals = new Animal[size];
+        for (int i = 0; i < size; i++) {
+            animals[i] = new Animal(i + 1, "animal");
+        }
+        stringMap = buildStringMap();
+        idIndex = buildIdIndex();
+
+        // The same random IDs for both, the String ones as they would come in a request
+        Random random = new Random(42);
+        stringIds = new String[LOOKUPS];
+        ids = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            ids[i] = random.nextInt(size) + 1;
+            stringIds[i] = String.valueOf(ids[i]);
+        }
+    }
+
+    @Benchmark
+    public Animal getStringMap() {
+        return stringMap.get(stringIds[next++ & (LOOKUPS - 1)]);
+    }
+
+    @Benchmark
+    public Animal getIdIndex() {
+        return idIndex.get(ids[next++ & (LOOKUPS - 1)]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Map<String, Animal> buildStringMap() {
+        Map<String, Animal> map = new ConcurrentHashMap<>();
+        for (Animal animal : animals) {
+            map.put(String.valueOf(animal.getId()), animal);
+        }
+        return map;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public AnimalIdIndex buildIdIndex() {
+        AnimalIdIndex index = new AnimalIdIndex();
+        for (Animal animal : animals) {
+            index.put(animal);
+        }
+        return index;
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.animalkingdom.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.service.AnimalKingdomService;
+import com.animalkingdom.utilities.AnimalTreeDataLoader;
+import com.animalkingdom.utilities.AnimalTreeStore;
+import com.animalkingdom.utilities.Utilities;
+
+// AnimalKingdomService.moveAnimal of a subtree of the given size (8 children per animal), back and forth
+// between two animals under the root, with the tree kept in memory only. Only the two parents and
+// their ancestors change: the depths and jumps of the subtree are checked again on their next use,
+// which moveAnimalThenGetDepth adds for the deepest animal of the subtree
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MoveBenchmark {
+
+    private static final int FIRST_ID = 2;
+    private static final int SECOND_ID = 3;
+    private static final int SUBTREE_ID = 4;
+
+    @Param({ "1000", "100000", "1000000" })
+    private int size;
+
+    private AnimalKingdomService animalKingdomService;
+
+    private Animal deepest;
+
+    private boolean underSecond;
+
+    @Setup
+    public void setUp() {
+        Animal root = new Animal(1, "root");
+        Animal first = new Animal(FIRST_ID, "first");
+        Animal second = new Animal(SECOND_ID, "second");
+        Animal[] subtree = new Animal[size];
+        for (int i = 0; i < size; i++) {
+            subtree[i] = new Animal(i + SUBTREE_ID, "animal");
+            if (i > 0) {
+                subtree[(i - 1) / 8].linkChild(subtree[i]);
+            }
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            subtree[i].updateSubtreeSize();
+        }
+        deepest = subtree[size - 1];
+        first.addChild(subtree[0]);
+        root.addChildren(List.of(first, second));
+
+        Utilities utilities = new Utilities();
+        AnimalTreeDataLoader animalTreeDataLoader = new AnimalTreeDataLoader(utilities) {
+
+            @Override
+            public List<Animal> createAnimals() {
+                return List.of(root);
+            }
+
+        };
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, new AnimalTreeStore());
+    }
+
+    @Benchmark
+    public Animal moveAnimal() {
+        underSecond = !underSecond;
+        return animalKingdomService.moveAnimal(SUBTREE_ID, underSecond ? SECOND_ID : FIRST_ID);
+    }
+
+    @Benchmark
+    public int moveAnimalThenGetDepth() {
+        moveAnimal();
+        return deepest.getDepth();
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.animalkingdom.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.animalkingdom.controller.dto.GetAnimalsResponse;
+import com.animalkingdom.utilities.AnimalTreeJsonWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+// Jackson serialization of the whole tree as a GetAnimalsResponse (the body of GET /api/tree without
+// the snapshot cache), to a stream that discards it, from one thread and from several concurrent ones
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+    @Param({ "1000", "100000" })
+    private int size;
+
+    @Param({ "WIDE", "DEEP" })
+    private BenchmarkTrees.Shape shape;
+
+    private final ObjectWriter writer = createObjectMapper().writerFor(GetAnimalsResponse.class);
+
+    private GetAnimalsResponse response;
+
+    @Setup
+    public void setUp() {
+        response = new GetAnimalsResponse(BenchmarkTrees.create(size, shape));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void serializeTree() throws IOException {
+        writer.writeValue(OutputStream.nullOutputStream(), response);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void serializeTree4Threads() throws IOException {
+        writer.writeValue(OutputStream.nullOutputStream(), response);
+    }
+
+    // Configured like the ObjectMapper of the application (see AnimalKingdomApplication)
+    private static ObjectMapper createObjectMapper() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.getFactory().setStreamWriteConstraints(AnimalTreeJsonWriter.DEEP_TREE_CONSTRAINTS);
+        return objectMapper;
+    }
+
+}
@@ -0,0 +1,248 @@
+package com.animalkingdom.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Load test of a running server with many tenants (/api/tenants/{tenant}/tree): creates the tenants and
+// fills their trees through the bulk endpoint, then has clients insert into and read random tenants,
+// first on their own and then while writers hammer a single hot tenant with inserts and moves (which
+// take its structure lock alone). Prints the throughput and latency percentiles of both phases, then
+// the memory held by the shards (GET /api/tenants).
+// Arguments: base URL, number of tenants, animals per tenant, number of clients of random tenants,
+// number of writers to the hot tenant, and the duration of each phase in seconds, e.g.
+//   gradle loadTest -PloadTest.main=TenantLoadTest -PloadTest.args="http://localhost:8888 300 1000 32 32 30"
+public final class TenantLoadTest {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String HOT_TENANT = "hot";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private TenantLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8888";
+        int tenants = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int animals = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int clients = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+        int hotWriters = args.length > 4 ? Integer.parseInt(args[4]) : 32;
+        long seconds = args.length > 5 ? Long.parseLong(args[5]) : 30;
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+
+        long start = System.nanoTime();
+        fill(client, baseUrl, HOT_TENANT, animals);
+        for (int i = 0; i < tenants; i++) {
+            fill(client, baseUrl, tenant(i), animals);
+        }
+        System.out.printf("Created %d tenants of %d animals (and the hot one) in %d s against %s%n", tenants,
+                animals, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), baseUrl);
+
+        for (int hot : new int[] { 0, hotWriters }) {
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            List<Future<Latencies>> cold = new ArrayList<>();
+            List<Future<Latencies>> hotLatencies = new ArrayList<>();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < clients; i++) {
+                    cold.add(executor.submit(() -> runCold(client, baseUrl, tenants, animals, end)));
+                }
+                for (int i = 0; i < hot; i++) {
+                    hotLatencies.add(executor.submit(() -> runHot(client, baseUrl, animals, end)));
+                }
+            }
+
+            System.out.printf("%d clients of random tenants, %d writers to the hot tenant, %d s%n",
+                    clients, hot, seconds);
+            print("Random tenants (insert + read)", Latencies.merge(cold), seconds);
+            if (hot > 0) {
+                print("Hot tenant (insert or move)", Latencies.merge(hotLatencies), seconds);
+            }
+        }
+
+        printMemory(client, baseUrl);
+    }
+
+    private static String tenant(int i) {
+        return "tenant-" + i;
+    }
+
+    private static String treeUrl(String baseUrl, String tenant) {
+        return baseUrl + "/api/tenants/" + tenant + "/tree";
+    }
+
+    // Adds the given number of animals to the tree of the tenant (creating it), each one under the root or
+    // a random animal added before it
+    private static void fill(HttpClient client, String baseUrl, String tenant, int animals) throws Exception {
+        for (int first = 0; first < animals; first += BATCH_SIZE) {
+            int count = Math.min(BATCH_SIZE, animals - first);
+            StringBuilder batch = new StringBuilder("[");
+            for (int i = 0; i < count; i++) {
+                String parent = i == 0 ? "1" : "@" + ThreadLocalRandom.current().nextInt(i);
+                batch.append(i == 0 ? "" : ",")
+                        .append("{\"parent\":\"").append(parent).append("\",\"label\":\"animal ").append(i % 100)
+                        .append("\"}");
+            }
+            HttpResponse<String> response = client.send(post(treeUrl(baseUrl, tenant) + "/bulk", batch.append("]")),
+                    HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 201) {
+                throw new IllegalStateException("Tenant '" + tenant + "' not filled: " + response.body());
+            }
+        }
+    }
+
+    // Inserts under a random animal of a random tenant, then reads its children, over and over until the
+    // given time
+    private static Latencies runCold(HttpClient client, String baseUrl, int tenants, int animals, long end) {
+        Latencies latencies = new Latencies();
+        while (System.nanoTime() < end) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            String url = treeUrl(baseUrl, tenant(random.nextInt(tenants)));
+            int parent = 1 + random.nextInt(animals + 1);
+            send(client, post(url, new StringBuilder("{\"parent\":\"" + parent + "\",\"label\":\"cat\"}")), latencies);
+            send(client, HttpRequest.newBuilder(URI.create(url + "/" + parent + "?depth=1"))
+                    .timeout(REQUEST_TIMEOUT).build(), latencies);
+        }
+        return latencies;
+    }
+
+    // Inserts under a random animal of the hot tenant, or (one time in ten) moves a random animal under
+    // its root, over and over until the given time
+    private static Latencies runHot(HttpClient client, String baseUrl, int animals, long end) {
+        Latencies latencies = new Latencies();
+        String url = treeUrl(baseUrl, HOT_TENANT);
+        while (System.nanoTime() < end) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int animal = 2 + random.nextInt(animals);
+            if (random.nextInt(10) == 0) {
+                send(client, HttpRequest.newBuilder(URI.create(url + "/" + animal + "/parent"))
+                        .timeout(REQUEST_TIMEOUT)
+                        .header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofString("{\"parent\":\"1\"}"))
+                        .build(), latencies);
+            } else {
+                send(client, post(url, new StringBuilder("{\"parent\":\"" + animal + "\",\"label\":\"cat\"}")),
+                        latencies);
+            }
+        }
+        return latencies;
+    }
+
+    private static HttpRequest post(String url, StringBuilder body) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+    }
+
+    private static void send(HttpClient client, HttpRequest request, Latencies latencies) {
+        long start = System.nanoTime();
+        try {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() < 300) {
+                latencies.add(System.nanoTime() - start);
+            } else {
+                latencies.errors++;
+            }
+        } catch (IOException e) {
+            latencies.errors++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Prints the total, and the smallest, median and largest memory held by a tenant
+    private static void printMemory(HttpClient client, String baseUrl) throws Exception {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/api/tenants"))
+                .timeout(REQUEST_TIMEOUT).build(), HttpResponse.BodyHandlers.ofString());
+        List<long[]> shards = new ArrayList<>();
+        for (JsonNode tenant : objectMapper.readTree(response.body())) {
+            if (tenant.get("loaded").asBoolean()) {
+                shards.add(new long[] { tenant.get("retainedBytes").asLong(), tenant.get("animalCount").asLong() });
+            }
+        }
+        shards.sort((a, b) -> Long.compare(a[0], b[0]));
+        long bytes = 0;
+        long animals = 0;
+        for (long[] shard : shards) {
+            bytes += shard[0];
+            animals += shard[1];
+        }
+        System.out.printf("%d shards: %.1f MB for %d animals (%.0f bytes per animal)%n", shards.size(), bytes / 1e6,
+                animals, (double) bytes / Math.max(1, animals));
+        if (!shards.isEmpty()) {
+            long[] min = shards.get(0);
+            long[] median = shards.get(shards.size() / 2);
+            long[] max = shards.get(shards.size() - 1);
+            System.out.printf("Per shard: min %.1f KB (%d animals), median %.1f KB (%d animals), max %.1f KB (%d animals)%n",
+                    min[0] / 1e3, min[1], median[0] / 1e3, median[1], max[0] / 1e3, max[1]);
+        }
+    }
+
+    private static void print(String name, Latencies latencies, long seconds) {
+        long[] nanos = Arrays.copyOf(latencies.nanos, latencies.count);
+        Arrays.sort(nanos);
+        System.out.printf("%-32s %8d ok %6d errors %10.1f req/s   p50 %9.1f ms   p99 %9.1f ms   max %9.1f ms%n",
+                name, nanos.length, latencies.errors, (double) nanos.length / seconds,
+                percentileMillis(nanos, 0.50), percentileMillis(nanos, 0.99), percentileMillis(nanos, 1.0));
+    }
+
+    private static double percentileMillis(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    // Latencies of the successful requests of a client, and its number of failed ones
+    private static class Latencies {
+
+        private long[] nanos = new long[1024];
+        private int count;
+        private int errors;
+
+        void add(long latencyNanos) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = latencyNanos;
+        }
+
+        static Latencies merge(List<Future<Latencies>> clients) throws Exception {
+            Latencies merged = new Latencies();
+            for (Future<Latencies> client : clients) {
+                Latencies latencies = client.get();
+                for (int i = 0; i < latencies.count; i++) {
+                    merged.add(latencies.nanos[i]);
+                }
+                merged.errors += latencies.errors;
+            }
+            return merged;
+        }
+
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.animalkingdom.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.model.AnimalTreeTraversal;
+
+// The iterative walks of AnimalTreeTraversal against the recursive walks they replaced (kept here as the
+// baseline). The trees stay within the reach of recursion: a chain of 10000 animals already overflows
+// the default stack of the recursive walks, while the iterative ones only need heap
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TraversalBenchmark {
+
+    @Param({ "1000", "100000" })
+    private int size;
+
+    @Param({ "WIDE", "DEEP" })
+    private BenchmarkTrees.Shape shape;
+
+    private List<Animal> animals;
+
+    // The last animal added, found last by a depth-first search
+    private long lastId;
+
+    @Setup
+    public void setUp() {
+        animals = BenchmarkTrees.create(size, shape);
+        lastId = size;
+    }
+
+    @Benchmark
+    public int countRecursive() {
+        return countRecursive(animals);
+    }
+
+    @Benchmark
+    public int countDepthFirst() {
+        return AnimalTreeTraversal.count(animals);
+    }
+
+    @Benchmark
+    public int countBreadthFirst() {
+        int[] count = new int[1];
+        AnimalTreeTraversal.breadthFirst(animals, (animal, depth) -> {
+            count[0]++;
+            return AnimalTreeTraversal.Action.CONTINUE;
+        });
+        return count[0];
+    }
+
+    @Benchmark
+    public Animal findRecursive() {
+        return findRecursive(animals, lastId);
+    }
+
+    @Benchmark
+    public Animal findDepthFirst() {
+        return AnimalTreeTraversal.find(animals, animal -> animal.getId() == lastId);
+    }
+
+    private static int countRecursive(List<Animal> animals) {
+        int count = 0;
+        for (Animal animal : animals) {
+            count++;
+            if (animal.getChildCount() > 0) {
+                count += countRecursive(animal.getChildren());
+            }
+        }
+        return count;
+    }
+
+    private static Animal findRecursive(List<Animal> animals, long animalId) {
+        for (Animal animal : animals) {
+            if (animal.getId() == animalId) {
+                return animal;
+            }
+            if (animal.getChildCount() > 0) {
+                Animal found = findRecursive(animal.getChildren(), animalId);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+}
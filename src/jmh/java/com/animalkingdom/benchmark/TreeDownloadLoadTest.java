@@ -0,0 +1,151 @@
+package com.animalkingdom.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Load test of a running server with slow clients of large responses: slow clients download the whole
+// tree (GET /api/tree) over and over while reading it at a limited rate, and fast clients get a single
+// animal (GET /api/tree/1?depth=0) over and over. Prints the throughput and latency percentiles of both,
+// to compare Tomcat's pool of platform threads with virtual threads (spring.threads.virtual.enabled).
+// Arguments: base URL, number of slow clients, number of fast clients, duration in seconds, and the
+// read rate of each slow client in bytes per second, e.g.
+//   gradle loadTest -PloadTest.args="http://localhost:8888 400 50 60 262144"
+public final class TreeDownloadLoadTest {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+    private static final String RECEIVE_BUFFER_PROPERTY = "jdk.httpclient.receiveBufferSize";
+
+    private TreeDownloadLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8888";
+        int slowClients = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        int fastClients = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        long seconds = args.length > 3 ? Long.parseLong(args[3]) : 60;
+        long bytesPerSecond = args.length > 4 ? Long.parseLong(args[4]) : 256 * 1024;
+
+        // Small socket receive buffers (like clients on slow networks have), so that slow reads hold up the
+        // server instead of the whole response fitting in the socket buffers (as it would on loopback)
+        if (System.getProperty(RECEIVE_BUFFER_PROPERTY) == null) {
+            System.setProperty(RECEIVE_BUFFER_PROPERTY, String.valueOf(64 * 1024));
+        }
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        HttpRequest tree = HttpRequest.newBuilder(URI.create(baseUrl + "/api/tree")).timeout(REQUEST_TIMEOUT).build();
+        HttpRequest animal = HttpRequest.newBuilder(URI.create(baseUrl + "/api/tree/1?depth=0"))
+                .timeout(REQUEST_TIMEOUT).build();
+
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<Latencies>> slow = new ArrayList<>();
+        List<Future<Latencies>> fast = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < slowClients; i++) {
+                slow.add(executor.submit(() -> run(client, tree, end, bytesPerSecond)));
+            }
+            for (int i = 0; i < fastClients; i++) {
+                fast.add(executor.submit(() -> run(client, animal, end, Long.MAX_VALUE)));
+            }
+        }
+
+        System.out.printf("%d slow clients (%d bytes/s each), %d fast clients, %d s against %s%n",
+                slowClients, bytesPerSecond, fastClients, seconds, baseUrl);
+        print("GET /api/tree (slow)", Latencies.merge(slow), seconds);
+        print("GET /api/tree/1?depth=0 (fast)", Latencies.merge(fast), seconds);
+    }
+
+    // Sends the request over and over until the given time, reading each response at (up to) the given rate
+    private static Latencies run(HttpClient client, HttpRequest request, long end, long bytesPerSecond) {
+        Latencies latencies = new Latencies();
+        byte[] buffer = new byte[16 * 1024];
+        while (System.nanoTime() < end) {
+            long start = System.nanoTime();
+            try {
+                HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                long read = 0;
+                try (InputStream body = response.body()) {
+                    int count;
+                    while ((count = body.read(buffer)) > 0) {
+                        read += count;
+                        // Sleeps until the bytes read so far are within the rate
+                        long aheadNanos = read * 1_000_000_000L / bytesPerSecond - (System.nanoTime() - start);
+                        if (aheadNanos > 0) {
+                            TimeUnit.NANOSECONDS.sleep(aheadNanos);
+                        }
+                    }
+                }
+                if (response.statusCode() == 200) {
+                    latencies.add(System.nanoTime() - start);
+                } else {
+                    latencies.errors++;
+                }
+            } catch (IOException e) {
+                latencies.errors++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return latencies;
+    }
+
+    private static void print(String name, Latencies latencies, long seconds) {
+        long[] nanos = Arrays.copyOf(latencies.nanos, latencies.count);
+        Arrays.sort(nanos);
+        System.out.printf("%-32s %8d ok %6d errors %10.1f req/s   p50 %9.1f ms   p99 %9.1f ms   max %9.1f ms%n",
+                name, nanos.length, latencies.errors, (double) nanos.length / seconds,
+                percentileMillis(nanos, 0.50), percentileMillis(nanos, 0.99), percentileMillis(nanos, 1.0));
+    }
+
+    private static double percentileMillis(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    // Latencies of the successful requests of a client, and its number of failed ones
+    private static class Latencies {
+
+        private long[] nanos = new long[1024];
+        private int count;
+        private int errors;
+
+        void add(long latencyNanos) {
+            if (count == nanos.length) {
+                nanos = Arrays.copyOf(nanos, count * 2);
+            }
+            nanos[count++] = latencyNanos;
+        }
+
+        static Latencies merge(List<Future<Latencies>> clients) throws Exception {
+            Latencies merged = new Latencies();
+            for (Future<Latencies> client : clients) {
+                Latencies latencies = client.get();
+                for (int i = 0; i < latencies.count; i++) {
+                    merged.add(latencies.nanos[i]);
+                }
+                merged.errors += latencies.errors;
+            }
+            return merged;
+        }
+
+    }
+
+}
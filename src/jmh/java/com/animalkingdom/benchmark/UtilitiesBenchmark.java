@@ -0,0 +1,59 @@
+package com.animalkingdom.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.utilities.Utilities;
+
+// Full-tree walks of Utilities. Each one visits every animal, so the time per animal is the
+// score divided by the size
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UtilitiesBenchmark {
+
+    @Param({ "1000", "100000" })
+    private int size;
+
+    @Param({ "WIDE", "DEEP" })
+    private BenchmarkTrees.Shape shape;
+
+    private final Utilities utilities = new Utilities();
+
+    private List<Animal> animals;
+
+    // The last animal added, found last by a depth-first search
+    private long lastId;
+
+    @Setup
+    public void setUp() {
+        animals = BenchmarkTrees.create(size, shape);
+        lastId = size;
+    }
+
+    @Benchmark
+    public Animal findParentbyAnimalId() {
+        return utilities.findParentbyAnimalId(animals, lastId);
+    }
+
+    @Benchmark
+    public long createId() {
+        return utilities.createId(animals);
+    }
+
+    @Benchmark
+    public int countAnimals() {
+        return utilities.countAnimals(animals);
+    }
+
+}
@@ -4,6 +4,10 @@ import java.time.LocalDateTime;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+
+import com.animalkingdom.utilities.AnimalTreeJsonWriter;
 
 @SpringBootApplication
 public class AnimalKingdomApplication {
@@ -13,4 +17,11 @@ public class AnimalKingdomApplication {
         SpringApplication.run(AnimalKingdomApplication.class, args);
     }
 
+    // Lets the application's ObjectMapper serialize trees of any depth (e.g. a GetAnimalsResponse)
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer deepTreeCustomizer() {
+        return builder -> builder.postConfigurer(objectMapper ->
+                objectMapper.getFactory().setStreamWriteConstraints(AnimalTreeJsonWriter.DEEP_TREE_CONSTRAINTS));
+    }
+
 }
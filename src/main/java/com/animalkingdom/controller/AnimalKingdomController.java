@@ -2,47 +2,100 @@ package com.animalkingdom.controller;
 
 import com.animalkingdom.controller.dto.AddUpdateAnimalRequest;
 import com.animalkingdom.controller.dto.AddUpdateAnimalResponse;
-import com.animalkingdom.controller.dto.GetAnimalsResponse;
+import com.animalkingdom.controller.dto.SearchAnimalResponse;
+import com.animalkingdom.controller.dto.TenantResponse;
+import com.animalkingdom.controller.dto.TreeChangeResponse;
+import com.animalkingdom.controller.dto.TreeChangesResponse;
+import com.animalkingdom.controller.dto.TreeStatisticsResponse;
 import com.animalkingdom.model.Animal;
 import com.animalkingdom.service.AnimalKingdomService;
+import com.animalkingdom.service.AnimalKingdomTenants;
+import com.animalkingdom.service.AnimalTreeChange;
+import com.animalkingdom.service.AnimalTreeChangeFeed;
+import com.animalkingdom.service.AnimalTreeSnapshot;
+import com.animalkingdom.utilities.AnimalTreeJsonWriter;
+import com.animalkingdom.utilities.AnimalTreeStatistics;
 import com.animalkingdom.utilities.EndpointConstants;
 import com.animalkingdom.utilities.ErrorMessages;
+import com.fasterxml.jackson.core.JsonGenerator;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.log.LogMessage;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.lang.NonNull;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
 import java.util.List;
-import java.util.Map;
+import java.util.NoSuchElementException;
 
+/**
+ * Endpoints of the animal tree. Every endpoint of /api/tree is also served for the tree of a
+ * tenant, under /api/tenants/{tenant}/tree (see AnimalKingdomTenants): the tree of a new tenant
+ * is created by its first insert, and other requests to an unknown tenant get 404 NOT FOUND.
+ */
 @RestController
 @RequestMapping(EndpointConstants.API)
 public class AnimalKingdomController {
 
     private static final Log log = LogFactory.getLog(AnimalKingdomController.class);
 
+    private static final String GZIP = "gzip";
+
+    private static final int MAX_SEARCH_LIMIT = 1000;
+
+    private static final int MAX_LABEL_LIMIT = 1000;
+
+    private final AnimalTreeJsonWriter animalTreeJsonWriter = new AnimalTreeJsonWriter();
+
     @Autowired
     private AnimalKingdomService animalKingdomService;
 
-    public AnimalKingdomController(final AnimalKingdomService animalKingdomService) {
+    @Autowired
+    private AnimalKingdomTenants animalKingdomTenants;
+
+    public AnimalKingdomController(final AnimalKingdomService animalKingdomService,
+            final AnimalKingdomTenants animalKingdomTenants) {
         this.animalKingdomService = animalKingdomService;
+        this.animalKingdomTenants = animalKingdomTenants;
     }
 
     /**
      * GET /api/tree
      * Returns the entire tree of animals (including their children).
+     * The pre-serialized snapshot of the tree is served with an ETag (and gzip-compressed
+     * if the client accepts it), and clients that already have it get a 304 NOT MODIFIED.
+     * Without the snapshot cache, the tree is streamed to the client while it is being walked,
+     * so the whole response is never held in memory.
+     *
+     * @param ifNoneMatch    the entity tags of the tree the client already has, if any
+     * @param acceptEncoding the encodings the client accepts, if any
      */
-    @GetMapping(value = EndpointConstants.TREE, produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<GetAnimalsResponse> getAnimals() {
+    @GetMapping(value = { EndpointConstants.TREE, EndpointConstants.TENANT + EndpointConstants.TREE },
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getAnimals(
+            @PathVariable(value = "tenant", required = false) String tenant,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
 
         log.info("Fetching the entire animal tree...");
-        List<Map<String, Animal>> animals = animalKingdomService.getAnimals();
+        AnimalKingdomService service = getService(tenant);
+        AnimalTreeSnapshot snapshot = service.getTreeSnapshot();
+        if (snapshot != null) {
+            return getAnimalsFromSnapshot(snapshot, ifNoneMatch, acceptEncoding);
+        }
+
+        List<Animal> animals = service.getAnimals();
 
         if (animals == null || animals.isEmpty()) {
             log.error(ErrorMessages.NO_ANIMALS_FOUND);
@@ -50,19 +103,222 @@ public class AnimalKingdomController {
         }
 
         log.info("Animals successfully retrieved.");
-        GetAnimalsResponse getAnimalsResponse = new GetAnimalsResponse(animals);
-        return ResponseEntity.ok(getAnimalsResponse);
+        StreamingResponseBody body = outputStream -> {
+            long start = System.nanoTime();
+            service.writeTree(outputStream);
+            service.recordTreeStreamed(System.nanoTime() - start);
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * GET /api/tree/{id}?depth=N&offset=M&limit=L
+     * Returns only the subtree rooted at the given animal, in the same shape as GET /api/tree.
+     *
+     * @param id     the ID of the animal at the root of the subtree
+     * @param depth  optional number of levels below the animal to include (all levels by default)
+     * @param offset index of the first of the animal's own children to include
+     * @param limit  optional maximum number of the animal's own children to include
+     * @return the streamed subtree, with the animal's total number of children in the
+     *         X-Total-Count header and the version of the subtree as ETag, or an error status
+     */
+    @GetMapping(value = { EndpointConstants.TREE_BY_ID, EndpointConstants.TENANT + EndpointConstants.TREE_BY_ID },
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> getAnimal(@PathVariable(value = "tenant", required = false) String tenant,
+            @PathVariable("id") String id,
+            @RequestParam(value = "depth", required = false) Integer depth,
+            @RequestParam(value = "offset", defaultValue = "0") int offset,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+
+        log.info(LogMessage.format("Fetching the subtree of animal '%s'...", id));
+        AnimalKingdomService service = getService(tenant);
+
+        // A streamed response cannot carry a plain error body, so invalid
+        // parameters are rejected through handleInvalidRequest instead
+        if (depth != null && depth < 0) {
+            throw new IllegalArgumentException(ErrorMessages.INVALID_DEPTH);
+        }
+        if (offset < 0 || (limit != null && limit < 1)) {
+            throw new IllegalArgumentException(ErrorMessages.INVALID_PAGE);
+        }
+
+        Animal animal = service.getAnimal(Animal.parseId(id));
+        if (animal == null) {
+            log.error(ErrorMessages.ANIMAL_NOT_FOUND);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+
+        // Read before the subtree is written, so it never counts a change the client does not get
+        String eTag = service.getETag(animal);
+        final int maxDepth = depth == null ? Integer.MAX_VALUE : depth;
+        final int childLimit = limit == null ? Integer.MAX_VALUE : limit;
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = animalTreeJsonWriter.createGenerator(outputStream)) {
+                animalTreeJsonWriter.writeSubtree(animal, generator, maxDepth, offset, childLimit);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(EndpointConstants.TOTAL_COUNT_HEADER, String.valueOf(animal.getChildCount()))
+                .eTag(eTag)
+                .body(body);
+    }
+
+    /**
+     * GET /api/tree/search?q=ca&limit=50
+     * Finds animals by label: every word of the query must be the start of a word
+     * of the label (ignoring case), so "ca" matches "cat" and "big cat".
+     *
+     * @param query the words to search for
+     * @param limit optional maximum number of animals to return (50 by default, at most 1000)
+     * @return the matching animals, ordered by their matching word, each with the path of IDs from its root
+     */
+    @GetMapping(value = { EndpointConstants.TREE_SEARCH, EndpointConstants.TENANT + EndpointConstants.TREE_SEARCH },
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<SearchAnimalResponse>> searchAnimals(@PathVariable(value = "tenant", required = false) String tenant,
+            @RequestParam(value = "q", required = false) String query,
+            @RequestParam(value = "limit", defaultValue = "50") int limit) {
+
+        log.info(LogMessage.format("Searching for animals matching '%s'...", query));
+        AnimalKingdomService service = getService(tenant);
+
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException(ErrorMessages.SEARCH_QUERY_REQUIRED);
+        }
+        if (limit < 1 || limit > MAX_SEARCH_LIMIT) {
+            throw new IllegalArgumentException(ErrorMessages.INVALID_SEARCH_LIMIT);
+        }
+
+        long[] ids = service.searchAnimals(query, limit);
+
+        List<SearchAnimalResponse> searchAnimalResponses = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            // Read under the structure lock, so a concurrent move never shows up half-way in a path
+            List<Animal> ancestorPath = service.getAncestorPath(id);
+            if (ancestorPath == null) {
+                continue; // Not in the tree
+            }
+
+            Animal animal = ancestorPath.get(ancestorPath.size() - 1);
+            List<String> path = new ArrayList<>(ancestorPath.size());
+            for (Animal ancestor : ancestorPath) {
+                path.add(toId(ancestor.getId()));
+            }
+            searchAnimalResponses.add(new SearchAnimalResponse(toId(animal.getId()), animal.getLabel(), path));
+        }
+
+        return ResponseEntity.ok(searchAnimalResponses);
+    }
+
+    /**
+     * GET /api/tree/{id}/path
+     * Returns the path from the root of the tree down to the given animal.
+     *
+     * @param id the ID of the animal at the end of the path
+     * @return the animals on the path (the root first, the animal itself last), or 404 NOT FOUND
+     */
+    @GetMapping(value = { EndpointConstants.TREE_PATH, EndpointConstants.TENANT + EndpointConstants.TREE_PATH },
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getAncestorPath(@PathVariable(value = "tenant", required = false) String tenant,
+            @PathVariable("id") String id) {
+
+        log.info(LogMessage.format("Fetching the path to animal '%s'...", id));
+        AnimalKingdomService service = getService(tenant);
+
+        List<Animal> path = service.getAncestorPath(Animal.parseId(id));
+        if (path == null) {
+            log.error(ErrorMessages.ANIMAL_NOT_FOUND);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ErrorMessages.ANIMAL_NOT_FOUND);
+        }
+
+        List<AddUpdateAnimalResponse> addUpdateAnimalResponses = new ArrayList<>(path.size());
+        for (Animal animal : path) {
+            addUpdateAnimalResponses.add(toResponse(animal));
+        }
+        return ResponseEntity.ok(addUpdateAnimalResponses);
+    }
+
+    /**
+     * GET /api/tree/lca?ids=4,6
+     * Returns the lowest common ancestor of the given animals: the deepest animal that
+     * is an ancestor of all of them (an animal counts as its own ancestor).
+     *
+     * @param ids the IDs of the animals
+     * @return the common ancestor, or 404 NOT FOUND if an animal does not exist
+     *         or the animals are in different trees
+     */
+    @GetMapping(value = { EndpointConstants.TREE_COMMON_ANCESTOR, EndpointConstants.TENANT + EndpointConstants.TREE_COMMON_ANCESTOR },
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getCommonAncestor(@PathVariable(value = "tenant", required = false) String tenant,
+            @RequestParam(value = "ids", required = false) List<String> ids) {
+
+        log.info(LogMessage.format("Fetching the common ancestor of animals %s...", ids));
+        AnimalKingdomService service = getService(tenant);
+
+        if (ids == null || ids.isEmpty()) {
+            throw new IllegalArgumentException(ErrorMessages.ANIMAL_IDS_REQUIRED);
+        }
+        long[] animalIds = new long[ids.size()];
+        for (int i = 0; i < animalIds.length; i++) {
+            animalIds[i] = Animal.parseId(ids.get(i));
+            if (service.getAnimal(animalIds[i]) == null) {
+                log.error(ErrorMessages.ANIMAL_NOT_FOUND);
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ErrorMessages.ANIMAL_NOT_FOUND);
+            }
+        }
+
+        Animal commonAncestor = service.getCommonAncestor(animalIds);
+        if (commonAncestor == null) {
+            log.error(ErrorMessages.NO_COMMON_ANCESTOR);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ErrorMessages.NO_COMMON_ANCESTOR);
+        }
+        return ResponseEntity.ok(toResponse(commonAncestor));
     }
 
     /**
-     * Adds a new animal under a given parent.
+     * GET /api/tree/stats?limit=20
+     * Returns statistics of the whole tree: the number of animals at each depth, the number
+     * of animals by number of children (fan-out) and the most frequent labels.
+     *
+     * @param limit optional maximum number of labels to return (20 by default, at most 1000)
+     * @return the statistics of the tree
+     */
+    @GetMapping(value = { EndpointConstants.TREE_STATISTICS, EndpointConstants.TENANT + EndpointConstants.TREE_STATISTICS },
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<TreeStatisticsResponse> getTreeStatistics(
+            @PathVariable(value = "tenant", required = false) String tenant,
+            @RequestParam(value = "limit", defaultValue = "20") int limit) {
+
+        log.info("Fetching the statistics of the tree...");
+        AnimalKingdomService service = getService(tenant);
+
+        if (limit < 1 || limit > MAX_LABEL_LIMIT) {
+            throw new IllegalArgumentException(ErrorMessages.INVALID_LABEL_LIMIT);
+        }
+
+        AnimalTreeStatistics statistics = service.getTreeStatistics();
+        return ResponseEntity.ok(new TreeStatisticsResponse(statistics.getAnimalCount(), statistics.getMaxDepth(),
+                statistics.getAnimalsByDepth(), statistics.getAnimalsByChildCount(), statistics.getLabelCount(),
+                statistics.getTopLabels(limit)));
+    }
+
+    /**
+     * Adds a new animal under a given parent. With an If-Match header (the ETag of
+     * GET /api/tree/{parent}, or a comma-separated list of them), the animal is only
+     * added if the subtree of the parent is still at one of them. If-Match: * only
+     * requires the parent to exist.
      * 
      * @param addUpdateAnimalRequest the request containing parent ID and the label
+     * @param ifMatch                optional entity tags of the subtree of the parent (or "*")
      * @return a response entity containing either an error status
-     *         or the newly created addUpdateAnimalResponse
+     *         or the newly created addUpdateAnimalResponse, or 412 PRECONDITION FAILED
+     *         if the subtree of the parent has changed (or the parent is missing)
      */
-    @PostMapping(value = EndpointConstants.TREE, consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> addAnimal(@NonNull @Validated @RequestBody AddUpdateAnimalRequest addUpdateAnimalRequest) {
+    @PostMapping(value = { EndpointConstants.TREE, EndpointConstants.TENANT + EndpointConstants.TREE },
+            consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> addAnimal(@PathVariable(value = "tenant", required = false) String tenant,
+            @NonNull @Validated @RequestBody AddUpdateAnimalRequest addUpdateAnimalRequest,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
 
         log.info("Adding a new animal...");
 
@@ -75,10 +331,14 @@ public class AnimalKingdomController {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ErrorMessages.ANIMAL_LABEL_REQUIRED);
         }
 
-        String newAnimalId = animalKingdomService.addAnimal(
-                addUpdateAnimalRequest.getParent(), addUpdateAnimalRequest.getLabel());
+        // A changed parent subtree is rejected through handleConflict
+        AnimalKingdomService service = getOrCreateService(tenant);
+        long parentId = Animal.parseId(addUpdateAnimalRequest.getParent());
+        long newAnimalId = ifMatch == null
+                ? service.addAnimal(parentId, addUpdateAnimalRequest.getLabel(), Animal.ANY_VERSION)
+                : service.addAnimal(parentId, addUpdateAnimalRequest.getLabel(), service.parseETags(ifMatch));
 
-        if (newAnimalId == null || newAnimalId.isBlank()) {
+        if (newAnimalId == Animal.NO_ID) {
             log.error(ErrorMessages.ANIMAL_NOT_CREATED);
             String message = String.format("%s %s", ErrorMessages.ANIMAL_NOT_CREATED_WITH_ID,
                     addUpdateAnimalRequest.getParent());
@@ -87,10 +347,342 @@ public class AnimalKingdomController {
                     .body(message);
         }
 
-        log.info(String.format("Animal created successfully with ID: '%s'", newAnimalId));
+        if (log.isInfoEnabled()) {
+            log.info(LogMessage.format("Animal created successfully with ID: '%d'", newAnimalId));
+        }
         AddUpdateAnimalResponse addUpdateAnimalResponse = new AddUpdateAnimalResponse(
-                newAnimalId, addUpdateAnimalRequest.getLabel(), addUpdateAnimalRequest.getParent());
+                toId(newAnimalId), addUpdateAnimalRequest.getLabel(), addUpdateAnimalRequest.getParent());
         return ResponseEntity.status(HttpStatus.CREATED).body(addUpdateAnimalResponse);
     }
 
+    /**
+     * POST /api/tree/bulk
+     * Adds a batch of new animals in one request. A parent is either the ID of an existing
+     * animal, or "@n" for the animal at (zero-based) position n earlier in the same batch.
+     *
+     * @param addUpdateAnimalRequests the parent ID and label of every new animal, in order
+     * @return a response entity containing either an error status
+     *         or the newly created animals, in the same order as the request
+     */
+    @PostMapping(value = { EndpointConstants.TREE_BULK, EndpointConstants.TENANT + EndpointConstants.TREE_BULK },
+            consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<AddUpdateAnimalResponse>> addAnimals(
+            @PathVariable(value = "tenant", required = false) String tenant,
+            @NonNull @RequestBody List<AddUpdateAnimalRequest> addUpdateAnimalRequests) {
+
+        log.info(LogMessage.format("Adding a batch of '%d' animals...", addUpdateAnimalRequests.size()));
+        AnimalKingdomService service = getOrCreateService(tenant);
+
+        List<String> parentIds = new ArrayList<>(addUpdateAnimalRequests.size());
+        List<String> labels = new ArrayList<>(addUpdateAnimalRequests.size());
+        for (AddUpdateAnimalRequest addUpdateAnimalRequest : addUpdateAnimalRequests) {
+            parentIds.add(addUpdateAnimalRequest == null ? null : addUpdateAnimalRequest.getParent());
+            labels.add(addUpdateAnimalRequest == null ? null : addUpdateAnimalRequest.getLabel());
+        }
+
+        // Invalid animals are rejected (as a whole batch) through handleInvalidRequest
+        long[] newAnimalIds = service.addAnimals(parentIds, labels);
+
+        List<AddUpdateAnimalResponse> addUpdateAnimalResponses = new ArrayList<>(newAnimalIds.length);
+        for (int i = 0; i < newAnimalIds.length; i++) {
+            long newAnimalId = newAnimalIds[i];
+            addUpdateAnimalResponses.add(new AddUpdateAnimalResponse(
+                    toId(newAnimalId), labels.get(i), toId(service.getParentId(newAnimalId))));
+        }
+
+        log.info(LogMessage.format("'%d' animals created successfully.", newAnimalIds.length));
+        return ResponseEntity.status(HttpStatus.CREATED).body(addUpdateAnimalResponses);
+    }
+
+    /**
+     * GET /api/tree/changes?since=lz3k9q-42
+     * Returns the changes to the tree after the given version (e.g. the ETag of GET /api/tree),
+     * so that clients can catch up without downloading the whole tree again.
+     *
+     * @param since the token of the version of the tree the client has ("&lt;epoch&gt;-&lt;version&gt;")
+     * @return the changes in order, with the token of the version of the tree after the last one, or
+     *         410 GONE if they are no longer all kept, or the token is from before a restart (the
+     *         client has to get the whole tree again)
+     */
+    @GetMapping(value = { EndpointConstants.TREE_CHANGES, EndpointConstants.TENANT + EndpointConstants.TREE_CHANGES },
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> getChanges(@PathVariable(value = "tenant", required = false) String tenant,
+            @RequestParam(value = "since", required = false) String since) {
+
+        log.info(LogMessage.format("Fetching the changes to the tree since version '%s'...", since));
+        AnimalKingdomService service = getService(tenant);
+
+        if (since == null || since.isBlank()) {
+            throw new IllegalArgumentException(ErrorMessages.CHANGES_VERSION_REQUIRED);
+        }
+
+        // An invalid token is rejected through handleInvalidRequest
+        long sinceVersion = service.parseVersionToken(since);
+        List<AnimalTreeChange> changes = service.getChangesSince(sinceVersion);
+        if (changes == null) {
+            log.error(ErrorMessages.CHANGES_NOT_AVAILABLE);
+            return ResponseEntity.status(HttpStatus.GONE).body(ErrorMessages.CHANGES_NOT_AVAILABLE);
+        }
+
+        List<TreeChangeResponse> treeChangeResponses = new ArrayList<>(changes.size());
+        for (AnimalTreeChange change : changes) {
+            treeChangeResponses.add(toResponse(service, change));
+        }
+        long version = changes.isEmpty() ? sinceVersion : changes.get(changes.size() - 1).getVersion();
+        return ResponseEntity.ok(new TreeChangesResponse(service.getVersionToken(version), treeChangeResponses));
+    }
+
+    /**
+     * GET /api/tree/changes/stream?since=lz3k9q-42
+     * Streams the changes to the tree as Server-Sent Events, as they happen: one event per change,
+     * named after its type (ADDED, MOVED or DELETED), with the token of its version as event ID and the
+     * change as data. A client that falls too far behind, or resumes from before a restart, is sent a
+     * "reset" event with the token of the current version, and the stream ends (the client has to get
+     * the whole tree again).
+     *
+     * @param since       optional token of the version to start from (the current version by default)
+     * @param lastEventId the ID of the last event received, sent by clients when they reconnect,
+     *                    which takes precedence over since
+     */
+    @GetMapping(value = { EndpointConstants.TREE_CHANGES_STREAM, EndpointConstants.TENANT + EndpointConstants.TREE_CHANGES_STREAM },
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@PathVariable(value = "tenant", required = false) String tenant,
+            @RequestParam(value = "since", required = false) String since,
+            @RequestHeader(value = EndpointConstants.LAST_EVENT_ID_HEADER, required = false) String lastEventId) {
+
+        AnimalKingdomService service = getService(tenant);
+        long version = since != null ? service.parseVersionToken(since) : service.getTreeVersion();
+        if (lastEventId != null && !lastEventId.isBlank()) {
+            version = service.parseVersionToken(lastEventId);
+        }
+        log.info(LogMessage.format("Streaming the changes to the tree since version '%d'...", version));
+
+        // Never times out: clients that are gone are found when sending them an event or a keep-alive
+        SseEmitter emitter = new SseEmitter(0L);
+        AnimalTreeChangeFeed.Subscription subscription = service.subscribeToChanges(version,
+                new AnimalTreeChangeFeed.Listener() {
+
+                    @Override
+                    public void onChange(AnimalTreeChange change) throws IOException {
+                        TreeChangeResponse treeChangeResponse = toResponse(service, change);
+                        emitter.send(SseEmitter.event()
+                                .id(treeChangeResponse.getVersion())
+                                .name(change.getType().name())
+                                .data(treeChangeResponse, MediaType.APPLICATION_JSON));
+                    }
+
+                    @Override
+                    public void onReset(long currentVersion) throws IOException {
+                        emitter.send(SseEmitter.event().name("reset").data(service.getVersionToken(currentVersion)));
+                        emitter.complete();
+                    }
+
+                    @Override
+                    public void onKeepAlive() throws IOException {
+                        emitter.send(SseEmitter.event().comment("keep-alive"));
+                    }
+
+                    @Override
+                    public void onClose() {
+                        emitter.complete();
+                    }
+
+                });
+        emitter.onCompletion(subscription::cancel);
+        emitter.onError(error -> subscription.cancel());
+        return emitter;
+    }
+
+    /**
+     * PUT /api/tree/{id}/parent
+     * Moves an animal (with its whole subtree) under a new parent, as its last child.
+     *
+     * @param id                     the ID of the animal to move
+     * @param addUpdateAnimalRequest the request containing the ID of the new parent (the label is ignored)
+     * @return the moved animal with its new parent, 404 NOT FOUND if the animal does not exist, or
+     *         400 BAD REQUEST if the new parent does not exist, is in the subtree of the animal,
+     *         or the animal is a root
+     */
+    @PutMapping(value = { EndpointConstants.TREE_PARENT, EndpointConstants.TENANT + EndpointConstants.TREE_PARENT },
+            consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> moveAnimal(@PathVariable(value = "tenant", required = false) String tenant,
+            @PathVariable("id") String id,
+            @NonNull @RequestBody AddUpdateAnimalRequest addUpdateAnimalRequest) {
+
+        log.info(LogMessage.format("Moving animal '%s' under animal '%s'...", id, addUpdateAnimalRequest.getParent()));
+        AnimalKingdomService service = getService(tenant);
+
+        if (addUpdateAnimalRequest.getParent() == null || addUpdateAnimalRequest.getParent().isBlank()) {
+            log.error(ErrorMessages.ANIMAL_PARENT_NOT_FOUND);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ErrorMessages.ANIMAL_PARENT_NOT_FOUND);
+        }
+
+        // An invalid new parent is rejected through handleInvalidRequest
+        Animal animal = service.moveAnimal(Animal.parseId(id),
+                Animal.parseId(addUpdateAnimalRequest.getParent()));
+        if (animal == null) {
+            log.error(ErrorMessages.ANIMAL_NOT_FOUND);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ErrorMessages.ANIMAL_NOT_FOUND);
+        }
+
+        log.info(LogMessage.format("Animal '%s' moved successfully.", id));
+        return ResponseEntity.ok(toResponse(animal));
+    }
+
+    /**
+     * DELETE /api/tree/{id}
+     * Deletes an animal and its whole subtree.
+     *
+     * @param id the ID of the animal to delete
+     * @return 204 NO CONTENT with the number of deleted animals in the X-Total-Count header,
+     *         404 NOT FOUND if the animal does not exist, or 400 BAD REQUEST if it is a root
+     */
+    @DeleteMapping(value = { EndpointConstants.TREE_BY_ID, EndpointConstants.TENANT + EndpointConstants.TREE_BY_ID })
+    public ResponseEntity<?> deleteAnimal(@PathVariable(value = "tenant", required = false) String tenant,
+            @PathVariable("id") String id) {
+
+        log.info(LogMessage.format("Deleting animal '%s'...", id));
+        AnimalKingdomService service = getService(tenant);
+
+        // Deleting a root is rejected through handleInvalidRequest
+        int deleted = service.deleteAnimal(Animal.parseId(id));
+        if (deleted == 0) {
+            log.error(ErrorMessages.ANIMAL_NOT_FOUND);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ErrorMessages.ANIMAL_NOT_FOUND);
+        }
+
+        log.info(LogMessage.format("'%d' animals deleted successfully.", deleted));
+        return ResponseEntity.noContent()
+                .header(EndpointConstants.TOTAL_COUNT_HEADER, String.valueOf(deleted))
+                .build();
+    }
+
+    /**
+     * GET /api/tenants
+     * Returns every tenant, with the number of animals in its tree and the approximate number of
+     * bytes its tree and indexes hold on the heap, to account for the memory of each shard.
+     *
+     * @return the tenants, in order
+     */
+    @GetMapping(value = EndpointConstants.TENANTS, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<TenantResponse>> getTenants() {
+
+        log.info("Fetching the tenants...");
+
+        List<TenantResponse> tenantResponses = new ArrayList<>();
+        animalKingdomTenants.getShards().forEach((tenant, service) -> tenantResponses.add(service == null
+                ? new TenantResponse(tenant, false, 0, 0)
+                : new TenantResponse(tenant, true, service.getAnimalCount(), service.getRetainedSize())));
+        return ResponseEntity.ok(tenantResponses);
+    }
+
+    /**
+     * Turns an invalid request parameter (or an invalid animal in a batch)
+     * into a 400 BAD REQUEST with the error message as body.
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleInvalidRequest(IllegalArgumentException exception) {
+        log.error(exception.getMessage());
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(exception.getMessage());
+    }
+
+    /**
+     * Turns a conditional write whose precondition no longer holds (the subtree changed
+     * since its ETag was read) into a 412 PRECONDITION FAILED with the error message as body.
+     */
+    @ExceptionHandler(ConcurrentModificationException.class)
+    public ResponseEntity<String> handleConflict(ConcurrentModificationException exception) {
+        log.error(exception.getMessage());
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(exception.getMessage());
+    }
+
+    /**
+     * Turns a request to a tenant that does not exist into a 404 NOT FOUND with the error message as body.
+     */
+    @ExceptionHandler(NoSuchElementException.class)
+    public ResponseEntity<String> handleNotFound(NoSuchElementException exception) {
+        log.error(exception.getMessage());
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(exception.getMessage());
+    }
+
+    // Returns the tree of the given tenant, or the main tree without a tenant.
+    // An unknown tenant is rejected through handleNotFound
+    private AnimalKingdomService getService(String tenant) {
+        if (tenant == null) {
+            return animalKingdomService;
+        }
+        AnimalKingdomService service = animalKingdomTenants.getShard(tenant);
+        if (service == null) {
+            throw new NoSuchElementException(ErrorMessages.TENANT_NOT_FOUND);
+        }
+        return service;
+    }
+
+    // Returns the tree of the given tenant like getService, but creates the tree of a new tenant.
+    // An invalid tenant is rejected through handleInvalidRequest
+    private AnimalKingdomService getOrCreateService(String tenant) {
+        return tenant == null ? animalKingdomService : animalKingdomTenants.getOrCreateShard(tenant);
+    }
+
+    private TreeChangeResponse toResponse(AnimalKingdomService service, AnimalTreeChange change) {
+        return new TreeChangeResponse(service.getVersionToken(change.getVersion()), change.getType().name(),
+                toId(change.getAnimalId()), change.getLabel(), toId(change.getParentId()));
+    }
+
+    private AddUpdateAnimalResponse toResponse(Animal animal) {
+        Animal parent = animal.getParent();
+        return new AddUpdateAnimalResponse(toId(animal.getId()), animal.getLabel(),
+                parent == null ? null : toId(parent.getId()));
+    }
+
+    // IDs are numbers inside, but stay strings in the JSON contract (null for no animal)
+    private static String toId(long id) {
+        return id == Animal.NO_ID ? null : String.valueOf(id);
+    }
+
+    // Serves the cached snapshot, or just 304 NOT MODIFIED if the client already has this version
+    private ResponseEntity<StreamingResponseBody> getAnimalsFromSnapshot(AnimalTreeSnapshot snapshot,
+            String ifNoneMatch, String acceptEncoding) {
+
+        boolean gzip = snapshot.isGzipEnabled()
+                && acceptEncoding != null && acceptEncoding.contains(GZIP);
+        String eTag = gzip ? snapshot.getGzipETag() : snapshot.getETag();
+
+        if (ifNoneMatch != null && matchesETag(ifNoneMatch, snapshot)) {
+            log.info(LogMessage.format("Animal tree not modified since version '%d'.", snapshot.getVersion()));
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(eTag)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+
+        log.info(LogMessage.format("Animals successfully retrieved from snapshot version '%d'.", snapshot.getVersion()));
+        byte[] bytes = gzip ? snapshot.getGzipJson() : snapshot.getJson();
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .contentLength(bytes.length)
+                .eTag(eTag)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+        }
+        return response.body(outputStream -> outputStream.write(bytes));
+    }
+
+    // Returns true if any of the (comma separated) entity tags is "*" or a tag of the snapshot, which
+    // carries the start time of the service as well as the version: a tag from before a restart, when
+    // versions started over, never matches
+    private boolean matchesETag(String ifNoneMatch, AnimalTreeSnapshot snapshot) {
+        for (String tag : ifNoneMatch.split(",")) {
+            String eTag = tag.trim();
+            if (eTag.startsWith("W/")) {
+                eTag = eTag.substring(2);
+            }
+            if (eTag.equals("*") || eTag.equals(snapshot.getETag()) || eTag.equals(snapshot.getGzipETag())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 }
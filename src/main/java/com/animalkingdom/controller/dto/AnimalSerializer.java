@@ -0,0 +1,29 @@
+package com.animalkingdom.controller.dto;
+
+import java.io.IOException;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.utilities.AnimalTreeJsonWriter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+// Writes an animal (and its children) in the API's JSON shape, keyed by the animal's ID:
+// {"1":{"label":"root","children":[{"2":{"label":"ant","children":[]}}]}}
+public class AnimalSerializer extends StdSerializer<Animal> {
+
+    private static final long serialVersionUID = 1L;
+
+    // Stateless, so shared rather than a (non-serializable) field of each serializer
+    private static final AnimalTreeJsonWriter ANIMAL_TREE_JSON_WRITER = new AnimalTreeJsonWriter();
+
+    public AnimalSerializer() {
+        super(Animal.class);
+    }
+
+    @Override
+    public void serialize(Animal animal, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        ANIMAL_TREE_JSON_WRITER.writeAnimal(animal, generator);
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.animalkingdom.controller.dto;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class SearchAnimalResponse {
+
+    @JsonProperty("animalId")
+    private String animalId;
+
+    @JsonProperty("label")
+    private String label;
+
+    // IDs of the animals from the root down to (and including) this animal
+    @JsonProperty("path")
+    private List<String> path;
+
+    public SearchAnimalResponse() {
+    }
+
+    public SearchAnimalResponse(String animalId, String label, List<String> path) {
+        this.animalId = animalId;
+        this.label = label;
+        this.path = path;
+    }
+
+    public String getAnimalId() {
+        return animalId;
+    }
+
+    public void setAnimalId(String animalId) {
+        this.animalId = animalId;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    public List<String> getPath() {
+        return path;
+    }
+
+    public void setPath(List<String> path) {
+        this.path = path;
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.animalkingdom.controller.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class TenantResponse {
+
+    @JsonProperty("tenant")
+    private String tenant;
+
+    // False for a tenant stored before a restart that has not been requested since (its tree is not
+    // in memory, and its counts are 0)
+    @JsonProperty("loaded")
+    private boolean loaded;
+
+    @JsonProperty("animalCount")
+    private long animalCount;
+
+    // Approximate number of bytes on the heap held by the tree of the tenant and its indexes
+    @JsonProperty("retainedBytes")
+    private long retainedBytes;
+
+    public TenantResponse() {
+    }
+
+    public TenantResponse(String tenant, boolean loaded, long animalCount, long retainedBytes) {
+        this.tenant = tenant;
+        this.loaded = loaded;
+        this.animalCount = animalCount;
+        this.retainedBytes = retainedBytes;
+    }
+
+    public String getTenant() {
+        return tenant;
+    }
+
+    public void setTenant(String tenant) {
+        this.tenant = tenant;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public void setLoaded(boolean loaded) {
+        this.loaded = loaded;
+    }
+
+    public long getAnimalCount() {
+        return animalCount;
+    }
+
+    public void setAnimalCount(long animalCount) {
+        this.animalCount = animalCount;
+    }
+
+    public long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    public void setRetainedBytes(long retainedBytes) {
+        this.retainedBytes = retainedBytes;
+    }
+
+}
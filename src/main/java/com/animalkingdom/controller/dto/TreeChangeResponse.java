@@ -0,0 +1,76 @@
+package com.animalkingdom.controller.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class TreeChangeResponse {
+
+    // Token of the version of the tree created by this change ("<epoch>-<version>")
+    @JsonProperty("version")
+    private String version;
+
+    // ADDED, MOVED or DELETED
+    @JsonProperty("type")
+    private String type;
+
+    @JsonProperty("animalId")
+    private String animalId;
+
+    @JsonProperty("label")
+    private String label;
+
+    // The parent of the animal: its (new) parent, or the one it was deleted from
+    @JsonProperty("parent")
+    private String parent;
+
+    public TreeChangeResponse() {
+    }
+
+    public TreeChangeResponse(String version, String type, String animalId, String label, String parent) {
+        this.version = version;
+        this.type = type;
+        this.animalId = animalId;
+        this.label = label;
+        this.parent = parent;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getAnimalId() {
+        return animalId;
+    }
+
+    public void setAnimalId(String animalId) {
+        this.animalId = animalId;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    public String getParent() {
+        return parent;
+    }
+
+    public void setParent(String parent) {
+        this.parent = parent;
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.animalkingdom.controller.dto;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class TreeChangesResponse {
+
+    // Token of the version of the tree after the last of the changes ("<epoch>-<version>"), to catch up
+    // from next time
+    @JsonProperty("version")
+    private String version;
+
+    @JsonProperty("changes")
+    private List<TreeChangeResponse> changes;
+
+    public TreeChangesResponse() {
+    }
+
+    public TreeChangesResponse(String version, List<TreeChangeResponse> changes) {
+        this.version = version;
+        this.changes = changes;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    public List<TreeChangeResponse> getChanges() {
+        return changes;
+    }
+
+    public void setChanges(List<TreeChangeResponse> changes) {
+        this.changes = changes;
+    }
+
+}
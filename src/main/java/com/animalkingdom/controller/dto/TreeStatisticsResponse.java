@@ -0,0 +1,93 @@
+package com.animalkingdom.controller.dto;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class TreeStatisticsResponse {
+
+    @JsonProperty("animalCount")
+    private long animalCount;
+
+    // Depth of the deepest animal (0 if there are only roots)
+    @JsonProperty("maxDepth")
+    private int maxDepth;
+
+    // Number of animals at each depth, from the roots (depth 0) down
+    @JsonProperty("animalsByDepth")
+    private long[] animalsByDepth;
+
+    // Number of animals by number of children, for every number of children that occurs
+    @JsonProperty("animalsByChildCount")
+    private SortedMap<Integer, Long> animalsByChildCount;
+
+    @JsonProperty("labelCount")
+    private int labelCount;
+
+    // The most frequent labels with their number of animals, the most frequent first
+    @JsonProperty("topLabels")
+    private Map<String, Long> topLabels;
+
+    public TreeStatisticsResponse() {
+    }
+
+    public TreeStatisticsResponse(long animalCount, int maxDepth, long[] animalsByDepth,
+            SortedMap<Integer, Long> animalsByChildCount, int labelCount, Map<String, Long> topLabels) {
+        this.animalCount = animalCount;
+        this.maxDepth = maxDepth;
+        this.animalsByDepth = animalsByDepth;
+        this.animalsByChildCount = animalsByChildCount;
+        this.labelCount = labelCount;
+        this.topLabels = topLabels;
+    }
+
+    public long getAnimalCount() {
+        return animalCount;
+    }
+
+    public void setAnimalCount(long animalCount) {
+        this.animalCount = animalCount;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public long[] getAnimalsByDepth() {
+        return animalsByDepth;
+    }
+
+    public void setAnimalsByDepth(long[] animalsByDepth) {
+        this.animalsByDepth = animalsByDepth;
+    }
+
+    public SortedMap<Integer, Long> getAnimalsByChildCount() {
+        return animalsByChildCount;
+    }
+
+    public void setAnimalsByChildCount(SortedMap<Integer, Long> animalsByChildCount) {
+        this.animalsByChildCount = animalsByChildCount;
+    }
+
+    public int getLabelCount() {
+        return labelCount;
+    }
+
+    public void setLabelCount(int labelCount) {
+        this.labelCount = labelCount;
+    }
+
+    public Map<String, Long> getTopLabels() {
+        return topLabels;
+    }
+
+    public void setTopLabels(Map<String, Long> topLabels) {
+        this.topLabels = topLabels;
+    }
+
+}
@@ -1,19 +1,109 @@
 package com.animalkingdom.model;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
+// A node of the animal tree. Each animal holds its own ID, a link to its parent
+// and its children directly, instead of wrapping every child in a single-entry map
 public class Animal {
 
+    // Not the ID of any animal (IDs are positive): returned when there is no animal, and what an ID
+    // that is not a number is parsed as
+    public static final long NO_ID = -1;
+
+    // Not the version of any subtree (versions start at 0): expected by writes that are not conditional
+    public static final long ANY_VERSION = -1;
+
+    private static final Animal[] NO_CHILDREN = new Animal[0];
+
+    // Bytes of an animal: a 12 byte header, then its fields (two longs, and six references and four
+    // ints of 4 bytes each), rounded up to a multiple of 8
+    private static final long SHALLOW_SIZE = 72;
+
+    private static final AtomicIntegerFieldUpdater<Animal> SUBTREE_SIZE =
+            AtomicIntegerFieldUpdater.newUpdater(Animal.class, "subtreeSize");
+
+    private static final AtomicLongFieldUpdater<Animal> VERSION =
+            AtomicLongFieldUpdater.newUpdater(Animal.class, "version");
+
+    // The lowest bit of version marks a conditional write under this animal that is in progress
+    private static final long RESERVED = 1;
+    private static final long VERSION_INCREMENT = 2;
+
+    private final long id;
     private String label;
-    private List<Map<String, Animal>> children = new ArrayList<>();
+    private Animal parent;
+
+    // Children are appended under this animal's lock into an array that only ever grows
+    // (a full array is replaced by a bigger copy), and published through the volatile count.
+    // Readers never lock: they read the count first, then see at least that many children.
+    // A removed child is dropped from a copy of the array that is just big enough, so readers
+    // that read the count before the removal never read past the end of the copy
+    private volatile Animal[] children = NO_CHILDREN;
+    private volatile int childCount;
+
+    // Number of animals in the subtree rooted at this animal (including itself),
+    // kept up to date by addChild on this animal and all of its ancestors
+    private volatile int subtreeSize = 1;
+
+    // Version of the subtree rooted at this animal, incremented (with its subtree size) on this animal
+    // and all of its ancestors once a change to the subtree is linked, so a reader that reads it before
+    // the subtree has seen every change it counts. Shifted left by one, see RESERVED
+    private volatile long version;
+
+    // Children that are not loaded yet (null once they are), see loadChildren
+    private volatile LazyChildren lazyChildren;
+
+    // Depth of this animal (0 for a root), and a "jump" ancestor (this animal for a root), chosen
+    // from the parent's so that following jumps (or parents when a jump goes too far) reaches any
+    // ancestor in a logarithmic number of steps (skew-binary jump pointers). A move does not visit the
+    // moved subtree: it counts itself on the move clock of the tree instead, and both are checked again
+    // from the parent's on their first use after it (see ensureAncestry)
+    private int depth;
+    private Animal jump = this;
 
-    public Animal() {
+    // Move clock of the tree of this animal, found from the parent's (or made by a root) and cached
+    private MoveClock moveClock;
+
+    // Moves of moveClock when depth and jump were last checked (-1 if they never were). Written after
+    // them, so a reader that sees it current also sees them
+    private volatile int ancestryCheckedAt = -1;
+
+    public Animal(long id, String label) {
+        this.id = id;
+        this.label = internLabel(label);
+    }
+
+    // Creates an animal with a subtree of the given size (including itself),
+    // whose children are only loaded the first time they are needed
+    public Animal(long id, String label, int subtreeSize, LazyChildren lazyChildren) {
+        this(id, label);
+        this.subtreeSize = subtreeSize;
+        this.lazyChildren = lazyChildren;
+    }
+
+    public long getId() {
+        return id;
     }
 
-    public Animal(String label) {
-        this.label = label;
+    // Parses an ID as written in the API, or returns NO_ID if it is missing or not a number
+    // (so that looking it up finds nothing, like any other unknown ID)
+    public static long parseId(String id) {
+        if (id == null) {
+            return NO_ID;
+        }
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            return NO_ID;
+        }
     }
 
     public String getLabel() {
@@ -21,15 +111,399 @@ public class Animal {
     }
 
     public void setLabel(String label) {
-        this.label = label;
+        this.label = internLabel(label);
+    }
+
+    // Returns the parent of this animal, or null if this animal is a root
+    public Animal getParent() {
+        return parent;
+    }
+
+    // Returns a read-only view of the children added so far
+    public List<Animal> getChildren() {
+        loadChildren();
+        return getLoadedChildren();
+    }
+
+    public int getChildCount() {
+        loadChildren();
+        return childCount;
+    }
+
+    public int getSubtreeSize() {
+        return subtreeSize;
+    }
+
+    // Returns the approximate number of bytes of this animal and of its array of children (but not of
+    // its label, which is interned and shared), on a 64-bit JVM with compressed references
+    public long getRetainedSize() {
+        Animal[] current = children;
+        return SHALLOW_SIZE + (current == NO_CHILDREN ? 0 : (16 + 4L * current.length + 7) & ~7);
+    }
+
+    // Returns the number of changes to the subtree of this animal (added, moved or removed animals)
+    // since it was created or loaded. Read before the subtree, it never counts a change that is missed
+    public long getVersion() {
+        return version >>> 1;
+    }
+
+    // Reserves this animal for a conditional write under it, if its subtree is still at the given
+    // version and no other conditional write under it is in progress. The write must then be followed
+    // by releaseVersion, after it is linked (or abandoned). Changes that are not conditional still
+    // go on meanwhile: they are ordered after the reserved write
+    public boolean reserveVersion(long expectedVersion) {
+        return expectedVersion >= 0
+                && VERSION.compareAndSet(this, expectedVersion << 1, (expectedVersion << 1) | RESERVED);
+    }
+
+    // Ends the conditional write reserved by reserveVersion
+    public void releaseVersion() {
+        VERSION.getAndAdd(this, -RESERVED);
+    }
+
+    public int getDepth() {
+        ensureAncestry();
+        return depth;
+    }
+
+    // Returns the ancestor of this animal (or this animal itself) at the given depth,
+    // or null if the depth is negative or deeper than this animal
+    public Animal getAncestor(int ancestorDepth) {
+        ensureAncestry();
+        if (ancestorDepth < 0 || ancestorDepth > depth) {
+            return null;
+        }
+
+        Animal animal = this;
+        while (animal.depth > ancestorDepth) {
+            animal = animal.jump.depth >= ancestorDepth ? animal.jump : animal.parent;
+        }
+        return animal;
+    }
+
+    // Returns the deepest animal that is both an ancestor of (or the same as) this animal and the
+    // given one, or null if they are in different trees. Animals at the same depth always have jumps
+    // to the same depth, so both move up together, in a logarithmic number of steps
+    public Animal getCommonAncestor(Animal other) {
+        ensureAncestry();
+        other.ensureAncestry();
+        Animal a = depth >= other.depth ? getAncestor(other.depth) : this;
+        Animal b = depth >= other.depth ? other : other.getAncestor(depth);
+        while (a != b) {
+            if (a.depth == 0) {
+                return null; // Different roots
+            }
+            if (a.jump != b.jump) {
+                a = a.jump;
+                b = b.jump;
+            } else {
+                a = a.parent;
+                b = b.parent;
+            }
+        }
+        return a;
+    }
+
+    // Returns the children of this animal that are not loaded yet, or null if they are.
+    // While they are not loaded, nothing in the subtree of this animal has changed
+    public LazyChildren getLazyChildren() {
+        return lazyChildren;
+    }
+
+    // Appends the given animal (and its own subtree) to the children of this animal,
+    // and adds the size of that subtree to this animal and all of its ancestors
+    public void addChild(Animal child) {
+        loadChildren();
+        linkAncestry(child);
+        synchronized (this) {
+            append(child);
+        }
+        addToSubtreeSizes(child.subtreeSize);
     }
 
-    public List<Map<String, Animal>> getChildren() {
-        return children;
+    // Appends all the given animals (in order) to the children of this animal,
+    // taking the lock and updating the ancestors' subtree sizes only once
+    public void addChildren(List<Animal> newChildren) {
+        int added = 0;
+        loadChildren();
+        for (Animal child : newChildren) {
+            linkAncestry(child);
+        }
+        synchronized (this) {
+            for (Animal child : newChildren) {
+                append(child);
+                added += child.subtreeSize;
+            }
+        }
+        addToSubtreeSizes(added);
     }
 
-    public void setChildren(List<Map<String, Animal>> children) {
-        this.children = children;
+    // Moves this animal (with its whole subtree) from the children of its parent to the end of the
+    // children of the given animal, and moves the size of its subtree from its old ancestors to the new
+    // ones. Only the two parents change: the move is counted on the move clock of the tree, so the
+    // depths and jumps of the moved subtree are checked again on their next use (see ensureAncestry),
+    // and the cost of a move does not grow with its subtree. This animal must not be a root, and the new
+    // parent must not be in its subtree. Safe with concurrent readers, but not with concurrent changes
+    // to the tree
+    public void moveTo(Animal newParent) {
+        MoveClock from = getMoveClock();
+        MoveClock to = newParent.getMoveClock();
+        newParent.loadChildren();
+        parent.removeChild(this);
+        synchronized (newParent) {
+            newParent.append(this);
+        }
+        if (from == to) {
+            to.moves++;
+        } else {
+            to.join(from);
+        }
+        newParent.addToSubtreeSizes(subtreeSize);
+    }
+
+    // Removes this animal (with its whole subtree) from the children of its parent, and removes the
+    // size of its subtree from its ancestors. This animal must not be a root. Safe with concurrent
+    // readers, but not with concurrent changes to the tree
+    public void remove() {
+        parent.removeChild(this);
+    }
+
+    // Appends the given animal to the children of this animal without updating any subtree sizes,
+    // or its depth and jump. Only for building a tree that is not shared yet, see updateSubtreeSize
+    // and updateAncestry
+    public void linkChild(Animal child) {
+        synchronized (this) {
+            append(child);
+        }
+    }
+
+    // Sets the subtree size of this animal from the (already updated) sizes of its children.
+    // Only for building a tree that is not shared yet, bottom-up after linkChild
+    public void updateSubtreeSize() {
+        int size = 1;
+        for (int i = 0; i < childCount; i++) {
+            size += children[i].subtreeSize;
+        }
+        subtreeSize = size;
+    }
+
+    // Sets the depth and jump of this animal from its parent's. Only for building a tree
+    // that is not shared yet, top-down after linkChild
+    public void updateAncestry() {
+        MoveClock clock = parent == null ? getMoveClock() : parent.getMoveClock();
+        setAncestry(parent, clock, clock.moves);
+    }
+
+    // Sets the depth and jump of the given new child (not linked yet) from this animal's, and has it (and
+    // its subtree, if it comes with one) use the move clock of this tree. A subtree that used a clock of
+    // its own joins it like a move does, so its depths and jumps are checked again on their next use
+    private void linkAncestry(Animal child) {
+        MoveClock clock = getMoveClock();
+        MoveClock childClock = child.moveClock == null ? null : child.getMoveClock();
+        if (childClock != null && childClock != clock) {
+            clock.join(childClock);
+        }
+        ensureAncestry();
+        child.setAncestry(this, clock, clock.moves);
+    }
+
+    // Checks the depth and jump of this animal again, from its parent's, if a move in its tree has been
+    // counted since they were last checked (and first the ones of its ancestors, top-down). Ancestors
+    // checked since the last move are not visited again, so after a move only the first use of each
+    // path walks it. Callers hold off moves (like the structure lock of the service does): concurrent
+    // checks only ever write the same values
+    private void ensureAncestry() {
+        MoveClock clock = getMoveClock();
+        int moves = clock.moves;
+        if (ancestryCheckedAt == moves) {
+            return;
+        }
+
+        // The path up to the first ancestor checked since (kept on the heap, so a chain of any depth
+        // cannot overflow the call stack)
+        ArrayDeque<Animal> unchecked = new ArrayDeque<>();
+        for (Animal animal = this; animal != null && animal.ancestryCheckedAt != moves; animal = animal.parent) {
+            unchecked.push(animal);
+        }
+        while (!unchecked.isEmpty()) {
+            Animal animal = unchecked.pop();
+            animal.setAncestry(animal.parent, clock, moves);
+        }
+    }
+
+    // Returns the move clock of the tree of this animal, found from the first ancestor that knows it
+    // (or made by the root) and cached on the way, then followed to the clock it joined, if any
+    private MoveClock getMoveClock() {
+        MoveClock clock = moveClock;
+        if (clock == null) {
+            Animal known = this;
+            while (known.moveClock == null && known.parent != null) {
+                known = known.parent;
+            }
+            clock = known.moveClock;
+            if (clock == null) {
+                synchronized (known) {
+                    if (known.moveClock == null) {
+                        known.moveClock = new MoveClock();
+                    }
+                    clock = known.moveClock;
+                }
+            }
+            for (Animal animal = this; animal != known; animal = animal.parent) {
+                animal.moveClock = clock;
+            }
+        }
+        if (clock.joined != null) {
+            while (clock.joined != null) {
+                clock = clock.joined;
+            }
+            moveClock = clock;
+        }
+        return clock;
+    }
+
+    // The parent's depth and jump must be checked against the given clock
+    private void setAncestry(Animal newParent, MoveClock clock, int moves) {
+        moveClock = clock;
+        if (newParent == null) {
+            depth = 0;
+            jump = this;
+        } else {
+            depth = newParent.depth + 1;
+            Animal parentJump = newParent.jump;
+            if (newParent.depth - parentJump.depth == parentJump.depth - parentJump.jump.depth) {
+                jump = parentJump.jump;
+            } else {
+                jump = newParent;
+            }
+        }
+        ancestryCheckedAt = moves;
+    }
+
+    // Returns a read-only view of the children that are loaded, without loading the lazy ones
+    private List<Animal> getLoadedChildren() {
+        int count = childCount;
+        Animal[] current = children;
+        count = Math.min(count, current.length); // A child may have been removed since the count was read
+        return count == 0 ? Collections.emptyList() : new ChildrenView(current, count);
+    }
+
+    // Must be called while holding this animal's lock
+    private void append(Animal child) {
+        child.parent = this;
+
+        int count = childCount;
+        Animal[] current = children;
+        if (count == current.length) {
+            current = Arrays.copyOf(current, Math.max(2, count + (count >> 1)));
+            children = current;
+        }
+        current[count] = child;
+        childCount = count + 1;
+    }
+
+    // Removes the given child, under this animal's lock, and its subtree size from this animal and its ancestors
+    private void removeChild(Animal child) {
+        loadChildren();
+        synchronized (this) {
+            int count = childCount;
+            Animal[] current = children;
+            int index = 0;
+            while (index < count && current[index] != child) {
+                index++;
+            }
+            if (index == count) {
+                return; // Not a child (anymore)
+            }
+
+            Animal[] remaining = new Animal[count - 1];
+            System.arraycopy(current, 0, remaining, 0, index);
+            System.arraycopy(current, index + 1, remaining, index, count - index - 1);
+            children = remaining;
+            childCount = count - 1;
+        }
+        addToSubtreeSizes(-child.subtreeSize);
+    }
+
+    // Loads the lazy children (once, even when called concurrently). They are published
+    // before lazyChildren is cleared, so readers that see it cleared also see them
+    private void loadChildren() {
+        if (lazyChildren == null) {
+            return;
+        }
+
+        synchronized (this) {
+            LazyChildren lazy = lazyChildren;
+            if (lazy != null) {
+                // Their depths and jumps are set from this animal's on their first use
+                Animal[] loaded = lazy.load(this);
+                for (Animal child : loaded) {
+                    child.parent = this;
+                }
+                children = loaded;
+                childCount = loaded.length;
+                lazyChildren = null;
+            }
+        }
+    }
+
+    // Ancestors are shared with concurrent writers, so they are updated atomically.
+    // Every change goes through here once it is linked, which also increments the versions
+    private void addToSubtreeSizes(int added) {
+        for (Animal ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+            SUBTREE_SIZE.addAndGet(ancestor, added);
+            VERSION.getAndAdd(ancestor, VERSION_INCREMENT);
+        }
+    }
+
+    // Labels repeat a lot across a large tree (e.g. "cat"), so a single shared copy is kept
+    private static String internLabel(String label) {
+        return label == null ? null : label.intern();
+    }
+
+    // Number of moves in a tree, shared by all of its animals, so that a move can leave the depths and
+    // jumps of the moved subtree as they are (see ensureAncestry). Only changed by moves (and links of
+    // whole subtrees), which callers never run concurrently. A subtree moved from a tree with a clock of
+    // its own joins that clock to the new one, which then counts the moves of both trees
+    private static final class MoveClock {
+
+        private volatile int moves;
+
+        // The clock this one joined, if any
+        private volatile MoveClock joined;
+
+        // Joins the given clock to this one, ahead of both, so that every depth and jump checked
+        // against either is checked again
+        void join(MoveClock other) {
+            moves = Math.max(moves, other.moves) + 1;
+            other.joined = this;
+        }
+
+    }
+
+    // Read-only view of the first children of a children array, a single small object per call
+    // (instead of an unmodifiable wrapper of a sub list of a list), since whole-tree walks read the
+    // children of every animal
+    private static final class ChildrenView extends AbstractList<Animal> implements RandomAccess {
+
+        private final Animal[] children;
+        private final int size;
+
+        ChildrenView(Animal[] children, int size) {
+            this.children = children;
+            this.size = size;
+        }
+
+        @Override
+        public Animal get(int index) {
+            return children[Objects.checkIndex(index, size)];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
     }
 
 }
@@ -0,0 +1,152 @@
+package com.animalkingdom.model;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+// Iterative walks of a tree of animals (depth-first with pre- and post-order callbacks, and breadth-first),
+// shared by every operation that visits a whole tree or subtree. The walks keep their own stack or queue
+// on the heap, so a tree of any depth (e.g. a chain of millions of animals) cannot overflow the call stack
+public final class AnimalTreeTraversal {
+
+    // What to do after a visitor callback
+    public enum Action {
+        // Go on (into the children of the animal, when returned by enter)
+        CONTINUE,
+        // Do not visit the children of the animal (only meaningful when returned by enter)
+        SKIP_CHILDREN,
+        // End the whole walk right away
+        STOP
+    }
+
+    // Callbacks of a walk. The depth is counted from the animals the walk starts from (depth 0).
+    // Callbacks may throw the visitor's exception type, which ends the walk and is rethrown as is
+    @FunctionalInterface
+    public interface Visitor<E extends Exception> {
+
+        // Called when an animal is reached, before any of its children (pre-order)
+        Action enter(Animal animal, int depth) throws E;
+
+        // Returns the children of the animal to visit, in order. Called once per animal, right after
+        // enter returned CONTINUE for it, so a visitor can return the exact list it just read there
+        default List<Animal> children(Animal animal, int depth) throws E {
+            return animal.getChildren();
+        }
+
+        // Called after all the children of an animal (post-order), also when they were skipped.
+        // Not called by breadth-first walks
+        default Action leave(Animal animal, int depth) throws E {
+            return Action.CONTINUE;
+        }
+
+    }
+
+    private AnimalTreeTraversal() {
+    }
+
+    // Walks the trees of the given roots depth-first, in order. Returns false if a callback stopped the walk
+    public static <E extends Exception> boolean depthFirst(List<Animal> roots, Visitor<E> visitor) throws E {
+        // Level k holds the animals at depth k (and the index of the next one to visit), and the animal
+        // at depth k whose children are being visited (the parent of level k + 1). Levels are walked by
+        // index rather than with iterators, so a level costs no allocation beyond its list
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        List<Animal>[] siblings = new List[16];
+        int[] next = new int[16];
+        Animal[] open = new Animal[16];
+        siblings[0] = roots;
+        int levels = 1;
+
+        while (levels > 0) {
+            int depth = levels - 1;
+            if (next[depth] == siblings[depth].size()) {
+                siblings[depth] = null;
+                next[depth] = 0;
+                levels--;
+                if (depth > 0) {
+                    Animal parent = open[depth - 1];
+                    open[depth - 1] = null;
+                    if (visitor.leave(parent, depth - 1) == Action.STOP) {
+                        return false;
+                    }
+                }
+                continue;
+            }
+
+            Animal animal = siblings[depth].get(next[depth]++);
+            Action action = visitor.enter(animal, depth);
+            if (action == Action.STOP) {
+                return false;
+            }
+            List<Animal> children = action == Action.CONTINUE ? visitor.children(animal, depth) : List.of();
+            if (children.isEmpty()) {
+                if (visitor.leave(animal, depth) == Action.STOP) {
+                    return false;
+                }
+                continue;
+            }
+
+            if (levels == siblings.length) {
+                siblings = Arrays.copyOf(siblings, levels * 2);
+                next = Arrays.copyOf(next, levels * 2);
+                open = Arrays.copyOf(open, levels * 2);
+            }
+            open[depth] = animal;
+            siblings[levels++] = children;
+        }
+        return true;
+    }
+
+    // Walks the trees of the given roots breadth-first (level by level, in order), calling only enter.
+    // Returns false if a callback stopped the walk
+    public static <E extends Exception> boolean breadthFirst(List<Animal> roots, Visitor<E> visitor) throws E {
+        ArrayDeque<Animal> queue = new ArrayDeque<>(roots);
+        int depth = 0;
+        int leftInLevel = queue.size();
+
+        while (!queue.isEmpty()) {
+            if (leftInLevel == 0) {
+                // The queue now holds exactly the next level
+                depth++;
+                leftInLevel = queue.size();
+            }
+            Animal animal = queue.poll();
+            leftInLevel--;
+
+            Action action = visitor.enter(animal, depth);
+            if (action == Action.STOP) {
+                return false;
+            }
+            if (action == Action.CONTINUE) {
+                queue.addAll(visitor.children(animal, depth));
+            }
+        }
+        return true;
+    }
+
+    // Returns the first animal (in pre-order) that matches the given predicate, or null if none does.
+    // The walk stops at the match
+    public static Animal find(List<Animal> roots, Predicate<Animal> predicate) {
+        Animal[] found = new Animal[1];
+        depthFirst(roots, (animal, depth) -> {
+            if (predicate.test(animal)) {
+                found[0] = animal;
+                return Action.STOP;
+            }
+            return Action.CONTINUE;
+        });
+        return found[0];
+    }
+
+    // Counts the animals of the trees of the given roots, by visiting them (see Animal.getSubtreeSize
+    // for the count kept up to date while the tree changes)
+    public static int count(List<Animal> roots) {
+        int[] count = new int[1];
+        depthFirst(roots, (animal, depth) -> {
+            count[0]++;
+            return Action.CONTINUE;
+        });
+        return count[0];
+    }
+
+}
@@ -0,0 +1,10 @@
+package com.animalkingdom.model;
+
+// Children of an animal that are not in memory yet (e.g. still in a memory-mapped snapshot
+// of the tree), and are only turned into Animal objects the first time they are needed
+public interface LazyChildren {
+
+    // Creates the children of the given animal, in order
+    Animal[] load(Animal parent);
+
+}
@@ -0,0 +1,61 @@
+package com.animalkingdom.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Publishes metrics about the animal tree through the actuator (GET /actuator/metrics and /actuator/prometheus)
+@Component
+public class AnimalKingdomMetrics implements MeterBinder {
+
+    public static final String ANIMAL_COUNT = "animalkingdom.animals.count";
+    public static final String TREE_DEPTH = "animalkingdom.tree.depth";
+
+    // Timers recorded by AnimalKingdomService
+    public static final String ADD_ANIMAL = "animalkingdom.animals.add";
+    public static final String PARENT_LOOKUP = "animalkingdom.animals.parent.lookup";
+    public static final String ID_GENERATION = "animalkingdom.animals.id.generation";
+    public static final String SERIALIZATION = "animalkingdom.tree.serialization";
+
+    // Tag of the serialization timer: the cached snapshot, or the tree streamed without it
+    public static final String SERIALIZATION_MODE = "mode";
+    public static final String SERIALIZATION_MODE_SNAPSHOT = "snapshot";
+    public static final String SERIALIZATION_MODE_STREAM = "stream";
+
+    // Tag of every meter: the tenant of the tree (see AnimalKingdomTenants), or MAIN_TREE for the tree of
+    // /api/tree. Not left out for the main tree, since Prometheus needs the meters of a name to have the
+    // same tags
+    public static final String TENANT = "tenant";
+    public static final String MAIN_TREE = "";
+
+    private final AnimalKingdomService animalKingdomService;
+    private final String tenant;
+
+    @Autowired
+    public AnimalKingdomMetrics(final AnimalKingdomService animalKingdomService) {
+        this(animalKingdomService, MAIN_TREE);
+    }
+
+    public AnimalKingdomMetrics(final AnimalKingdomService animalKingdomService, final String tenant) {
+        this.animalKingdomService = animalKingdomService;
+        this.tenant = tenant;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        // Reads the incrementally maintained count, so scraping never walks the tree
+        Gauge.builder(ANIMAL_COUNT, animalKingdomService, AnimalKingdomService::getAnimalCount)
+                .description("Number of animals in the tree")
+                .tag(TENANT, tenant)
+                .register(registry);
+        // Walks the tree, but only once per change to it
+        Gauge.builder(TREE_DEPTH, animalKingdomService, AnimalKingdomService::getTreeDepth)
+                .description("Depth of the deepest animal in the tree (0 for a root)")
+                .tag(TENANT, tenant)
+                .register(registry);
+    }
+
+}
@@ -1,70 +1,893 @@
 package com.animalkingdom.service;
 
 import com.animalkingdom.model.Animal;
+import com.animalkingdom.model.AnimalTreeTraversal;
+import com.animalkingdom.utilities.AnimalIdGenerator;
+import com.animalkingdom.utilities.AnimalIdIndex;
+import com.animalkingdom.utilities.AnimalLabelIndex;
+import com.animalkingdom.utilities.AnimalTreeAnalyzer;
+import com.animalkingdom.utilities.AnimalTreeJsonWriter;
+import com.animalkingdom.utilities.AnimalTreeStatistics;
+import com.animalkingdom.utilities.AnimalTreeStore;
 import com.animalkingdom.utilities.Utilities;
 import com.animalkingdom.utilities.AnimalTreeDataLoader;
+import com.animalkingdom.utilities.ErrorMessages;
+import com.animalkingdom.utilities.MappedAnimalTree;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.log.LogMessage;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @Service
 public class AnimalKingdomService {
 
     private static final Log log = LogFactory.getLog(AnimalKingdomService.class);
 
+    // Prefix of a parent ID in a batch that refers to an animal created earlier in the
+    // same batch by its zero-based position, e.g. "@0" is the first animal of the batch
+    public static final String BATCH_REFERENCE_PREFIX = "@";
+
+    // Version of an entity tag that matches no subtree (unlike Animal.ANY_VERSION, which matches any)
+    public static final long NO_VERSION = -2;
+
     private final AnimalTreeDataLoader animalTreeDataLoader;
 
     private final Utilities utilities;
 
+    // Durable log and snapshots of the tree (disabled when no storage directory is configured)
+    private final AnimalTreeStore animalTreeStore;
+
     // In-memory data store for the list (tree) of animals
-    private final List<Map<String, Animal>> animals;
+    private final List<Animal> animals;
+
+    // Index of every loaded animal in the tree by its ID, kept in sync on every insert
+    // so that lookups never walk the tree (each animal links to its own parent).
+    // Keyed by the primitive IDs, and segmented, so that inserts under different parents rarely contend
+    private final AnimalIdIndex animalsById = new AnimalIdIndex();
+
+    // Index of the IDs of every animal in the tree (loaded or not) by label, kept in sync on every insert
+    private final AnimalLabelIndex animalLabelIndex = new AnimalLabelIndex();
+
+    // Guards the shape of the tree: inserts share it (they only ever append), while moves and deletes
+    // take it alone, so that an insert never updates the sizes of ancestors that are being changed,
+    // or adds an animal under a deleted one. Reads of the tree never take it, except for the ancestor
+    // queries, which follow parent links and depths that a move changes
+    private final ReadWriteLock structureLock = new ReentrantReadWriteLock();
+
+    // Generator of new animal IDs, seeded with the highest ID in the loaded tree + 1
+    private final AnimalIdGenerator animalIdGenerator;
+
+    // Every change to the tree, each one creating the next version of the tree, and the cached
+    // serialized snapshot of the tree (rebuilt on the first read after the version changes)
+    private final AnimalTreeChangeFeed animalTreeChangeFeed;
+    private volatile AnimalTreeSnapshot treeSnapshot;
+    // Held while the snapshot is rebuilt (for a while, on a large tree), so it is not a monitor:
+    // a virtual thread waiting for a monitor would keep its carrier thread from running other ones
+    private final Lock treeSnapshotLock = new ReentrantLock();
+
+    private final AnimalTreeJsonWriter animalTreeJsonWriter = new AnimalTreeJsonWriter();
+
+    // Tree and subtree versions start over when the tree is loaded, so their entity tags also carry the
+    // time the change feed started: a tag read before a restart never matches a tree or subtree after it
+    private final String versionEpoch;
+
+    // Latencies of the hot paths, published through the actuator (see AnimalKingdomMetrics)
+    private final Timer addAnimalTimer;
+    private final Timer parentLookupTimer;
+    private final Timer idGenerationTimer;
+    private final Timer snapshotSerializationTimer;
+    private final Timer streamSerializationTimer;
+
+    // Depth of the deepest animal, computed at most once per version of the tree (see getTreeDepth)
+    private final Lock treeDepthLock = new ReentrantLock();
+    private long treeDepthVersion = -1;
+    private int treeDepth;
+
+    // Statistics of the whole tree, computed in parallel at most once per version of the tree
+    // (see getTreeStatistics). Held during the computation, so it is not a monitor either
+    private final AnimalTreeAnalyzer animalTreeAnalyzer = new AnimalTreeAnalyzer();
+    private final Lock treeStatisticsLock = new ReentrantLock();
+    private long treeStatisticsVersion = -1;
+    private AnimalTreeStatistics treeStatistics;
+
+    // Approximate bytes held by the tree and its indexes, computed at most once per version of the tree
+    // (see getRetainedSize)
+    private final Lock retainedSizeLock = new ReentrantLock();
+    private long retainedSizeVersion = -1;
+    private long retainedSize;
+
+    @Value("${animalkingdom.tree.snapshot-cache.enabled:true}")
+    private boolean snapshotCacheEnabled = true;
+
+    @Value("${animalkingdom.tree.snapshot-cache.gzip:true}")
+    private boolean snapshotCacheGzip = true;
+
+    public AnimalKingdomService(final AnimalTreeDataLoader animalTreeDataLoader, final Utilities utilities,
+            final AnimalTreeStore animalTreeStore) {
+        this(animalTreeDataLoader, utilities, animalTreeStore, new AnimalTreeChangeFeed());
+    }
 
-    public AnimalKingdomService(final AnimalTreeDataLoader animalTreeDataLoader, final Utilities utilities) {
+    public AnimalKingdomService(final AnimalTreeDataLoader animalTreeDataLoader, final Utilities utilities,
+            final AnimalTreeStore animalTreeStore, final AnimalTreeChangeFeed animalTreeChangeFeed) {
+        // A registry without any registries attached, whose timers record nothing
+        this(animalTreeDataLoader, utilities, animalTreeStore, animalTreeChangeFeed, new CompositeMeterRegistry());
+    }
+
+    @Autowired
+    public AnimalKingdomService(final AnimalTreeDataLoader animalTreeDataLoader, final Utilities utilities,
+            final AnimalTreeStore animalTreeStore, final AnimalTreeChangeFeed animalTreeChangeFeed,
+            final MeterRegistry meterRegistry) {
+        this(animalTreeDataLoader, utilities, animalTreeStore, animalTreeChangeFeed, meterRegistry,
+                AnimalKingdomMetrics.MAIN_TREE);
+    }
+
+    // The tree of the given tenant (see AnimalKingdomTenants), whose meters are tagged with it
+    public AnimalKingdomService(final AnimalTreeDataLoader animalTreeDataLoader, final Utilities utilities,
+            final AnimalTreeStore animalTreeStore, final AnimalTreeChangeFeed animalTreeChangeFeed,
+            final MeterRegistry meterRegistry, final String tenant) {
         this.animalTreeDataLoader = animalTreeDataLoader;
         this.utilities = utilities;
-        this.animals = this.animalTreeDataLoader.createAnimals();
+        this.animalTreeStore = animalTreeStore;
+        this.animalTreeChangeFeed = animalTreeChangeFeed;
+        this.versionEpoch = animalTreeChangeFeed.getEpoch();
+
+        // Percentiles and histograms are configured with management.metrics.distribution.*
+        this.addAnimalTimer = Timer.builder(AnimalKingdomMetrics.ADD_ANIMAL)
+                .description("Time to add an animal, until it is durable")
+                .tag(AnimalKingdomMetrics.TENANT, tenant)
+                .register(meterRegistry);
+        this.parentLookupTimer = Timer.builder(AnimalKingdomMetrics.PARENT_LOOKUP)
+                .description("Time to find the parent of a new animal")
+                .tag(AnimalKingdomMetrics.TENANT, tenant)
+                .register(meterRegistry);
+        this.idGenerationTimer = Timer.builder(AnimalKingdomMetrics.ID_GENERATION)
+                .description("Time to generate the ID of a new animal")
+                .tag(AnimalKingdomMetrics.TENANT, tenant)
+                .register(meterRegistry);
+        this.snapshotSerializationTimer = Timer.builder(AnimalKingdomMetrics.SERIALIZATION)
+                .description("Time to serialize the whole tree to JSON")
+                .tag(AnimalKingdomMetrics.SERIALIZATION_MODE, AnimalKingdomMetrics.SERIALIZATION_MODE_SNAPSHOT)
+                .tag(AnimalKingdomMetrics.TENANT, tenant)
+                .register(meterRegistry);
+        this.streamSerializationTimer = Timer.builder(AnimalKingdomMetrics.SERIALIZATION)
+                .description("Time to serialize the whole tree to JSON")
+                .tag(AnimalKingdomMetrics.SERIALIZATION_MODE, AnimalKingdomMetrics.SERIALIZATION_MODE_STREAM)
+                .tag(AnimalKingdomMetrics.TENANT, tenant)
+                .register(meterRegistry);
+
+        // The stored tree, if there is one (which indexes its animals as they are loaded),
+        // otherwise the initial data set
+        List<Animal> storedAnimals = this.animalTreeStore.load(animalsById);
+        long maxId;
+        if (storedAnimals != null) {
+            this.animals = storedAnimals;
+            maxId = this.animalTreeStore.getLoadedMaxId();
+        } else {
+            this.animals = this.animalTreeDataLoader.createAnimals();
+            maxId = indexAnimals(this.animals);
+        }
+        indexLabels(this.animals, this.animalTreeStore.getMappedTree());
+        this.animalIdGenerator = new AnimalIdGenerator(maxId + 1);
+        this.animalTreeStore.open(this.animals);
     }
 
     // Returns the entire tree data set of all animals (including the children)
-    public List<Map<String, Animal>> getAnimals() {
+    public List<Animal> getAnimals() {
         if (animals == null || animals.isEmpty()) {
             log.warn("No animals found.");
             return Collections.emptyList();
         }
 
-        int count = utilities.countAnimals(animals);
-        log.info(String.format("Found '%d' animals.", count));
+        log.info(LogMessage.format("Found '%d' animals.", getAnimalCount()));
         return animals;
     }
 
+    // Returns the number of animals in the tree. Every animal keeps the size of its own
+    // subtree up to date on insert, so this only sums the sizes of the roots
+    public long getAnimalCount() {
+        if (animals == null) {
+            return 0;
+        }
+
+        long count = 0;
+        for (Animal root : animals) {
+            count += root.getSubtreeSize();
+        }
+        return count;
+    }
+
     // Adds a new animal (with the given label) under the parent
-    // (by parent ID), and returns the newly created animal's ID
-    public String addAnimal(String parentId, String label) {
-        // Find the parent animal in the tree data set
-        final Animal parent = utilities.findParentbyAnimalId(animals, parentId);
+    // (by parent ID), and returns the newly created animal's ID, or NO_ID if it was not added.
+    // Safe to call concurrently with other inserts and with reads of the tree
+    public long addAnimal(long parentId, String label) {
+        return addAnimal(parentId, label, Animal.ANY_VERSION);
+    }
+
+    // Adds a new animal like addAnimal, but only if the subtree of the parent is still at the given
+    // version (see getETag), or with any version for ANY_VERSION. Otherwise nothing is added, and
+    // a ConcurrentModificationException is thrown. The version is compared and set atomically on
+    // the parent alone, so conditional writers under different parents never wait for each other
+    public long addAnimal(long parentId, String label, long expectedVersion) {
+        return addAnimal(parentId, label,
+                expectedVersion == Animal.ANY_VERSION ? null : new long[] { expectedVersion });
+    }
+
+    // Adds a new animal like addAnimal, but only if the subtree of the parent is still at one of the
+    // given versions (see parseETags), or only if the parent exists when they hold ANY_VERSION (for
+    // If-Match: *), and without condition for null. Otherwise nothing is added, and a
+    // ConcurrentModificationException is thrown
+    public long addAnimal(long parentId, String label, long[] expectedVersions) {
+        long start = System.nanoTime();
+        try {
+            return add(parentId, label, expectedVersions);
+        } finally {
+            addAnimalTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private long add(long parentId, String label, long[] expectedVersions) {
+        if (label == null || label.isBlank()) {
+            return Animal.NO_ID; // Label is required
+        }
+
+        // Find the parent animal in the index
+        long lookupStart = System.nanoTime();
+        final Animal parent = getAnimal(parentId);
+        parentLookupTimer.record(System.nanoTime() - lookupStart, TimeUnit.NANOSECONDS);
         if (parent == null) {
-            return null; // Parent not found
+            return rejectMissingParent(expectedVersions); // Parent not found
         }
 
         // Generate a new ID
-        final String newAnimalId = utilities.createId(animals);
+        long idStart = System.nanoTime();
+        final long newAnimalId = animalIdGenerator.nextId();
+        idGenerationTimer.record(System.nanoTime() - idStart, TimeUnit.NANOSECONDS);
 
-        // Create the child Animal and wrap it in a map
-        Animal child = new Animal(label);
-        Map<String, Animal> childMap = new HashMap<>();
-        childMap.put(newAnimalId, child);
+        // Log the insert, then append the new child to the parent's children (which also
+        // updates the subtree sizes of all its ancestors). This only locks the parent, so
+        // writers to different subtrees do not contend and readers never block.
+        // The child is indexed only once it is fully linked, so that inserts under it
+        // (which need its ID, returned below) always see its parent link, and come after it
+        // in the change feed
+        Animal child = new Animal(newAnimalId, label);
+        long logPosition;
+        structureLock.readLock().lock();
+        try {
+            if (animalsById.get(parent.getId()) != parent) {
+                return rejectMissingParent(expectedVersions); // Parent deleted since it was found
+            }
+            // Checked under the structure lock, so no move or delete can change the subtree until
+            // the insert is applied, and before logging, so a rejected insert leaves no trace
+            boolean conditional = expectedVersions != null && !contains(expectedVersions, Animal.ANY_VERSION);
+            if (conditional && !reserveAnyVersion(parent, expectedVersions)) {
+                throw new ConcurrentModificationException(ErrorMessages.ANIMAL_PARENT_MODIFIED);
+            }
+            try {
+                logPosition = animalTreeStore.logInsert(parent.getId(), child, () -> {
+                    parent.addChild(child);
+                    animalTreeChangeFeed.publish(AnimalTreeChange.Type.ADDED, newAnimalId, child.getLabel(),
+                            parent.getId());
+                    animalsById.put(child);
+                    animalLabelIndex.add(child.getLabel(), newAnimalId);
+                });
+            } finally {
+                if (conditional) {
+                    parent.releaseVersion();
+                }
+            }
+        } finally {
+            structureLock.readLock().unlock();
+        }
 
-        // Append this new child to the parent's list of children
-        parent.getChildren().add(childMap);
+        // Acknowledge the insert only once it is durable
+        animalTreeStore.commit(logPosition);
 
-        log.info(String.format("Added a new animal with ID: %s", newAnimalId));
+        // Formatted only if logged, and guarded too, so that an insert does not even box the ID when INFO is off
+        if (log.isInfoEnabled()) {
+            log.info(LogMessage.format("Added a new animal with ID: %d", newAnimalId));
+        }
         return newAnimalId;
     }
 
+    // A conditional insert needs its parent to exist (even for If-Match: *), so a missing one fails the
+    // precondition rather than the request
+    private static long rejectMissingParent(long[] expectedVersions) {
+        if (expectedVersions != null) {
+            throw new ConcurrentModificationException(ErrorMessages.ANIMAL_PARENT_NOT_FOUND);
+        }
+        return Animal.NO_ID;
+    }
+
+    // Reserves the version of the given parent if it is one of the expected ones. The current version is
+    // read first, so that the compare-and-set of reserveVersion still rejects a change made in between
+    private static boolean reserveAnyVersion(Animal parent, long[] expectedVersions) {
+        long current = parent.getVersion();
+        return contains(expectedVersions, current) && parent.reserveVersion(current);
+    }
+
+    private static boolean contains(long[] versions, long version) {
+        for (long v : versions) {
+            if (v == version) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Adds a batch of new animals, where the i-th animal has the i-th label and is added
+    // under the i-th parent (an existing ID, or a BATCH_REFERENCE_PREFIX reference to an
+    // earlier animal of the batch), and returns the new IDs in the same order.
+    // The whole batch is validated first, so either all animals are added or none is
+    public long[] addAnimals(List<String> parentIds, List<String> labels) {
+        final int size = parentIds.size();
+        if (size == 0 || size != labels.size()) {
+            throw new IllegalArgumentException(ErrorMessages.ANIMALS_REQUIRED);
+        }
+
+        // Resolve every parent up front: an existing animal, or the position in the batch
+        Animal[] existingParents = new Animal[size];
+        int[] batchParents = new int[size];
+        for (int i = 0; i < size; i++) {
+            String parentId = parentIds.get(i);
+            String label = labels.get(i);
+            batchParents[i] = -1;
+
+            if (label == null || label.isBlank() || parentId == null) {
+                throw invalidAnimalAt(i);
+            } else if (parentId.startsWith(BATCH_REFERENCE_PREFIX)) {
+                batchParents[i] = parseBatchReference(parentId, i);
+            } else if ((existingParents[i] = getAnimal(Animal.parseId(parentId))) == null) {
+                throw invalidAnimalAt(i);
+            }
+        }
+
+        // Allocate the IDs of the whole batch in one step
+        final long firstId = animalIdGenerator.reserveIds(size);
+        Animal[] created = new Animal[size];
+        long[] newAnimalIds = new long[size];
+        for (int i = 0; i < size; i++) {
+            newAnimalIds[i] = firstId + i;
+            created[i] = new Animal(newAnimalIds[i], labels.get(i));
+        }
+
+        // The actual parent ID of every new animal, as written to the log
+        long[] resolvedParentIds = new long[size];
+        for (int i = 0; i < size; i++) {
+            resolvedParentIds[i] = batchParents[i] >= 0
+                    ? newAnimalIds[batchParents[i]]
+                    : existingParents[i].getId();
+        }
+
+        long logPosition;
+        structureLock.readLock().lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                if (existingParents[i] != null && animalsById.get(existingParents[i].getId()) != existingParents[i]) {
+                    throw invalidAnimalAt(i); // Parent deleted since it was found
+                }
+            }
+            logPosition = animalTreeStore.logInserts(resolvedParentIds, Arrays.asList(created), () -> {
+                // Build the subtrees inside the batch while they are still detached from the tree,
+                // then attach them under each existing parent with a single lock and size update
+                Map<Animal, List<Animal>> childrenByParent = new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    if (batchParents[i] >= 0) {
+                        created[batchParents[i]].addChild(created[i]);
+                    } else {
+                        childrenByParent.computeIfAbsent(existingParents[i], parent -> new ArrayList<>())
+                                .add(created[i]);
+                    }
+                }
+                for (Map.Entry<Animal, List<Animal>> entry : childrenByParent.entrySet()) {
+                    entry.getKey().addChildren(entry.getValue());
+                }
+
+                // Publish and index the new animals once they are all linked
+                // (parents in the batch always come before their children)
+                for (int i = 0; i < size; i++) {
+                    animalTreeChangeFeed.publish(AnimalTreeChange.Type.ADDED, created[i].getId(),
+                            created[i].getLabel(), resolvedParentIds[i]);
+                }
+                for (int i = 0; i < size; i++) {
+                    animalsById.put(created[i]);
+                    animalLabelIndex.add(created[i].getLabel(), newAnimalIds[i]);
+                }
+            });
+        } finally {
+            structureLock.readLock().unlock();
+        }
+
+        // Acknowledge the batch only once it is durable
+        animalTreeStore.commit(logPosition);
+
+        log.info(LogMessage.format("Added a batch of '%d' new animals with IDs: %d to %d",
+                size, newAnimalIds[0], newAnimalIds[size - 1]));
+        return newAnimalIds;
+    }
+
+    // Moves the animal with the given ID (with its whole subtree) to the end of the children of the given
+    // new parent, and returns it, or null if it is not in the tree. Only the children of the two parents,
+    // the subtree sizes of their ancestors and the depths in the moved subtree change. Throws
+    // IllegalArgumentException if the animal is a root, or the new parent is not in the tree or is in
+    // the subtree of the animal (which would make a cycle)
+    public Animal moveAnimal(long animalId, long parentId) {
+        Animal animal;
+        long logPosition;
+        // Waits for a snapshot that holds moves off before taking the structure lock, so that inserts and
+        // reads never wait for the snapshot
+        animalTreeStore.beginStructureChange();
+        structureLock.writeLock().lock();
+        try {
+            animal = getAnimal(animalId);
+            if (animal == null) {
+                return null;
+            }
+            Animal parent = getAnimal(parentId);
+            if (parent == null) {
+                throw new IllegalArgumentException(ErrorMessages.ANIMAL_PARENT_NOT_FOUND);
+            }
+            if (animal.getParent() == null) {
+                throw new IllegalArgumentException(ErrorMessages.ROOT_CANNOT_BE_MOVED_OR_DELETED);
+            }
+            // The new parent is in the subtree of the animal if the animal is its ancestor at the animal's
+            // depth, found in a logarithmic number of steps
+            if (parent.getAncestor(animal.getDepth()) == animal) {
+                throw new IllegalArgumentException(ErrorMessages.ANIMAL_CANNOT_BE_MOVED_UNDER_ITSELF);
+            }
+
+            logPosition = animalTreeStore.logMove(animal.getId(), parent.getId(), () -> {
+                animal.moveTo(parent);
+                animalTreeChangeFeed.publish(AnimalTreeChange.Type.MOVED, animal.getId(), animal.getLabel(),
+                        parent.getId());
+            });
+        } finally {
+            structureLock.writeLock().unlock();
+            animalTreeStore.endStructureChange();
+        }
+
+        // Acknowledge the move only once it is durable
+        animalTreeStore.commit(logPosition);
+
+        log.info(LogMessage.format("Moved animal '%d' (and '%d' descendants) under animal '%d'.",
+                animalId, animal.getSubtreeSize() - 1, parentId));
+        return animal;
+    }
+
+    // Deletes the animal with the given ID and its whole subtree, and returns the number of animals
+    // deleted, or 0 if it is not in the tree. The deleted animals are removed from the indexes, without
+    // loading the ones of a stored tree that are not loaded yet. Throws IllegalArgumentException if the
+    // animal is a root
+    public int deleteAnimal(long animalId) {
+        int deleted;
+        long logPosition;
+        // As for moveAnimal
+        animalTreeStore.beginStructureChange();
+        structureLock.writeLock().lock();
+        try {
+            Animal animal = getAnimal(animalId);
+            if (animal == null) {
+                return 0;
+            }
+            if (animal.getParent() == null) {
+                throw new IllegalArgumentException(ErrorMessages.ROOT_CANNOT_BE_MOVED_OR_DELETED);
+            }
+
+            deleted = animal.getSubtreeSize();
+            logPosition = animalTreeStore.logDelete(animal.getId(), () -> {
+                animal.remove();
+                animalTreeChangeFeed.publish(AnimalTreeChange.Type.DELETED, animal.getId(), animal.getLabel(),
+                        animal.getParent().getId());
+
+                // Each posting list of the label index is rewritten only once
+                Map<String, Set<Long>> removedIdsByLabel = new HashMap<>();
+                animalTreeStore.forgetSubtree(animal, (label, id) -> {
+                    if (label != null) {
+                        removedIdsByLabel.computeIfAbsent(label, l -> new HashSet<>()).add(id);
+                    }
+                });
+                animalLabelIndex.removeAll(removedIdsByLabel);
+            });
+        } finally {
+            structureLock.writeLock().unlock();
+            animalTreeStore.endStructureChange();
+        }
+
+        // Acknowledge the delete only once it is durable
+        animalTreeStore.commit(logPosition);
+
+        log.info(LogMessage.format("Deleted animal '%d' and its subtree ('%d' animals).", animalId, deleted));
+        return deleted;
+    }
+
+    // Returns the current version of the tree, which changes whenever an animal is added, moved or deleted
+    public long getTreeVersion() {
+        return animalTreeChangeFeed.getVersion();
+    }
+
+    // Returns the token of the given version of the tree, for clients to catch up from, which never
+    // matches a version after a restart (see AnimalTreeChangeFeed)
+    public String getVersionToken(long version) {
+        return animalTreeChangeFeed.getVersionToken(version);
+    }
+
+    // Returns the version of the given token (or ETag of the tree), or UNKNOWN_VERSION if it is from
+    // before a restart. Throws IllegalArgumentException if it is not a token
+    public long parseVersionToken(String token) {
+        return animalTreeChangeFeed.parseVersionToken(token);
+    }
+
+    // Returns the changes to the tree after the given version, in order,
+    // or null if they are not all kept anymore (see AnimalTreeChangeFeed)
+    public List<AnimalTreeChange> getChangesSince(long version) {
+        return animalTreeChangeFeed.getChangesSince(version);
+    }
+
+    // Sends every change to the tree after the given version to the given listener, as they happen,
+    // until the returned subscription is cancelled
+    public AnimalTreeChangeFeed.Subscription subscribeToChanges(long version, AnimalTreeChangeFeed.Listener listener) {
+        return animalTreeChangeFeed.subscribe(version, listener);
+    }
+
+    // Ends the subscriptions to the changes to the tree, and the ones made after (the tree itself stays
+    // readable, and its store is closed by its owner)
+    public void close() throws InterruptedException {
+        animalTreeChangeFeed.close();
+    }
+
+    // Returns the serialized snapshot of the current tree, rebuilding it only if the tree has
+    // changed since the last one, or null if the snapshot cache is disabled or there are no animals
+    public AnimalTreeSnapshot getTreeSnapshot() {
+        if (!snapshotCacheEnabled || animals == null || animals.isEmpty()) {
+            return null;
+        }
+
+        AnimalTreeSnapshot snapshot = treeSnapshot;
+        if (snapshot != null && snapshot.getVersion() == animalTreeChangeFeed.getVersion()) {
+            return snapshot;
+        }
+
+        // Only one reader rebuilds the snapshot, the others wait for it
+        treeSnapshotLock.lock();
+        try {
+            snapshot = treeSnapshot;
+            if (snapshot == null || snapshot.getVersion() != animalTreeChangeFeed.getVersion()) {
+                snapshot = createTreeSnapshot();
+                treeSnapshot = snapshot;
+            }
+            return snapshot;
+        } finally {
+            treeSnapshotLock.unlock();
+        }
+    }
+
+    // Writes the whole tree to the given stream as JSON (without the snapshot cache), while holding the
+    // structure lock shared with inserts, so that no move or delete can tear it (a subtree moved while
+    // it is walked could be written twice or not at all). Moves and deletes wait for it, so a slow
+    // client delays them, and the inserts queued behind them
+    public void writeTree(OutputStream outputStream) throws IOException {
+        structureLock.readLock().lock();
+        try (JsonGenerator generator = animalTreeJsonWriter.createGenerator(outputStream)) {
+            animalTreeJsonWriter.writeAnimals(animals, generator);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    // Records the time it took to stream the whole tree to a client (without the snapshot cache)
+    public void recordTreeStreamed(long elapsedNanos) {
+        streamSerializationTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // Returns the depth of the deepest animal in the tree (0 if there are only roots). The tree is only
+    // walked again once it has changed, and subtrees of a stored tree that are not loaded yet are
+    // measured from its rows, without loading them
+    public int getTreeDepth() {
+        treeDepthLock.lock();
+        try {
+            long version = animalTreeChangeFeed.getVersion();
+            if (version != treeDepthVersion) {
+                treeDepth = computeTreeDepth();
+                treeDepthVersion = version;
+            }
+            return treeDepth;
+        } finally {
+            treeDepthLock.unlock();
+        }
+    }
+
+    private int computeTreeDepth() {
+        int[] maxDepth = new int[1];
+        AnimalTreeTraversal.depthFirst(animals, (animal, depth) -> {
+            maxDepth[0] = Math.max(maxDepth[0], depth);
+            if (animal.getLazyChildren() instanceof MappedAnimalTree.Children mapped) {
+                maxDepth[0] = Math.max(maxDepth[0], depth + mapped.getTree().getHeight(mapped.getRow()));
+                return AnimalTreeTraversal.Action.SKIP_CHILDREN;
+            }
+            return AnimalTreeTraversal.Action.CONTINUE;
+        });
+        return maxDepth[0];
+    }
+
+    // Returns the statistics of the whole tree (animals by depth, fan-out and label), computed on the
+    // common ForkJoinPool. The tree is only walked again once it has changed, and subtrees of a stored
+    // tree that are not loaded yet are counted from its rows, without loading them
+    public AnimalTreeStatistics getTreeStatistics() {
+        treeStatisticsLock.lock();
+        try {
+            long version = animalTreeChangeFeed.getVersion();
+            if (version != treeStatisticsVersion) {
+                long start = System.nanoTime();
+                treeStatistics = animalTreeAnalyzer.analyze(animals == null ? List.of() : animals);
+                treeStatisticsVersion = version;
+                log.info(LogMessage.format("Computed the statistics of '%d' animals in %d ms.",
+                        treeStatistics.getAnimalCount(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            }
+            return treeStatistics;
+        } finally {
+            treeStatisticsLock.unlock();
+        }
+    }
+
+    // Returns the approximate number of bytes on the heap held by the tree (its animals, but not their
+    // interned labels), its ID and label indexes, the change feed and the cached snapshot, for accounting
+    // of the memory of each tree. The tree is only walked again once it has changed, and animals of a
+    // stored tree that are not loaded yet are not counted (they are in the mapped snapshot file)
+    public long getRetainedSize() {
+        retainedSizeLock.lock();
+        try {
+            long version = animalTreeChangeFeed.getVersion();
+            if (version != retainedSizeVersion) {
+                long[] size = new long[1];
+                AnimalTreeTraversal.depthFirst(animals == null ? List.of() : animals, (animal, depth) -> {
+                    size[0] += animal.getRetainedSize();
+                    return animal.getLazyChildren() != null ? AnimalTreeTraversal.Action.SKIP_CHILDREN
+                            : AnimalTreeTraversal.Action.CONTINUE;
+                });
+                retainedSize = size[0] + animalsById.getRetainedSize() + animalLabelIndex.getRetainedSize()
+                        + animalTreeChangeFeed.getRetainedSize();
+                retainedSizeVersion = version;
+            }
+            AnimalTreeSnapshot snapshot = treeSnapshot;
+            return retainedSize + (snapshot == null ? 0 : snapshot.getRetainedSize());
+        } finally {
+            retainedSizeLock.unlock();
+        }
+    }
+
+    // Returns the animal with the given ID, or null if it is not in the tree.
+    // Animals of a stored tree that are not loaded yet are loaded on the first lookup
+    public Animal getAnimal(long animalId) {
+        Animal animal = animalsById.get(animalId);
+        return animal != null ? animal : animalTreeStore.findAnimal(animalId);
+    }
+
+    // Returns the entity tag of the current version of the subtree of the given animal. Read before
+    // the subtree, so an If-Match with it only succeeds if the subtree has not changed since
+    public String getETag(Animal animal) {
+        return "\"" + versionEpoch + "-" + animal.getVersion() + "\"";
+    }
+
+    // Returns the subtree version of the given entity tag (from getETag), ANY_VERSION for "*",
+    // or NO_VERSION if it is not a tag of this service (e.g. from before a restart)
+    public long parseETag(String eTag) {
+        String tag = eTag.trim();
+        if (tag.equals("*")) {
+            return Animal.ANY_VERSION;
+        }
+        String prefix = "\"" + versionEpoch + "-";
+        if (tag.length() > prefix.length() + 1 && tag.startsWith(prefix) && tag.endsWith("\"")) {
+            try {
+                return Long.parseLong(tag, prefix.length(), tag.length() - 1, 10);
+            } catch (NumberFormatException e) {
+                // Not a tag of this service
+            }
+        }
+        return NO_VERSION;
+    }
+
+    // Returns the subtree versions of the entity tags of an If-Match header, a comma-separated list of
+    // tags (see parseETag), in order. "*" is ANY_VERSION, and a tag that is not of this service is
+    // NO_VERSION, so that it matches nothing but the other tags of the list still can
+    public long[] parseETags(String ifMatch) {
+        List<String> tags = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i <= ifMatch.length(); i++) {
+            if (i == ifMatch.length() || (!quoted && ifMatch.charAt(i) == ',')) {
+                // Commas inside the quotes are part of a tag
+                String tag = ifMatch.substring(start, i).trim();
+                if (!tag.isEmpty()) {
+                    tags.add(tag);
+                }
+                start = i + 1;
+            } else if (ifMatch.charAt(i) == '"') {
+                quoted = !quoted;
+            }
+        }
+
+        long[] versions = new long[tags.size()];
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = parseETag(tags.get(i));
+        }
+        return versions;
+    }
+
+    // Returns the IDs of (up to the given number of) the animals whose label matches the query,
+    // where every word of the query is the start of a word of the label (ignoring case)
+    public long[] searchAnimals(String query, int limit) {
+        long[] ids = animalLabelIndex.search(query, limit);
+        log.info(LogMessage.format("Found '%d' animals matching '%s'.", ids.length, query));
+        return ids;
+    }
+
+    // Returns the animals on the path from the root of the tree down to the animal with the given ID
+    // (both included), or null if the animal is not in the tree
+    public List<Animal> getAncestorPath(long animalId) {
+        Animal animal = getAnimal(animalId);
+        if (animal == null) {
+            return null;
+        }
+
+        // Under the structure lock, so no move changes the depth of the animal while its path is read
+        structureLock.readLock().lock();
+        try {
+            Animal[] path = new Animal[animal.getDepth() + 1];
+            for (int i = path.length - 1; i >= 0; i--) {
+                path[i] = animal;
+                animal = animal.getParent();
+            }
+            return Arrays.asList(path);
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    // Returns the deepest animal that is an ancestor of (or the same as) every animal with the given
+    // IDs, or null if any of them is not in the tree or they are in different trees. Each pair costs
+    // a logarithmic number of steps in the depth of the animals, using their jump pointers
+    public Animal getCommonAncestor(long... animalIds) {
+        if (animalIds == null || animalIds.length == 0) {
+            throw new IllegalArgumentException(ErrorMessages.ANIMAL_IDS_REQUIRED);
+        }
+
+        structureLock.readLock().lock();
+        try {
+            Animal commonAncestor = null;
+            for (long animalId : animalIds) {
+                Animal animal = getAnimal(animalId);
+                if (animal == null) {
+                    return null;
+                }
+                commonAncestor = commonAncestor == null ? animal : commonAncestor.getCommonAncestor(animal);
+                if (commonAncestor == null) {
+                    return null;
+                }
+            }
+            return commonAncestor;
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    // Returns the ID of the parent of the given animal,
+    // or NO_ID if the animal is a root or is not in the tree
+    public long getParentId(long animalId) {
+        Animal animal = getAnimal(animalId);
+        if (animal == null || animal.getParent() == null) {
+            return Animal.NO_ID;
+        }
+        return animal.getParent().getId();
+    }
+
+    // Serializes the current tree, with the version of the tree when it started. It is walked under the
+    // structure lock, so no move or delete can tear it (see writeTree), and every change up to that
+    // version is in it. Animals added while it runs may be in it too, so a client catching up from its
+    // version may be sent an animal it already has, but never miss one
+    private AnimalTreeSnapshot createTreeSnapshot() {
+        try {
+            long start = System.nanoTime();
+            ByteArrayOutputStream json = new ByteArrayOutputStream();
+            long version;
+            structureLock.readLock().lock();
+            try (JsonGenerator generator = animalTreeJsonWriter.createGenerator(json)) {
+                version = animalTreeChangeFeed.getVersion();
+                animalTreeJsonWriter.writeAnimals(animals, generator);
+            } finally {
+                structureLock.readLock().unlock();
+            }
+            snapshotSerializationTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            log.info(LogMessage.format("Created snapshot of the tree at version '%d' (%d bytes).", version, json.size()));
+            return new AnimalTreeSnapshot(versionEpoch, version, json.toByteArray(), snapshotCacheGzip);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Returns the batch position referred to by the parent of the animal at the given index,
+    // which must be an earlier animal of the same batch
+    private int parseBatchReference(String parentId, int index) {
+        try {
+            int reference = Integer.parseInt(parentId.substring(BATCH_REFERENCE_PREFIX.length()));
+            if (reference >= 0 && reference < index) {
+                return reference;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw invalidAnimalAt(index);
+    }
+
+    private IllegalArgumentException invalidAnimalAt(int index) {
+        return new IllegalArgumentException(
+                String.format("%s %d", ErrorMessages.ANIMALS_NOT_CREATED_AT_INDEX, index));
+    }
+
+    // Adds every animal of the loaded tree to the label index. The animals of a mapped snapshot are
+    // read from it without loading them, and only the ones replayed from the log after it (with
+    // higher IDs than any in the snapshot) are added from the tree, in the order of their IDs
+    private void indexLabels(List<Animal> animals, MappedAnimalTree mappedTree) {
+        if (mappedTree != null) {
+            animalLabelIndex.addAll(mappedTree);
+            List<Animal> replayed = new ArrayList<>();
+            animalsById.forEach(animal -> {
+                if (animal.getId() > mappedTree.getMaxId()) {
+                    replayed.add(animal);
+                }
+            });
+            replayed.sort(Comparator.comparingLong(Animal::getId));
+            for (Animal animal : replayed) {
+                animalLabelIndex.add(animal.getLabel(), animal.getId());
+            }
+        } else if (animals != null) {
+            animalLabelIndex.addAll(animals);
+        }
+    }
+
+    // Walks the tree data set once (iteratively, to be safe on deep trees),
+    // records every animal in the index, and returns the highest ID found
+    private long indexAnimals(List<Animal> animals) {
+        long[] maxId = new long[1];
+        if (animals == null) {
+            return maxId[0];
+        }
+
+        AnimalTreeTraversal.depthFirst(animals, (animal, depth) -> {
+            animalsById.put(animal);
+            maxId[0] = Math.max(maxId[0], animal.getId());
+            return AnimalTreeTraversal.Action.CONTINUE;
+        });
+        return maxId[0];
+    }
+
 }
@@ -0,0 +1,218 @@
+package com.animalkingdom.service;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.utilities.AnimalTreeDataLoader;
+import com.animalkingdom.utilities.AnimalTreeStore;
+import com.animalkingdom.utilities.ErrorMessages;
+import com.animalkingdom.utilities.Utilities;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.log.LogMessage;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Trees of independent tenants (the kingdoms of different customers), each one a shard of its own: a
+// separate AnimalKingdomService with its own tree, structure lock, ID generator, ID and label indexes,
+// change feed and store (in a directory of its own), so the inserts, moves, deletes and snapshots of one
+// tenant never wait for those of another. The tree of /api/tree is the application's own service, and
+// not one of these
+@Service
+public class AnimalKingdomTenants {
+
+    private static final Log log = LogFactory.getLog(AnimalKingdomTenants.class);
+
+    // Directory of the stored tenants, with a directory for each one, under the storage directory
+    public static final String TENANTS_DIRECTORY = "tenants";
+
+    // Also a safe name for the directory of a tenant
+    private static final Pattern TENANT_PATTERN = Pattern.compile("[a-z0-9][a-z0-9_-]{0,62}");
+
+    private final Utilities utilities;
+
+    // Directory of the stored tenants, or null when the trees are kept in memory only
+    private final Path directory;
+    private final AnimalTreeStore.Durability durability;
+    private final int snapshotInterval;
+
+    // Capacity of the change feed of each tenant, allocated up front (so smaller than the main tree's)
+    private final int changesCapacity;
+
+    private final int maxTenants;
+
+    // The application's registry, where the meters of every tenant are tagged with it
+    private final MeterRegistry meterRegistry;
+
+    // Shards by tenant. A shard is created (or loaded from its store) under its own lock, rather than
+    // in a computeIfAbsent of the map, so that loading a tenant never blocks requests to the others
+    private final ConcurrentHashMap<String, Shard> shards = new ConcurrentHashMap<>();
+
+    // Creates tenants that are kept in memory only
+    public AnimalKingdomTenants(final Utilities utilities) {
+        this(utilities, null, AnimalTreeStore.Durability.GROUP, Integer.MAX_VALUE, 1000, 1000);
+    }
+
+    public AnimalKingdomTenants(final Utilities utilities, String directory,
+            AnimalTreeStore.Durability durability, int snapshotInterval, int changesCapacity, int maxTenants) {
+        // A registry without any registries attached, whose meters record nothing
+        this(utilities, directory, durability, snapshotInterval, changesCapacity, maxTenants,
+                new CompositeMeterRegistry());
+    }
+
+    @Autowired
+    public AnimalKingdomTenants(final Utilities utilities,
+            @Value("${animalkingdom.storage.directory:}") String directory,
+            @Value("${animalkingdom.storage.durability:GROUP}") AnimalTreeStore.Durability durability,
+            @Value("${animalkingdom.storage.snapshot-interval:100000}") int snapshotInterval,
+            @Value("${animalkingdom.tenants.changes.capacity:1000}") int changesCapacity,
+            @Value("${animalkingdom.tenants.max-count:1000}") int maxTenants,
+            final MeterRegistry meterRegistry) {
+        this.utilities = utilities;
+        this.meterRegistry = meterRegistry;
+        this.directory = directory == null || directory.isBlank() ? null : Paths.get(directory, TENANTS_DIRECTORY);
+        this.durability = durability;
+        this.snapshotInterval = snapshotInterval;
+        this.changesCapacity = changesCapacity;
+        this.maxTenants = maxTenants;
+
+        // Tenants stored before a restart, only loaded on their first request
+        if (this.directory != null && Files.isDirectory(this.directory)) {
+            try (Stream<Path> tenants = Files.list(this.directory)) {
+                tenants.filter(Files::isDirectory)
+                        .map(path -> path.getFileName().toString())
+                        .filter(tenant -> TENANT_PATTERN.matcher(tenant).matches())
+                        .forEach(tenant -> shards.put(tenant, new Shard(tenant)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            log.info(LogMessage.format("Found '%d' stored tenants in '%s'.", shards.size(), this.directory));
+        }
+    }
+
+    // Returns the tree of the given tenant, or null if there is no such tenant
+    public AnimalKingdomService getShard(String tenant) {
+        Shard shard = tenant == null ? null : shards.get(tenant);
+        return shard == null ? null : shard.open();
+    }
+
+    // Returns the tree of the given tenant, creating it (with a single root animal, of ID 1) if there is
+    // no such tenant yet. Throws an IllegalArgumentException for an invalid tenant, or for a new one once
+    // there are as many tenants as allowed (only checked before it is added, so tenants created at the
+    // same time may go a few over)
+    public AnimalKingdomService getOrCreateShard(String tenant) {
+        Shard shard = tenant == null ? null : shards.get(tenant);
+        if (shard == null) {
+            if (tenant == null || !TENANT_PATTERN.matcher(tenant).matches()) {
+                throw new IllegalArgumentException(ErrorMessages.INVALID_TENANT);
+            }
+            if (shards.size() >= maxTenants) {
+                throw new IllegalArgumentException(ErrorMessages.TENANT_LIMIT_REACHED);
+            }
+            shard = shards.computeIfAbsent(tenant, Shard::new);
+        }
+        return shard.open();
+    }
+
+    // Returns every tenant (in order) with its tree, or null for a tenant stored before a restart that
+    // has not been loaded since
+    public SortedMap<String, AnimalKingdomService> getShards() {
+        SortedMap<String, AnimalKingdomService> shardsByTenant = new TreeMap<>();
+        shards.forEach((tenant, shard) -> shardsByTenant.put(tenant, shard.service));
+        return shardsByTenant;
+    }
+
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        for (Shard shard : shards.values()) {
+            shard.close();
+        }
+    }
+
+    private final class Shard {
+
+        private final String tenant;
+
+        // Not a monitor, since loading a stored tree takes a while (see AnimalKingdomService)
+        private final Lock lock = new ReentrantLock();
+
+        private volatile AnimalKingdomService service;
+
+        // Guarded by lock
+        private AnimalTreeStore store;
+
+        Shard(String tenant) {
+            this.tenant = tenant;
+        }
+
+        AnimalKingdomService open() {
+            AnimalKingdomService current = service;
+            if (current != null) {
+                return current;
+            }
+
+            lock.lock();
+            try {
+                if (service == null) {
+                    store = new AnimalTreeStore(directory == null ? null : directory.resolve(tenant).toString(),
+                            durability, snapshotInterval);
+                    // The tree of a new tenant (a stored one is loaded from its store instead)
+                    AnimalTreeDataLoader animalTreeDataLoader = new AnimalTreeDataLoader(utilities) {
+
+                        @Override
+                        public List<Animal> createAnimals() {
+                            List<Animal> animals = new ArrayList<>();
+                            animals.add(new Animal(1, "root"));
+                            return animals;
+                        }
+
+                    };
+                    AnimalKingdomService opened = new AnimalKingdomService(animalTreeDataLoader, utilities, store,
+                            new AnimalTreeChangeFeed(changesCapacity), meterRegistry, tenant);
+                    new AnimalKingdomMetrics(opened, tenant).bindTo(meterRegistry);
+                    service = opened;
+                    log.info(LogMessage.format("Opened the tree of tenant '%s'.", tenant));
+                }
+                return service;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Ends the streams of the changes of the tenant, then closes its store
+        void close() throws IOException, InterruptedException {
+            lock.lock();
+            try {
+                if (service != null) {
+                    service.close();
+                }
+                if (store != null) {
+                    store.close();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.animalkingdom.service;
+
+import java.util.Objects;
+
+// Immutable record of a single change to the tree, and the version of the tree it created
+public class AnimalTreeChange {
+
+    public enum Type {
+        // A new animal, under its parent
+        ADDED,
+        // An animal (with its subtree) moved under a new parent
+        MOVED,
+        // An animal deleted with its whole subtree (its parent is the one it was deleted from)
+        DELETED
+    }
+
+    private final long version;
+    private final Type type;
+    private final long animalId;
+    private final String label;
+    private final long parentId;
+
+    public AnimalTreeChange(long version, Type type, long animalId, String label, long parentId) {
+        this.version = version;
+        this.type = type;
+        this.animalId = animalId;
+        this.label = label;
+        this.parentId = parentId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getAnimalId() {
+        return animalId;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public long getParentId() {
+        return parentId;
+    }
+
+    // Changes are values: the feed creates a new one every time a change is read
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof AnimalTreeChange change)) {
+            return false;
+        }
+        return version == change.version && type == change.type && animalId == change.animalId
+                && Objects.equals(label, change.label) && parentId == change.parentId;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(version, type, animalId, label, parentId);
+    }
+
+}
@@ -0,0 +1,327 @@
+package com.animalkingdom.service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.log.LogMessage;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+
+import com.animalkingdom.utilities.ErrorMessages;
+import com.animalkingdom.utilities.MemorySizes;
+
+// Feed of the changes to the tree, each one with the version of the tree it created (one more than the
+// one before). The most recent changes are kept in a bounded ring buffer, so that clients can catch up
+// from the version they have, and subscribers are sent every change as it happens, each one by a virtual
+// thread of its own, so that writers never wait for them, and a slow subscriber only delays itself
+@Component
+public class AnimalTreeChangeFeed {
+
+    private static final Log log = LogFactory.getLog(AnimalTreeChangeFeed.class);
+
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    // The version of a token from another start of the feed (see parseVersionToken)
+    public static final long UNKNOWN_VERSION = -1;
+
+    // Subscribers that have not been sent anything for this long are sent a keep-alive
+    private static final long KEEP_ALIVE_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    // How long close waits for the threads of the subscriptions to end, in all
+    private static final long CLOSE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    // Most changes copied from the ring buffer at a time, so that a client catching up on many of them
+    // (up to the whole buffer) only holds off writers for as long as one batch takes
+    private static final int COPY_BATCH = 1024;
+
+    // Receives the changes of a subscription, always from the thread of the subscription. An exception
+    // ends the subscription (e.g. once the client is gone)
+    public interface Listener {
+
+        // Called for every change after the version subscribed from, in order
+        void onChange(AnimalTreeChange change) throws IOException;
+
+        // Called instead when some of the changes to send are no longer kept (the subscriber fell
+        // too far behind), with the current version, which ends the subscription
+        void onReset(long version) throws IOException;
+
+        // Called when nothing has been sent for a while
+        void onKeepAlive() throws IOException;
+
+        // Called instead when the feed is closed (e.g. on shutdown, or when its tenant is closed), which
+        // ends the subscription
+        void onClose() throws IOException;
+
+    }
+
+    // Change of each version, at version % capacity, for the last capacity versions. Kept as parallel
+    // arrays of its fields rather than as change objects, so that publishing (on every insert) allocates
+    // nothing: the change objects are only created for the clients that read them
+    private final AnimalTreeChange.Type[] types;
+    private final long[] animalIds;
+    private final String[] labels;
+    private final long[] parentIds;
+
+    // Current version of the tree, only incremented while holding the ring lock
+    private volatile long version = 1;
+
+    // Guards the ring buffer. Not a monitor, so that neither writers (which publish while holding the
+    // lock of the log) nor the virtual threads of the subscriptions pin their carrier thread on it
+    private final Lock ringLock = new ReentrantLock();
+
+    // Versions start over with every start of the feed (while the tree is kept), so the tokens of its
+    // versions also carry the time it started: a token from before a restart is never taken for a
+    // version after it
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private volatile boolean closed;
+
+    // Signalled when there is a new version, for the subscriptions waiting for one. Not a monitor, so
+    // that the virtual threads of the subscriptions do not pin their carrier thread while they wait
+    private final Lock changeLock = new ReentrantLock();
+    private final Condition changed = changeLock.newCondition();
+
+    public AnimalTreeChangeFeed() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    @Autowired
+    public AnimalTreeChangeFeed(@Value("${animalkingdom.tree.changes.capacity:100000}") int capacity) {
+        this.types = new AnimalTreeChange.Type[capacity];
+        this.animalIds = new long[capacity];
+        this.labels = new String[capacity];
+        this.parentIds = new long[capacity];
+    }
+
+    // Returns the current version of the tree
+    public long getVersion() {
+        return version;
+    }
+
+    // Returns the start time of this feed (in base 36), the prefix of the tokens of its versions
+    public String getEpoch() {
+        return epoch;
+    }
+
+    // Returns the token of the given version, for clients to catch up from: "<epoch>-<version>"
+    public String getVersionToken(long version) {
+        return epoch + "-" + version;
+    }
+
+    // Returns the version of the given token (from getVersionToken, or the ETag of the tree, with or
+    // without its quotes), or UNKNOWN_VERSION if it is from another start of the feed. Throws
+    // IllegalArgumentException if it is not a token
+    public long parseVersionToken(String token) {
+        String tag = token == null ? "" : token.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            tag = tag.substring(1, tag.length() - 1);
+        }
+        if (tag.endsWith("-gzip")) {
+            tag = tag.substring(0, tag.length() - "-gzip".length());
+        }
+
+        int separator = tag.lastIndexOf('-');
+        long tokenVersion;
+        try {
+            tokenVersion = separator > 0 ? Long.parseLong(tag, separator + 1, tag.length(), 10) : -1;
+        } catch (NumberFormatException e) {
+            tokenVersion = -1;
+        }
+        if (tokenVersion < 0) {
+            throw new IllegalArgumentException(ErrorMessages.CHANGES_VERSION_REQUIRED);
+        }
+        return separator == epoch.length() && tag.startsWith(epoch) ? tokenVersion : UNKNOWN_VERSION;
+    }
+
+    // Records a change as the next version of the tree, and returns that version
+    public long publish(AnimalTreeChange.Type type, long animalId, String label, long parentId) {
+        long next;
+        ringLock.lock();
+        try {
+            next = version + 1;
+            int index = (int) (next % types.length);
+            types[index] = type;
+            animalIds[index] = animalId;
+            labels[index] = label;
+            parentIds[index] = parentId;
+            version = next;
+        } finally {
+            ringLock.unlock();
+        }
+        if (!subscriptions.isEmpty()) {
+            signalChange();
+        }
+        return next;
+    }
+
+    // Returns the changes after the given version, in order, or null if some of them are no longer kept,
+    // or the version is UNKNOWN_VERSION (from before a restart) or newer than the current one. The changes
+    // are copied COPY_BATCH at a time, taking the ring lock for each batch only, so writers publish in
+    // between: a batch whose oldest change they have overwritten since is also no longer kept
+    public List<AnimalTreeChange> getChangesSince(long since) {
+        long current = version;
+        if (since < 0 || since > current || since < current - types.length) {
+            return null;
+        }
+
+        List<AnimalTreeChange> changesSince = new ArrayList<>((int) (current - since));
+        for (long from = since + 1; from <= current; from += COPY_BATCH) {
+            long to = Math.min(current, from + COPY_BATCH - 1);
+            ringLock.lock();
+            try {
+                if (from <= version - types.length) {
+                    return null;
+                }
+                for (long v = from; v <= to; v++) {
+                    int index = (int) (v % types.length);
+                    changesSince.add(
+                            new AnimalTreeChange(v, types[index], animalIds[index], labels[index], parentIds[index]));
+                }
+            } finally {
+                ringLock.unlock();
+            }
+        }
+        return changesSince;
+    }
+
+    // Returns the approximate number of bytes of the ring buffer (allocated in full up front, but
+    // without the labels, which are interned and shared)
+    public long getRetainedSize() {
+        return 2 * MemorySizes.array(types.length, MemorySizes.REFERENCE)
+                + 2 * MemorySizes.array(types.length, Long.BYTES);
+    }
+
+    // Sends every change after the given version to the given listener, starting with the ones already
+    // made, until the returned subscription is cancelled
+    public Subscription subscribe(long since, Listener listener) {
+        Subscription subscription = new Subscription(since, listener);
+        subscriptions.add(subscription);
+        subscription.thread.start();
+        log.info(LogMessage.format("Subscribed to the changes since version '%d' ('%d' subscribers).",
+                since, subscriptions.size()));
+        return subscription;
+    }
+
+    // Ends every subscription (with onClose), and the ones made after, then waits a while for their
+    // threads to end. A thread still stuck sending to its subscriber ends once that send fails
+    @PreDestroy
+    public void close() throws InterruptedException {
+        closed = true;
+        signalChange();
+
+        long deadline = System.nanoTime() + CLOSE_TIMEOUT_NANOS;
+        for (Subscription subscription : subscriptions) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !subscription.thread.join(Duration.ofNanos(remaining))) {
+                log.warn(LogMessage.format("Closed the changes with '%d' subscribers still sending.",
+                        subscriptions.size()));
+                return;
+            }
+        }
+    }
+
+    private void signalChange() {
+        changeLock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            changeLock.unlock();
+        }
+    }
+
+    public class Subscription {
+
+        private final Listener listener;
+
+        // Last version sent (only used by the thread of the subscription)
+        private long sentVersion;
+
+        private volatile boolean cancelled;
+
+        // Sends the changes
+        private final Thread thread;
+
+        private Subscription(long since, Listener listener) {
+            this.sentVersion = since;
+            this.listener = listener;
+            this.thread = Thread.ofVirtual().name("animal-tree-changes").unstarted(this::run);
+        }
+
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+            signalChange();
+        }
+
+        // Sends the new changes whenever there are some, or keep-alives when there are none, until the
+        // subscription is cancelled, fails, or falls too far behind, or the feed is closed
+        private void run() {
+            long keepAliveTime = System.nanoTime() + KEEP_ALIVE_NANOS;
+            try {
+                while (!cancelled) {
+                    if (closed) {
+                        cancel();
+                        listener.onClose();
+                        return;
+                    }
+                    List<AnimalTreeChange> changesSince = getChangesSince(sentVersion);
+                    if (changesSince == null) {
+                        cancel();
+                        listener.onReset(version);
+                        return;
+                    }
+                    for (AnimalTreeChange change : changesSince) {
+                        listener.onChange(change);
+                        sentVersion = change.getVersion();
+                    }
+                    if (!changesSince.isEmpty()) {
+                        keepAliveTime = System.nanoTime() + KEEP_ALIVE_NANOS;
+                    } else if (System.nanoTime() - keepAliveTime >= 0) {
+                        listener.onKeepAlive();
+                        keepAliveTime = System.nanoTime() + KEEP_ALIVE_NANOS;
+                    }
+                    awaitChange(keepAliveTime);
+                }
+            } catch (IOException | RuntimeException e) {
+                cancel();
+                log.info(LogMessage.format("Unsubscribed from the changes at version '%d': %s", sentVersion, e));
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Waits until there is a version after the last one sent, the subscription is cancelled, or it is
+        // time for a keep-alive
+        private void awaitChange(long keepAliveTime) throws InterruptedException {
+            changeLock.lock();
+            try {
+                long remaining = keepAliveTime - System.nanoTime();
+                while (!cancelled && !closed && version == sentVersion && remaining > 0) {
+                    remaining = changed.awaitNanos(remaining);
+                }
+            } finally {
+                changeLock.unlock();
+            }
+        }
+
+    }
+
+}
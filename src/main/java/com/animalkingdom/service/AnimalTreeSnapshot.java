@@ -0,0 +1,107 @@
+package com.animalkingdom.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+import com.animalkingdom.utilities.MemorySizes;
+
+// Immutable, pre-serialized JSON of the whole tree at a given tree version,
+// so unchanged trees are served without being serialized again
+public class AnimalTreeSnapshot {
+
+    // Start time of the service (see AnimalKingdomService), since versions start over after a restart
+    private final String epoch;
+    private final long version;
+    private final byte[] json;
+    private final boolean gzip;
+    private volatile byte[] gzipJson;
+    // Not a monitor, so that virtual threads waiting for the compression do not pin their carrier thread
+    private final Lock compressLock = new ReentrantLock();
+
+    public AnimalTreeSnapshot(String epoch, long version, byte[] json, byte[] gzipJson) {
+        this.epoch = epoch;
+        this.version = version;
+        this.json = json;
+        this.gzip = gzipJson != null;
+        this.gzipJson = gzipJson;
+    }
+
+    // Creates a snapshot whose gzip-compressed JSON (if enabled) is only created when it is
+    // first requested, so that clients which do not accept it never wait for the compression
+    public AnimalTreeSnapshot(String epoch, long version, byte[] json, boolean gzip) {
+        this.epoch = epoch;
+        this.version = version;
+        this.json = json;
+        this.gzip = gzip;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    // Strong entity tag of the JSON, which changes whenever the tree changes, and never matches a
+    // tree of before a restart
+    public String getETag() {
+        return "\"" + epoch + "-" + version + "\"";
+    }
+
+    // Entity tag of the gzip-compressed JSON (a different representation of the same version)
+    public String getGzipETag() {
+        return "\"" + epoch + "-" + version + "-gzip\"";
+    }
+
+    public byte[] getJson() {
+        return json;
+    }
+
+    public boolean isGzipEnabled() {
+        return gzip;
+    }
+
+    // Returns the gzip-compressed JSON, or null if compression is disabled
+    public byte[] getGzipJson() {
+        if (!gzip) {
+            return null;
+        }
+
+        byte[] compressed = gzipJson;
+        if (compressed == null) {
+            // Only one reader compresses the JSON, the others wait for it
+            compressLock.lock();
+            try {
+                compressed = gzipJson;
+                if (compressed == null) {
+                    compressed = compress(json);
+                    gzipJson = compressed;
+                }
+            } finally {
+                compressLock.unlock();
+            }
+        }
+        return compressed;
+    }
+
+    // Returns the approximate number of bytes of the JSON (and of the compressed JSON, once created)
+    public long getRetainedSize() {
+        byte[] compressed = gzipJson;
+        return MemorySizes.array(json.length, Byte.BYTES)
+                + (compressed == null ? 0 : MemorySizes.array(compressed.length, Byte.BYTES));
+    }
+
+    private static byte[] compress(byte[] json) {
+        try {
+            ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(gzip)) {
+                gzipOutputStream.write(json);
+            }
+            return gzip.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
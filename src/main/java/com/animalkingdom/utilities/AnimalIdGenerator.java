@@ -0,0 +1,25 @@
+package com.animalkingdom.utilities;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lock-free generator of unique, monotonically increasing animal IDs.
+// It is seeded once from the loaded tree, so no tree walk is needed per insert
+public class AnimalIdGenerator {
+
+    private final AtomicLong nextId;
+
+    public AnimalIdGenerator(long firstId) {
+        this.nextId = new AtomicLong(firstId);
+    }
+
+    // Returns a new unique animal ID
+    public long nextId() {
+        return nextId.getAndIncrement();
+    }
+
+    // Reserves a block of consecutive IDs in one step, and returns the first of them
+    public long reserveIds(int count) {
+        return nextId.getAndAdd(count);
+    }
+
+}
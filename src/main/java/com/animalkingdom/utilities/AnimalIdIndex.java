@@ -0,0 +1,201 @@
+package com.animalkingdom.utilities;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.function.Consumer;
+
+import com.animalkingdom.model.Animal;
+
+// Index of animals by their (numeric) ID. Unlike a map with Long or String keys, it keeps nothing per
+// animal but a slot of an open-addressing table: the key of a slot is the ID of the animal in it, so
+// there is no key object, no entry object and no boxing, and a lookup compares primitive longs.
+// The table is split into segments, each one locked only by the adds and removes into it, so adds
+// of different animals rarely contend. Lookups never lock: slots are written with release semantics
+// and read with acquire semantics, so an animal found is always seen fully linked, and a segment
+// that grows is published as a whole new table
+public class AnimalIdIndex {
+
+    // Number of segments (a power of two), enough for concurrent adds not to contend
+    private static final int SEGMENT_COUNT = 64;
+
+    // Capacity of the table of a new segment (a power of two)
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Animal[].class);
+
+    // Left in the slot of a removed animal, so that the lookups of the animals after it in the same
+    // run of slots still find them
+    private static final Animal REMOVED = new Animal(Animal.NO_ID, null);
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    public AnimalIdIndex() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    // Returns the animal with the given ID, or null if it is not in the index
+    public Animal get(long id) {
+        long hash = hash(id);
+        return segments[segmentOf(hash)].get(id, hash);
+    }
+
+    // Adds the given animal, replacing the one with the same ID if there is one
+    public void put(Animal animal) {
+        long hash = hash(animal.getId());
+        segments[segmentOf(hash)].put(animal, hash, true);
+    }
+
+    // Adds the given animal unless there is one with the same ID already, and returns that one
+    // (or null if the animal was added)
+    public Animal putIfAbsent(Animal animal) {
+        long hash = hash(animal.getId());
+        return segments[segmentOf(hash)].put(animal, hash, false);
+    }
+
+    // Removes the animal with the given ID, if there is one
+    public void remove(long id) {
+        long hash = hash(id);
+        segments[segmentOf(hash)].remove(id, hash);
+    }
+
+    // Returns the number of animals in the index
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    // Returns the approximate number of bytes of this index (but not of the animals in it), on a 64-bit
+    // JVM with compressed references
+    public long getRetainedSize() {
+        long size = MemorySizes.array(segments.length, MemorySizes.REFERENCE);
+        for (Segment segment : segments) {
+            size += 24 + MemorySizes.array(segment.slots.length, MemorySizes.REFERENCE);
+        }
+        return size;
+    }
+
+    // Passes every animal in the index to the given consumer, in no particular order. Animals added
+    // or removed meanwhile may or may not be passed
+    public void forEach(Consumer<Animal> consumer) {
+        for (Segment segment : segments) {
+            Animal[] slots = segment.slots;
+            for (int i = 0; i < slots.length; i++) {
+                Animal animal = (Animal) SLOTS.getAcquire(slots, i);
+                if (animal != null && animal != REMOVED) {
+                    consumer.accept(animal);
+                }
+            }
+        }
+    }
+
+    // IDs are mostly consecutive, so they are spread over the whole range first (Fibonacci hashing):
+    // the top bits pick the segment, and the next ones the slot in it
+    private static long hash(long id) {
+        return id * 0x9E3779B97F4A7C15L;
+    }
+
+    private static int segmentOf(long hash) {
+        return (int) (hash >>> (Long.SIZE - Integer.numberOfTrailingZeros(SEGMENT_COUNT)));
+    }
+
+    private static final class Segment {
+
+        private volatile Animal[] slots = new Animal[INITIAL_CAPACITY];
+
+        // Number of animals, and of slots that are not empty (animals and removed ones), guarded by
+        // this segment's lock. Slots stay at most half used, so every run of slots ends
+        private volatile int size;
+        private int used;
+
+        Animal get(long id, long hash) {
+            Animal[] current = slots;
+            int mask = current.length - 1;
+            for (int i = slotOf(hash, mask);; i = (i + 1) & mask) {
+                Animal animal = (Animal) SLOTS.getAcquire(current, i);
+                if (animal == null) {
+                    return null;
+                }
+                if (animal != REMOVED && animal.getId() == id) {
+                    return animal;
+                }
+            }
+        }
+
+        synchronized Animal put(Animal animal, long hash, boolean replace) {
+            Animal[] current = slots;
+            int mask = current.length - 1;
+            int free = -1;
+            int i = slotOf(hash, mask);
+            for (Animal existing; (existing = current[i]) != null; i = (i + 1) & mask) {
+                if (existing == REMOVED) {
+                    free = free < 0 ? i : free;
+                } else if (existing.getId() == animal.getId()) {
+                    if (replace) {
+                        SLOTS.setRelease(current, i, animal);
+                    }
+                    return existing;
+                }
+            }
+
+            if (free < 0) {
+                free = i;
+                used++;
+            }
+            SLOTS.setRelease(current, free, animal);
+            size = size + 1;
+            if (used * 2 > current.length) {
+                resize();
+            }
+            return null;
+        }
+
+        synchronized void remove(long id, long hash) {
+            Animal[] current = slots;
+            int mask = current.length - 1;
+            for (int i = slotOf(hash, mask);; i = (i + 1) & mask) {
+                Animal existing = current[i];
+                if (existing == null) {
+                    return;
+                }
+                if (existing != REMOVED && existing.getId() == id) {
+                    SLOTS.setRelease(current, i, REMOVED);
+                    size = size - 1;
+                    return;
+                }
+            }
+        }
+
+        // Copies the animals (without the removed ones) into a table where they use at most a quarter
+        // of the slots, and publishes it. Lookups still reading the old table find what it had
+        private void resize() {
+            int capacity = INITIAL_CAPACITY;
+            while (capacity < size * 4) {
+                capacity *= 2;
+            }
+            Animal[] resized = new Animal[capacity];
+            int mask = capacity - 1;
+            for (Animal animal : slots) {
+                if (animal != null && animal != REMOVED) {
+                    int i = slotOf(hash(animal.getId()), mask);
+                    while (resized[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    resized[i] = animal;
+                }
+            }
+            used = size;
+            slots = resized;
+        }
+
+        private static int slotOf(long hash, int mask) {
+            return (int) (hash >>> 20) & mask;
+        }
+
+    }
+
+}
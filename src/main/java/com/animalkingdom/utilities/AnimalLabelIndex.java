@@ -0,0 +1,265 @@
+package com.animalkingdom.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.model.AnimalTreeTraversal;
+
+// In-memory index of animal IDs by label, for prefix and full-text (word prefix) searches.
+// Labels repeat a lot, so every distinct label keeps a posting list of the IDs of its animals,
+// and every word of a distinct label is kept sorted (with the label), so that a prefix is a range
+// of words. Adds are safe to call concurrently with each other and with searches, which never lock
+public class AnimalLabelIndex {
+
+    // Separates the word from the label in the keys of labelsByWord
+    private static final char WORD_END = '\u0000';
+
+    private final Map<String, Postings> postingsByLabel = new ConcurrentHashMap<>();
+
+    // Every (lower case) word of a distinct label, followed by the label (to keep keys distinct),
+    // mapped to the label. Ordered by word, then by label
+    private final ConcurrentSkipListMap<String, String> labelsByWord = new ConcurrentSkipListMap<>();
+
+    // Adds the animal with the given ID and label
+    public void add(String label, long id) {
+        if (label != null) {
+            getPostings(label, null).add(id);
+        }
+    }
+
+    // Adds every animal of the given tree, in pre-order
+    public void addAll(List<Animal> roots) {
+        List<String> newLabels = new ArrayList<>();
+        AnimalTreeTraversal.depthFirst(roots, (animal, depth) -> {
+            if (animal.getLabel() != null) {
+                getPostings(animal.getLabel(), newLabels).add(animal.getId());
+            }
+            return AnimalTreeTraversal.Action.CONTINUE;
+        });
+        addWords(newLabels);
+    }
+
+    // Adds every animal of the given mapped tree (without loading them), in the (pre-)order of its rows,
+    // except the ones that have been removed from the tree since it was loaded
+    public void addAll(MappedAnimalTree tree) {
+        List<String> newLabels = new ArrayList<>();
+        String label = null;
+        Postings postings = null;
+        for (int row = 0; row < tree.getRowCount(); row++) {
+            String rowLabel = tree.getLabel(row);
+            if (rowLabel == null || tree.isRemoved(row)) {
+                continue;
+            }
+            if (rowLabel != label) { // Labels of a mapped tree are interned
+                label = rowLabel;
+                postings = getPostings(label, newLabels);
+            }
+            postings.add(tree.getId(row));
+        }
+        addWords(newLabels);
+    }
+
+    // Removes the animals with the given IDs, grouped by label, rewriting each posting list only once.
+    // A label without animals is kept (it no longer matches anything)
+    public void removeAll(Map<String, Set<Long>> idsByLabel) {
+        for (Map.Entry<String, Set<Long>> entry : idsByLabel.entrySet()) {
+            Postings postings = postingsByLabel.get(entry.getKey());
+            if (postings != null) {
+                postings.removeAll(entry.getValue());
+            }
+        }
+    }
+
+    // Returns the IDs of (up to the given number of) the animals whose label has, for every word
+    // of the query, a word that starts with it (ignoring case). Matches are ordered by the matching
+    // word of the label, then by label, then in the order they were added. The search stops as soon
+    // as it has enough matches, so a short prefix costs no more than a long one
+    public long[] search(String query, int limit) {
+        List<String> queryWords = getWords(query);
+        if (queryWords.isEmpty() || limit < 1) {
+            return new long[0];
+        }
+
+        // The longest word of the query selects the fewest labels, the other words filter them
+        String longest = queryWords.get(0);
+        for (String word : queryWords) {
+            if (word.length() > longest.length()) {
+                longest = word;
+            }
+        }
+
+        long[] ids = new long[Math.min(limit, 64)];
+        int count = 0;
+        Set<String> seen = new HashSet<>();
+        for (String label : labelsByWord.subMap(longest, longest + Character.MAX_VALUE).values()) {
+            Postings postings = postingsByLabel.get(label);
+            if (!seen.add(label) || !matchesAll(postings.words, queryWords)) {
+                continue; // Already found through another of its words, or not a match
+            }
+
+            int taken = Math.min(postings.size(), limit - count);
+            if (count + taken > ids.length) {
+                ids = Arrays.copyOf(ids, Math.min(limit, Math.max(count + taken, ids.length * 2)));
+            }
+            count += postings.copyTo(ids, count, taken);
+            if (count == limit) {
+                break;
+            }
+        }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    // Returns the approximate number of bytes of this index (but not of the labels themselves, which
+    // are interned and shared), on a 64-bit JVM with compressed references. Walks every word, so it
+    // is only meant for occasional accounting
+    public long getRetainedSize() {
+        long size = 0;
+        for (Postings postings : postingsByLabel.values()) {
+            // The map entry, the posting list and its IDs, and the list of words
+            size += 32 + 24 + MemorySizes.array(postings.ids.length, Long.BYTES) + 16
+                    + MemorySizes.array(postings.words.size(), MemorySizes.REFERENCE);
+        }
+        for (String key : labelsByWord.keySet()) {
+            // The node of the skip list (and its share of the index nodes above), the key, and the word
+            // (in the list of words of the label)
+            size += 24 + 8 + 2 * MemorySizes.string(key.length());
+        }
+        return size + MemorySizes.array(postingsByLabel.size() * 2, MemorySizes.REFERENCE);
+    }
+
+    // Returns the posting list of the given label, creating it for a new label. The words of a new
+    // label are added right away, or only added to the given list, to be added later by addWords.
+    // The posting list is published before the words, so a search never sees a label without one
+    // (but may briefly miss a brand-new label)
+    private Postings getPostings(String label, List<String> newLabels) {
+        Postings postings = postingsByLabel.get(label);
+        if (postings == null) {
+            Postings created = new Postings(getWords(label));
+            postings = postingsByLabel.putIfAbsent(label, created);
+            if (postings == null) {
+                postings = created;
+                if (newLabels != null) {
+                    newLabels.add(label);
+                } else {
+                    for (String word : created.words) {
+                        labelsByWord.put(word + WORD_END + label, label);
+                    }
+                }
+            }
+        }
+        return postings;
+    }
+
+    // Adds the words of many new labels at once. They are sorted first, since adding them in order
+    // is about twice as fast as adding them in random order (including the sort)
+    private void addWords(List<String> newLabels) {
+        List<String> keys = new ArrayList<>();
+        for (String label : newLabels) {
+            for (String word : postingsByLabel.get(label).words) {
+                keys.add(word + WORD_END + label);
+            }
+        }
+        keys.sort(null);
+        for (String key : keys) {
+            labelsByWord.put(key, key.substring(key.indexOf(WORD_END) + 1));
+        }
+    }
+
+    private static boolean matchesAll(List<String> labelWords, List<String> queryWords) {
+        for (String queryWord : queryWords) {
+            boolean matched = false;
+            for (String labelWord : labelWords) {
+                if (labelWord.startsWith(queryWord)) {
+                    matched = true;
+                    break;
+                }
+            }
+            if (!matched) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Splits the given text into lower case words of letters and digits
+    private static List<String> getWords(String text) {
+        List<String> words = new ArrayList<>(2);
+        if (text == null) {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    // IDs appended under this list's lock into an array that only ever grows,
+    // and published through the volatile size (like the children of an Animal).
+    // Removed IDs are dropped from a copy of the array that is just big enough
+    private static class Postings {
+
+        // The words of the label
+        private final List<String> words;
+
+        private volatile long[] ids = new long[4];
+        private volatile int size;
+
+        Postings(List<String> words) {
+            this.words = words;
+        }
+
+        synchronized void add(long id) {
+            ensureCapacity(size + 1);
+            ids[size] = id;
+            size = size + 1;
+        }
+
+        int size() {
+            return size;
+        }
+
+        // Copies the first count IDs (count must not exceed a size read before), or fewer if some
+        // have been removed since, and returns the number of IDs copied
+        int copyTo(long[] target, int offset, int count) {
+            long[] current = ids;
+            int copied = Math.min(count, current.length);
+            System.arraycopy(current, 0, target, offset, copied);
+            return copied;
+        }
+
+        synchronized void removeAll(Set<Long> removedIds) {
+            long[] remaining = new long[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (!removedIds.contains(ids[i])) {
+                    remaining[count++] = ids[i];
+                }
+            }
+            ids = Arrays.copyOf(remaining, count);
+            size = count;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(capacity, ids.length + (ids.length >> 1)));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,270 @@
+package com.animalkingdom.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.model.AnimalTreeTraversal;
+
+// Computes the statistics of a whole tree in parallel on a ForkJoinPool. The tree is split by the
+// subtree sizes every animal keeps: a range of siblings is split where half of its animals are on
+// each side, and a big subtree is split into the ranges of its children, down to parts of at most
+// sequentialThreshold animals that are walked sequentially. Each split forks the lighter part (so
+// idle workers can steal it) and goes on with the heavier one, so a task never waits on more than
+// a logarithmic number of nested tasks and deep trees cannot overflow the stack. Subtrees that are
+// not loaded yet are split in the same way, by the rows of the mapped snapshot, without loading them
+public class AnimalTreeAnalyzer {
+
+    public static final int DEFAULT_SEQUENTIAL_THRESHOLD = 8192;
+
+    private final ForkJoinPool pool;
+
+    private final int sequentialThreshold;
+
+    public AnimalTreeAnalyzer() {
+        this(ForkJoinPool.commonPool(), DEFAULT_SEQUENTIAL_THRESHOLD);
+    }
+
+    public AnimalTreeAnalyzer(ForkJoinPool pool, int sequentialThreshold) {
+        this.pool = pool;
+        this.sequentialThreshold = sequentialThreshold;
+    }
+
+    // Returns the statistics of the trees of the given roots. Safe with concurrent inserts: the animals
+    // added during the walk may or may not be counted
+    public AnimalTreeStatistics analyze(List<Animal> roots) {
+        return pool.invoke(new AnimalsTask(roots, getWeights(roots), 0, roots.size(), 0));
+    }
+
+    // Prefix sums of the subtree sizes of the given animals: the animals in [from, to) have
+    // weights[to] - weights[from] animals in their subtrees
+    private static long[] getWeights(List<Animal> animals) {
+        long[] weights = new long[animals.size() + 1];
+        for (int i = 0; i < animals.size(); i++) {
+            weights[i + 1] = weights[i] + animals.get(i).getSubtreeSize();
+        }
+        return weights;
+    }
+
+    // Returns the index in (from, to) that splits the weights of the range closest to their middle
+    private static int getMiddle(long[] weights, int from, int to) {
+        long half = weights[from] + (weights[to] - weights[from]) / 2;
+        int index = Arrays.binarySearch(weights, from + 1, to, half);
+        return index >= 0 ? index : Math.max(from + 1, Math.min(to - 1, -index - 1));
+    }
+
+    // Counts the animals of the given range of siblings (at the given depth) and their descendants.
+    // Serializable only as a ForkJoinTask, but never serialized
+    @SuppressWarnings("serial")
+    private final class AnimalsTask extends RecursiveTask<AnimalTreeStatistics> {
+
+        private List<Animal> siblings;
+        private long[] weights;
+        private int from;
+        private int to;
+        private int depth;
+
+        AnimalsTask(List<Animal> siblings, long[] weights, int from, int to, int depth) {
+            this.siblings = siblings;
+            this.weights = weights;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+        }
+
+        @Override
+        protected AnimalTreeStatistics compute() {
+            AnimalTreeStatistics statistics = new AnimalTreeStatistics();
+            List<AnimalsTask> forked = new ArrayList<>();
+
+            while (from < to) {
+                if (weights[to] - weights[from] <= sequentialThreshold) {
+                    walk(siblings.subList(from, to), depth, statistics);
+                    break;
+                }
+                if (to - from > 1) {
+                    int middle = getMiddle(weights, from, to);
+                    boolean leftLighter = weights[middle] - weights[from] <= weights[to] - weights[middle];
+                    AnimalsTask lighter = leftLighter
+                            ? new AnimalsTask(siblings, weights, from, middle, depth)
+                            : new AnimalsTask(siblings, weights, middle, to, depth);
+                    forked.add(lighter);
+                    lighter.fork();
+                    if (leftLighter) {
+                        from = middle;
+                    } else {
+                        to = middle;
+                    }
+                    continue;
+                }
+
+                // A single big subtree: its root, then the ranges of its children
+                Animal animal = siblings.get(from);
+                if (animal.getLazyChildren() instanceof MappedAnimalTree.Children lazy) {
+                    MappedAnimalTree tree = lazy.getTree();
+                    statistics.add(animal.getLabel(), depth, tree.getChildCount(lazy.getRow()));
+                    int[] childRows = getChildRows(tree, lazy.getRow());
+                    statistics.merge(new RowsTask(tree, childRows, getWeights(tree, childRows), 0, childRows.length,
+                            depth + 1).compute());
+                    break;
+                }
+                List<Animal> children = animal.getChildren();
+                statistics.add(animal.getLabel(), depth, children.size());
+                siblings = children;
+                weights = getWeights(children);
+                from = 0;
+                to = children.size();
+                depth++;
+            }
+
+            for (AnimalsTask task : forked) {
+                statistics.merge(task.join());
+            }
+            return statistics;
+        }
+
+    }
+
+    // Counts the animals of the given range of sibling rows of a mapped tree (at the given depth)
+    // and their descendants, in the same way as AnimalsTask (never serialized either)
+    @SuppressWarnings("serial")
+    private final class RowsTask extends RecursiveTask<AnimalTreeStatistics> {
+
+        private final MappedAnimalTree tree;
+        private int[] rows;
+        private long[] weights;
+        private int from;
+        private int to;
+        private int depth;
+
+        RowsTask(MappedAnimalTree tree, int[] rows, long[] weights, int from, int to, int depth) {
+            this.tree = tree;
+            this.rows = rows;
+            this.weights = weights;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+        }
+
+        @Override
+        protected AnimalTreeStatistics compute() {
+            AnimalTreeStatistics statistics = new AnimalTreeStatistics();
+            List<RowsTask> forked = new ArrayList<>();
+
+            while (from < to) {
+                if (weights[to] - weights[from] <= sequentialThreshold) {
+                    for (int i = from; i < to; i++) {
+                        statistics.add(tree.getLabel(rows[i]), depth, tree.getChildCount(rows[i]));
+                        walkRows(tree, rows[i], depth, statistics);
+                    }
+                    break;
+                }
+                if (to - from > 1) {
+                    int middle = getMiddle(weights, from, to);
+                    boolean leftLighter = weights[middle] - weights[from] <= weights[to] - weights[middle];
+                    RowsTask lighter = leftLighter
+                            ? new RowsTask(tree, rows, weights, from, middle, depth)
+                            : new RowsTask(tree, rows, weights, middle, to, depth);
+                    forked.add(lighter);
+                    lighter.fork();
+                    if (leftLighter) {
+                        from = middle;
+                    } else {
+                        to = middle;
+                    }
+                    continue;
+                }
+
+                int row = rows[from];
+                statistics.add(tree.getLabel(row), depth, tree.getChildCount(row));
+                rows = getChildRows(tree, row);
+                weights = getWeights(tree, rows);
+                from = 0;
+                to = rows.length;
+                depth++;
+            }
+
+            for (RowsTask task : forked) {
+                statistics.merge(task.join());
+            }
+            return statistics;
+        }
+
+    }
+
+    // Walks the given animals (at the given depth) and their descendants sequentially
+    private static void walk(List<Animal> animals, int baseDepth, AnimalTreeStatistics statistics) {
+        AnimalTreeTraversal.depthFirst(animals, new AnimalTreeTraversal.Visitor<RuntimeException>() {
+
+            // The children read by enter, so the fan-out counted matches the children walked
+            private List<Animal> children;
+
+            @Override
+            public AnimalTreeTraversal.Action enter(Animal animal, int depth) {
+                if (animal.getLazyChildren() instanceof MappedAnimalTree.Children lazy) {
+                    statistics.add(animal.getLabel(), baseDepth + depth, lazy.getTree().getChildCount(lazy.getRow()));
+                    walkRows(lazy.getTree(), lazy.getRow(), baseDepth + depth, statistics);
+                    return AnimalTreeTraversal.Action.SKIP_CHILDREN;
+                }
+                children = animal.getChildren();
+                statistics.add(animal.getLabel(), baseDepth + depth, children.size());
+                return AnimalTreeTraversal.Action.CONTINUE;
+            }
+
+            @Override
+            public List<Animal> children(Animal animal, int depth) {
+                return children;
+            }
+
+        });
+    }
+
+    // Counts the descendants of the given row (at the given depth) of a mapped tree sequentially.
+    // They are the rows right after it, in pre-order
+    private static void walkRows(MappedAnimalTree tree, int row, int depth, AnimalTreeStatistics statistics) {
+        // Children still to count at each open level below the row
+        int[] remainingChildren = new int[16];
+        remainingChildren[0] = tree.getChildCount(row);
+        int level = 0;
+        int end = row + tree.getSubtreeSize(row);
+
+        for (int next = row + 1; next < end; next++) {
+            while (remainingChildren[level] == 0) {
+                level--;
+            }
+            remainingChildren[level]--;
+
+            int childCount = tree.getChildCount(next);
+            statistics.add(tree.getLabel(next), depth + 1 + level, childCount);
+            if (childCount > 0) {
+                if (++level == remainingChildren.length) {
+                    remainingChildren = Arrays.copyOf(remainingChildren, level * 2);
+                }
+                remainingChildren[level] = childCount;
+            }
+        }
+    }
+
+    // Returns the rows of the children of the given row, in order
+    private static int[] getChildRows(MappedAnimalTree tree, int row) {
+        int[] childRows = new int[tree.getChildCount(row)];
+        int childRow = row + 1;
+        for (int i = 0; i < childRows.length; i++) {
+            childRows[i] = childRow;
+            childRow += tree.getSubtreeSize(childRow);
+        }
+        return childRows;
+    }
+
+    private static long[] getWeights(MappedAnimalTree tree, int[] rows) {
+        long[] weights = new long[rows.length + 1];
+        for (int i = 0; i < rows.length; i++) {
+            weights[i + 1] = weights[i] + tree.getSubtreeSize(rows[i]);
+        }
+        return weights;
+    }
+
+}
@@ -1,12 +1,12 @@
 package com.animalkingdom.utilities;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.animalkingdom.model.Animal;
@@ -19,22 +19,33 @@ public class AnimalTreeDataLoader {
 
     private final Utilities utilities;
 
+    // Edge list file to import the initial tree from (the built-in data set when empty)
+    @Value("${animalkingdom.tree.import.file:}")
+    private String importFile = "";
+
+    @Value("${animalkingdom.tree.import.format:CSV}")
+    private AnimalTreeImporter.Format importFormat = AnimalTreeImporter.Format.CSV;
+
     public AnimalTreeDataLoader(final Utilities utilities) {
         this.utilities = utilities;
     }
 
-    public List<Map<String, Animal>> createAnimals() {
+    // Returns the initial tree, imported from the configured file if there is one
+    public List<Animal> createAnimals() {
+        if (importFile != null && !importFile.isBlank()) {
+            return new AnimalTreeImporter(importFormat).importAnimals(Path.of(importFile));
+        }
 
-        List<Map<String, Animal>> animals = new ArrayList<>();
+        List<Animal> animals = new ArrayList<>();
 
         // Initialize the data set
-        Animal root = new Animal("root");
-        Animal ant = new Animal("ant");
-        Animal bear = new Animal("bear");
-        Animal cat = new Animal("cat");
-        Animal dog = new Animal("dog");
-        Animal elephant = new Animal("elephant");
-        Animal frog = new Animal("frog");
+        Animal root = new Animal(1, "root");
+        Animal ant = new Animal(2, "ant");
+        Animal bear = new Animal(3, "bear");
+        Animal cat = new Animal(4, "cat");
+        Animal dog = new Animal(5, "dog");
+        Animal elephant = new Animal(6, "elephant");
+        Animal frog = new Animal(7, "frog");
 
         // Build the subtrees (with children):
         // 2: ant -> children: []
@@ -43,29 +54,17 @@ public class AnimalTreeDataLoader {
         // 5: dog -> children: 6
         // 6: elephant -> []
         // 7: frog -> []
-        Map<String, Animal> antMap = Map.of("2", ant);
-        Map<String, Animal> catMap = Map.of("4", cat);
-        Map<String, Animal> elephantMap = Map.of("6", elephant);
+        dog.addChild(elephant); // dog's children are "6"
 
-        Map<String, Animal> dogMap = new HashMap<>();
-        dogMap.put("5", dog);
-        dog.getChildren().add(elephantMap); // dog's children are "6"
-
-        Map<String, Animal> bearMap = new HashMap<>();
-        bearMap.put("3", bear);
-        bear.getChildren().add(catMap); // bear's children are "4" and "5"
-        bear.getChildren().add(dogMap);
+        bear.addChild(cat); // bear's children are "4" and "5"
+        bear.addChild(dog);
 
         // root's children: ["2", "3", "7"]
-        root.getChildren().add(antMap);
-        root.getChildren().add(bearMap);
-
-        Map<String, Animal> frogMap = Map.of("7", frog);
-        root.getChildren().add(frogMap);
+        root.addChild(ant);
+        root.addChild(bear);
+        root.addChild(frog);
 
-        Map<String, Animal> rootMap = new HashMap<>();
-        rootMap.put("1", root);
-        animals.add(rootMap);
+        animals.add(root);
 
         log.info(String.format("Created data set with '%d' animals", utilities.countAnimals(animals)));
         return animals;
@@ -0,0 +1,336 @@
+package com.animalkingdom.utilities;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.model.AnimalTreeTraversal;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+// Imports a tree of animals from an edge list file with one animal per line (its ID,
+// the ID of its parent, empty for a root, and its label), in a single pass over the file.
+// Lines are read in chunks, and the chunks are parsed in parallel (the animals are created
+// there too), while the parsed chunks are linked into the tree one by one, in file order
+public class AnimalTreeImporter {
+
+    private static final Log log = LogFactory.getLog(AnimalTreeImporter.class);
+
+    public enum Format {
+        // id,parentId,label (an optional header line starting with "id" is skipped)
+        CSV,
+        // {"id": "2", "parentId": "1", "label": "ant"} (parentId null or missing for a root)
+        NDJSON
+    }
+
+    private static final int CHUNK_LINES = 8192;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Format format;
+
+    private final ForkJoinPool pool;
+
+    public AnimalTreeImporter(Format format) {
+        this(format, ForkJoinPool.commonPool());
+    }
+
+    public AnimalTreeImporter(Format format, ForkJoinPool pool) {
+        this.format = format;
+        this.pool = pool;
+    }
+
+    // Returns the roots of the imported tree. Children may come before their parent in the file:
+    // they wait (with their own subtrees) until it is read. Animals whose parent is never read
+    // (orphans) become roots. Throws IllegalArgumentException for an invalid line, a duplicate ID
+    // or a cycle
+    public List<Animal> importAnimals(Path file) {
+        long start = System.nanoTime();
+        Linker linker = new Linker();
+
+        // Parsed chunks are linked in file order, with a bounded number of chunks in flight
+        int maxChunksInFlight = pool.getParallelism() * 2;
+        Deque<CompletableFuture<ParsedChunk>> inFlight = new ArrayDeque<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<String> lines = new ArrayList<>(CHUNK_LINES);
+            long firstLine = 1;
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                lines.add(line);
+                if (lines.size() == CHUNK_LINES) {
+                    inFlight.add(parseAsync(lines, firstLine));
+                    lines = new ArrayList<>(CHUNK_LINES);
+                    firstLine = lineNumber + 1;
+
+                    if (inFlight.size() >= maxChunksInFlight) {
+                        linker.link(join(inFlight.poll()));
+                    }
+                }
+            }
+            if (!lines.isEmpty()) {
+                inFlight.add(parseAsync(lines, firstLine));
+            }
+            while (!inFlight.isEmpty()) {
+                linker.link(join(inFlight.poll()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            inFlight.forEach(chunk -> chunk.cancel(false));
+        }
+
+        List<Animal> roots = linker.finish();
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        log.info(String.format("Imported '%d' animals ('%d' roots, '%d' orphans) from '%s' in %d ms (%d animals/s).",
+                linker.animalsById.size(), roots.size(), linker.orphans, file, elapsedMillis,
+                linker.animalsById.size() * 1000L / elapsedMillis));
+        return roots;
+    }
+
+    private CompletableFuture<ParsedChunk> parseAsync(List<String> lines, long firstLine) {
+        return CompletableFuture.supplyAsync(() -> parse(lines, firstLine), pool);
+    }
+
+    // Rethrows the exception of a failed chunk as is (e.g. the IllegalArgumentException of an invalid line)
+    private static ParsedChunk join(CompletableFuture<ParsedChunk> chunk) {
+        try {
+            return chunk.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private ParsedChunk parse(List<String> lines, long firstLine) {
+        ParsedChunk chunk = new ParsedChunk(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            long lineNumber = firstLine + i;
+            if (line.isBlank() || (format == Format.CSV && lineNumber == 1 && line.startsWith("id"))) {
+                continue; // Empty line or CSV header
+            }
+
+            String[] fields = format == Format.CSV ? parseCsv(line) : parseNdjson(line);
+            if (fields == null || fields[0] == null || fields[0].isBlank() || fields[2] == null
+                    || fields[2].isBlank()) {
+                throw invalidLine(lineNumber);
+            }
+            // IDs (and the IDs of parents) must be numbers, new IDs are generated after the highest one
+            boolean root = fields[1] == null || fields[1].isBlank();
+            long id = Animal.parseId(fields[0].strip());
+            long parentId = root ? Animal.NO_ID : Animal.parseId(fields[1].strip());
+            if (id < 0 || (!root && parentId < 0)) {
+                throw invalidLine(lineNumber);
+            }
+
+            chunk.add(new Animal(id, fields[2]), parentId, lineNumber);
+        }
+        return chunk;
+    }
+
+    // Splits "id,parentId,label" at the first two commas, so that the label may contain commas.
+    // A label in double quotes is unquoted ("" is an escaped quote)
+    private static String[] parseCsv(String line) {
+        int first = line.indexOf(',');
+        int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+        if (second < 0) {
+            return null;
+        }
+
+        String label = line.substring(second + 1).strip();
+        if (label.length() >= 2 && label.startsWith("\"") && label.endsWith("\"")) {
+            label = label.substring(1, label.length() - 1).replace("\"\"", "\"");
+        }
+        return new String[] { line.substring(0, first), line.substring(first + 1, second), label };
+    }
+
+    private static String[] parseNdjson(String line) {
+        String[] fields = new String[3];
+        try (JsonParser parser = JSON_FACTORY.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                String text = value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                switch (name) {
+                    case "id" -> fields[0] = text;
+                    case "parentId" -> fields[1] = text;
+                    case "label" -> fields[2] = text;
+                    default -> parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            return null; // Malformed JSON
+        }
+        return fields;
+    }
+
+    private static IllegalArgumentException invalidLine(long lineNumber) {
+        return new IllegalArgumentException(String.format("%s %d", ErrorMessages.INVALID_IMPORT_LINE, lineNumber));
+    }
+
+    // The animals of a chunk, with the parent ID (NO_ID for a root) and line number of each
+    private static class ParsedChunk {
+
+        private final Animal[] animals;
+        private final long[] parentIds;
+        private final long[] lineNumbers;
+        private int size;
+
+        ParsedChunk(int capacity) {
+            animals = new Animal[capacity];
+            parentIds = new long[capacity];
+            lineNumbers = new long[capacity];
+        }
+
+        void add(Animal animal, long parentId, long lineNumber) {
+            animals[size] = animal;
+            parentIds[size] = parentId;
+            lineNumbers[size++] = lineNumber;
+        }
+
+    }
+
+    // Links the parsed animals into the tree, in file order. Subtree sizes (and depths) are only
+    // set once at the end, so that linking an animal never walks its ancestors (or descendants). Only
+    // adopting waiting children looks up the top of the animal's chain, through shortcuts (see findTop)
+    private static class Linker {
+
+        private final AnimalIdIndex animalsById = new AnimalIdIndex();
+
+        // Animals waiting for their parent (by parent ID), in file order. Only forward references
+        // (and orphans) are kept here, so boxing their parent IDs costs little
+        private final Map<Long, List<Animal>> waitingForParent = new LinkedHashMap<>();
+
+        // Shortcuts towards the tops of chains of ancestors (union-find with path compression): an
+        // animal mapped here has that ancestor as its next step up, others step up to their parent
+        private final Map<Animal, Animal> towardTop = new IdentityHashMap<>();
+
+        private final List<Animal> roots = new ArrayList<>();
+
+        private int orphans;
+
+        void link(ParsedChunk chunk) {
+            for (int i = 0; i < chunk.size; i++) {
+                Animal animal = chunk.animals[i];
+                long parentId = chunk.parentIds[i];
+                if (animalsById.putIfAbsent(animal) != null) {
+                    throw new IllegalArgumentException(
+                            String.format("%s %d", ErrorMessages.DUPLICATE_IMPORT_ID, chunk.lineNumbers[i]));
+                }
+
+                if (parentId == Animal.NO_ID) {
+                    roots.add(animal);
+                } else if (parentId == animal.getId()) {
+                    throw cycle(chunk.lineNumbers[i]);
+                } else {
+                    Animal parent = animalsById.get(parentId);
+                    if (parent != null) {
+                        parent.linkChild(animal);
+                    } else {
+                        waitingForParent.computeIfAbsent(parentId, id -> new ArrayList<>(1)).add(animal);
+                    }
+                }
+
+                List<Animal> children = waitingForParent.isEmpty() ? null : waitingForParent.remove(animal.getId());
+                if (children != null) {
+                    // Each waiting child is the top of its own chain of ancestors, so adopting one
+                    // would close a cycle only if it is also the top of this animal's chain
+                    Animal top = findTop(animal);
+                    for (Animal child : children) {
+                        if (child == top) {
+                            throw cycle(chunk.lineNumbers[i]);
+                        }
+                        animal.linkChild(child);
+                    }
+                }
+            }
+        }
+
+        // Returns the top of the chain of ancestors of the given animal, then points every animal
+        // walked on the way straight at it, so that chains linked from both ends (forward references
+        // interleaved with the file order) are not walked again for every animal that is added
+        private Animal findTop(Animal animal) {
+            Animal top = animal;
+            for (Animal next = stepUp(top); next != null; next = stepUp(top)) {
+                top = next;
+            }
+            for (Animal walked = animal; walked != top;) {
+                Animal next = stepUp(walked);
+                if (next != top) {
+                    towardTop.put(walked, top);
+                }
+                walked = next;
+            }
+            return top;
+        }
+
+        private Animal stepUp(Animal animal) {
+            Animal shortcut = towardTop.get(animal);
+            return shortcut != null ? shortcut : animal.getParent();
+        }
+
+        private static IllegalArgumentException cycle(long lineNumber) {
+            return new IllegalArgumentException(String.format("%s %d", ErrorMessages.IMPORT_CYCLE, lineNumber));
+        }
+
+        // Turns the remaining orphans into roots, and sets the subtree sizes of the whole tree
+        List<Animal> finish() {
+            for (List<Animal> children : waitingForParent.values()) {
+                orphans += children.size();
+                roots.addAll(children);
+            }
+            if (orphans > 0) {
+                log.warn(String.format("'%d' imported animals have no parent in the file, added as roots.", orphans));
+            }
+            waitingForParent.clear();
+            towardTop.clear();
+
+            // Depths and jumps are set top-down (pre-order), and sizes bottom-up (post-order)
+            AnimalTreeTraversal.depthFirst(roots, new AnimalTreeTraversal.Visitor<RuntimeException>() {
+
+                @Override
+                public AnimalTreeTraversal.Action enter(Animal animal, int depth) {
+                    animal.updateAncestry();
+                    return AnimalTreeTraversal.Action.CONTINUE;
+                }
+
+                @Override
+                public AnimalTreeTraversal.Action leave(Animal animal, int depth) {
+                    animal.updateSubtreeSize();
+                    return AnimalTreeTraversal.Action.CONTINUE;
+                }
+
+            });
+            return roots;
+        }
+
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.animalkingdom.utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.model.AnimalTreeTraversal;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamWriteConstraints;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+
+// Writes the tree of animals straight to a JsonGenerator while it is being walked,
+// so no intermediate copy of the response is built in memory.
+// The walk is iterative (see AnimalTreeTraversal), so deep trees cannot overflow the stack. Subtrees that are not
+// loaded yet are written straight from the memory-mapped snapshot, without loading them
+public class AnimalTreeJsonWriter {
+
+    public static final String ANIMALS = "animals";
+    public static final String LABEL = "label";
+    public static final String CHILDREN = "children";
+
+    // Every level of the tree nests three JSON levels, so the default nesting limit (1000) is lifted.
+    // Also for other factories that write trees, e.g. the ObjectMapper of the application
+    public static final StreamWriteConstraints DEEP_TREE_CONSTRAINTS =
+            StreamWriteConstraints.builder().maxNestingDepth(Integer.MAX_VALUE).build();
+
+    // The caller owns the output stream (e.g. the servlet container), so generators must not close it
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+            .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+            .streamWriteConstraints(DEEP_TREE_CONSTRAINTS)
+            .build();
+
+    public AnimalTreeJsonWriter() {
+    }
+
+    // Creates a generator suitable for writing trees of any depth to the given stream
+    public JsonGenerator createGenerator(OutputStream outputStream) throws IOException {
+        return JSON_FACTORY.createGenerator(outputStream);
+    }
+
+    // Writes {"animals":[{"<id>":{"label":..,"children":[..]}}, ..]}
+    public void writeAnimals(List<Animal> animals, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeArrayFieldStart(ANIMALS);
+        for (Animal animal : animals) {
+            writeAnimal(animal, generator);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    // Writes {"animals":[{"<id>":{"label":..,"children":[..]}}]} for just the subtree of the
+    // given animal, limited in the same way as writeAnimal
+    public void writeSubtree(Animal animal, JsonGenerator generator, int maxDepth, int childOffset, int childLimit)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeArrayFieldStart(ANIMALS);
+        writeAnimal(animal, generator, maxDepth, childOffset, childLimit);
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    // Writes {"<id>":{"label":..,"children":[..]}} for the given animal and all its descendants
+    public void writeAnimal(Animal animal, JsonGenerator generator) throws IOException {
+        writeAnimal(animal, generator, Integer.MAX_VALUE, 0, Integer.MAX_VALUE);
+    }
+
+    // Writes the given animal and its descendants down to maxDepth levels below it
+    // (deeper animals are written with empty children), and only the page of the
+    // animal's own children starting at childOffset, with at most childLimit children
+    public void writeAnimal(Animal animal, JsonGenerator generator, int maxDepth, int childOffset, int childLimit)
+            throws IOException {
+        List<Animal> children = animal.getChildren();
+        int fromIndex = Math.min(childOffset, children.size());
+        int toIndex = (int) Math.min((long) fromIndex + childLimit, children.size());
+        List<Animal> page = maxDepth > 0 ? children.subList(fromIndex, toIndex) : List.of();
+
+        AnimalTreeTraversal.depthFirst(List.of(animal), new AnimalTreeTraversal.Visitor<IOException>() {
+
+            @Override
+            public AnimalTreeTraversal.Action enter(Animal descendant, int depth) throws IOException {
+                startAnimal(descendant, generator);
+                if (depth > 0 && depth < maxDepth
+                        && descendant.getLazyChildren() instanceof MappedAnimalTree.Children lazy) {
+                    writeMappedChildren(lazy.getTree(), lazy.getRow(), generator, maxDepth - depth);
+                    return AnimalTreeTraversal.Action.SKIP_CHILDREN;
+                }
+                return AnimalTreeTraversal.Action.CONTINUE;
+            }
+
+            @Override
+            public List<Animal> children(Animal descendant, int depth) {
+                if (depth == 0) {
+                    return page;
+                }
+                return depth < maxDepth ? descendant.getChildren() : List.of();
+            }
+
+            @Override
+            public AnimalTreeTraversal.Action leave(Animal descendant, int depth) throws IOException {
+                endAnimal(generator);
+                return AnimalTreeTraversal.Action.CONTINUE;
+            }
+
+        });
+    }
+
+    // Writes the children of the animal of the given row of a mapped tree (inside its already
+    // started children array), and their descendants down to the given number of levels
+    private void writeMappedChildren(MappedAnimalTree tree, int row, JsonGenerator generator, int levels)
+            throws IOException {
+        // Children still to write at each open level. The rows are in pre-order, so the next row
+        // is always the next animal to write, unless a subtree below the levels is skipped
+        int[] remainingChildren = new int[16];
+        remainingChildren[0] = tree.getChildCount(row);
+        int depth = 0;
+        int next = row + 1;
+
+        while (depth >= 0) {
+            if (remainingChildren[depth] == 0) {
+                if (depth > 0) {
+                    endAnimal(generator);
+                }
+                depth--;
+                continue;
+            }
+            remainingChildren[depth]--;
+
+            generator.writeStartObject();
+            generator.writeFieldId(tree.getId(next));
+            generator.writeStartObject();
+            generator.writeStringField(LABEL, tree.getLabel(next));
+            generator.writeArrayFieldStart(CHILDREN);
+
+            int childCount = depth + 1 < levels ? tree.getChildCount(next) : 0;
+            if (childCount == 0) {
+                endAnimal(generator);
+                next += tree.getSubtreeSize(next);
+            } else {
+                if (++depth == remainingChildren.length) {
+                    remainingChildren = Arrays.copyOf(remainingChildren, depth * 2);
+                }
+                remainingChildren[depth] = childCount;
+                next++;
+            }
+        }
+    }
+
+    // Writes everything up to the children of the animal
+    private void startAnimal(Animal animal, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldId(animal.getId());
+        generator.writeStartObject();
+        generator.writeStringField(LABEL, animal.getLabel());
+        generator.writeArrayFieldStart(CHILDREN);
+    }
+
+    private void endAnimal(JsonGenerator generator) throws IOException {
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.animalkingdom.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// Tree-wide statistics: the number of animals at each depth, the number of animals with each number of
+// children (the fan-out distribution) and the number of animals with each label. Built by
+// AnimalTreeAnalyzer from the statistics of parts of the tree, merged together
+public class AnimalTreeStatistics {
+
+    // Fan-outs below this are counted in an array, bigger (rare) ones in a map
+    private static final int SMALL_FAN_OUT = 256;
+
+    private long animalCount;
+
+    private long[] animalsByDepth = new long[16];
+    private int maxDepth = -1;
+
+    private final long[] animalsBySmallFanOut = new long[SMALL_FAN_OUT];
+    private final Map<Integer, Long> animalsByLargeFanOut = new HashMap<>();
+
+    // Labels are interned (see Animal and MappedAnimalTree), so they are counted by identity
+    private final Map<String, long[]> animalsByLabel = new IdentityHashMap<>();
+
+    // Counts an animal with the given label, depth and number of children
+    void add(String label, int depth, int childCount) {
+        animalCount++;
+
+        if (depth >= animalsByDepth.length) {
+            animalsByDepth = Arrays.copyOf(animalsByDepth, Math.max(depth + 1, animalsByDepth.length * 2));
+        }
+        animalsByDepth[depth]++;
+        maxDepth = Math.max(maxDepth, depth);
+
+        if (childCount < SMALL_FAN_OUT) {
+            animalsBySmallFanOut[childCount]++;
+        } else {
+            animalsByLargeFanOut.merge(childCount, 1L, Long::sum);
+        }
+
+        long[] labelCount = animalsByLabel.get(label);
+        if (labelCount == null) {
+            animalsByLabel.put(label, new long[] { 1 });
+        } else {
+            labelCount[0]++;
+        }
+    }
+
+    // Adds the counts of the given statistics (of another part of the tree, not used afterwards) to these
+    void merge(AnimalTreeStatistics other) {
+        animalCount += other.animalCount;
+
+        if (other.maxDepth >= animalsByDepth.length) {
+            animalsByDepth = Arrays.copyOf(animalsByDepth, other.maxDepth + 1);
+        }
+        for (int depth = 0; depth <= other.maxDepth; depth++) {
+            animalsByDepth[depth] += other.animalsByDepth[depth];
+        }
+        maxDepth = Math.max(maxDepth, other.maxDepth);
+
+        for (int childCount = 0; childCount < SMALL_FAN_OUT; childCount++) {
+            animalsBySmallFanOut[childCount] += other.animalsBySmallFanOut[childCount];
+        }
+        other.animalsByLargeFanOut.forEach((childCount, count) -> animalsByLargeFanOut.merge(childCount, count, Long::sum));
+
+        for (Map.Entry<String, long[]> entry : other.animalsByLabel.entrySet()) {
+            long[] labelCount = animalsByLabel.get(entry.getKey());
+            if (labelCount == null) {
+                animalsByLabel.put(entry.getKey(), entry.getValue());
+            } else {
+                labelCount[0] += entry.getValue()[0];
+            }
+        }
+    }
+
+    public long getAnimalCount() {
+        return animalCount;
+    }
+
+    // Returns the depth of the deepest animal (0 for just roots), or -1 for an empty tree
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    // Returns the number of animals at each depth, from the roots (depth 0) down to the deepest animal
+    public long[] getAnimalsByDepth() {
+        return Arrays.copyOf(animalsByDepth, maxDepth + 1);
+    }
+
+    // Returns the number of animals by number of children, for every number of children that occurs
+    public SortedMap<Integer, Long> getAnimalsByChildCount() {
+        SortedMap<Integer, Long> animalsByChildCount = new TreeMap<>(animalsByLargeFanOut);
+        for (int childCount = 0; childCount < SMALL_FAN_OUT; childCount++) {
+            if (animalsBySmallFanOut[childCount] > 0) {
+                animalsByChildCount.put(childCount, animalsBySmallFanOut[childCount]);
+            }
+        }
+        return animalsByChildCount;
+    }
+
+    // Returns the number of distinct labels
+    public int getLabelCount() {
+        return animalsByLabel.containsKey(null) ? animalsByLabel.size() - 1 : animalsByLabel.size();
+    }
+
+    // Returns (up to the given number of) the most frequent labels with their number of animals,
+    // the most frequent first (then by label)
+    public Map<String, Long> getTopLabels(int limit) {
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>(animalsByLabel.entrySet());
+        entries.removeIf(entry -> entry.getKey() == null);
+        entries.sort((a, b) -> a.getValue()[0] != b.getValue()[0]
+                ? Long.compare(b.getValue()[0], a.getValue()[0])
+                : a.getKey().compareTo(b.getKey()));
+
+        Map<String, Long> topLabels = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> entry : entries.subList(0, Math.min(limit, entries.size()))) {
+            topLabels.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return Collections.unmodifiableMap(topLabels);
+    }
+
+}
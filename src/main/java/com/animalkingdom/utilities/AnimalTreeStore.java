@@ -0,0 +1,801 @@
+package com.animalkingdom.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.model.AnimalTreeTraversal;
+
+import jakarta.annotation.PreDestroy;
+
+// Durable storage of the tree of animals: an append-only write-ahead log of every change,
+// plus a compact binary snapshot of the whole tree (see MappedAnimalTree), taken every few
+// inserts so that older logs can be deleted. On start, the snapshot is memory-mapped (its
+// animals are only loaded when they are first needed), and the logs after it are replayed.
+// Without a directory the store is disabled, and the tree only lives in memory
+@Component
+public class AnimalTreeStore {
+
+    private static final Log log = LogFactory.getLog(AnimalTreeStore.class);
+
+    // When an insert is acknowledged
+    public enum Durability {
+        // Once the log has been forced to disk for this insert alone
+        SYNC,
+        // Once the log has been forced to disk, with one force shared by all the
+        // inserts that were waiting for it at the same time (group commit)
+        GROUP
+    }
+
+    public static final String SNAPSHOT_FILE = "tree.snapshot";
+    public static final String LOG_FILE_PREFIX = "tree-";
+    public static final String LOG_FILE_SUFFIX = ".log";
+
+    // Format of the first snapshots, which are read as a whole on start (and then rewritten)
+    private static final int LEGACY_SNAPSHOT_FORMAT = 1;
+
+    // Every log record is [payload length][CRC32 of the payload][payload], so a record
+    // torn by a crash is detected and ignored (with everything after it) on replay
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte[] EMPTY_RECORD_HEADER = new byte[RECORD_HEADER_SIZE];
+    private static final byte INSERT = 4;
+    private static final byte MOVE = 5;
+    private static final byte DELETE = 6;
+    // The inserts of a bulk insert, in a single record, so a crash never leaves only some of them
+    private static final byte BATCH_INSERT = 7;
+    // Records of the first logs, with the IDs as strings, still replayed
+    private static final byte LEGACY_INSERT = 1;
+    private static final byte LEGACY_MOVE = 2;
+    private static final byte LEGACY_DELETE = 3;
+
+    private final Path directory;
+    private final Durability durability;
+    private final int snapshotInterval;
+
+    // Guards the current log file and the encoding of records into it. Inserts are also applied
+    // to the tree while holding it, so the tree changes in exactly the order of the log, and
+    // once a snapshot has switched to a new log, every older log record is in the tree.
+    // Both locks are held during file I/O by request threads, so they are not monitors: a virtual
+    // thread waiting for a monitor would keep its carrier thread from running other virtual threads
+    private final Lock appendLock = new ReentrantLock();
+    // Held while the log is forced to disk, so waiting inserts share the next force
+    private final Lock forceLock = new ReentrantLock();
+    // Held while a snapshot is taken, so snapshots never overlap
+    private final Object snapshotLock = new Object();
+    // Held by a move or a delete from before it takes the structure lock of the tree until it is logged
+    // (see beginStructureChange), and by the last attempt at a snapshot (see snapshot)
+    private final Lock structureChangeLock = new ReentrantLock();
+
+    // Attempts at a snapshot while animals are moved or deleted, before they are held off for the last one
+    private static final int SNAPSHOT_ATTEMPTS = 3;
+
+    private final RecordBuffer recordBuffer = new RecordBuffer();
+
+    private long generation;
+    private FileChannel logChannel;
+    // Number of bytes ever appended to the logs, and how many of them are known to be on disk
+    private long appendedPosition;
+    private volatile long durablePosition;
+    // Number of moves and deletes ever logged (guarded by appendLock), see snapshot
+    private long structureChanges;
+
+    private List<Animal> animals;
+    // Index of the loaded animals (owned by the caller of load), and the snapshot they are loaded from
+    private AnimalIdIndex animalsById;
+    private MappedAnimalTree mappedTree;
+    private long loadedMaxId;
+
+    private final AtomicLong insertsSinceSnapshot = new AtomicLong();
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+    private ExecutorService snapshotExecutor;
+
+    // Creates a disabled store, which keeps the tree in memory only
+    public AnimalTreeStore() {
+        this(null, Durability.GROUP, Integer.MAX_VALUE);
+    }
+
+    @Autowired
+    public AnimalTreeStore(@Value("${animalkingdom.storage.directory:}") String directory,
+            @Value("${animalkingdom.storage.durability:GROUP}") Durability durability,
+            @Value("${animalkingdom.storage.snapshot-interval:100000}") int snapshotInterval) {
+        this.directory = directory == null || directory.isBlank() ? null : Paths.get(directory);
+        this.durability = durability;
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    // Returns the stored tree (the roots), or null if the store is disabled or empty.
+    // The animals loaded (now, or later on demand) are added to the given index
+    public List<Animal> load(AnimalIdIndex animalsById) {
+        this.animalsById = animalsById;
+        Path snapshotFile = isEnabled() ? directory.resolve(SNAPSHOT_FILE) : null;
+        if (snapshotFile == null || !Files.exists(snapshotFile)) {
+            return null;
+        }
+
+        try {
+            List<Animal> roots;
+            long snapshotGeneration;
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+                if (input.readInt() != MappedAnimalTree.MAGIC) {
+                    throw new IOException("Unknown snapshot format: " + snapshotFile);
+                }
+                int format = input.readInt();
+                if (format == LEGACY_SNAPSHOT_FORMAT) {
+                    snapshotGeneration = input.readLong();
+                    roots = readTree(input);
+                } else {
+                    // Also checks the format
+                    mappedTree = MappedAnimalTree.open(snapshotFile, animalsById);
+                    snapshotGeneration = mappedTree.getGeneration();
+                    loadedMaxId = mappedTree.getMaxId();
+                    roots = mappedTree.loadRoots();
+                }
+            }
+
+            // The snapshot holds everything logged before its generation, and maybe some more
+            long replayed = 0;
+            for (long logGeneration : findLogGenerations()) {
+                if (logGeneration >= snapshotGeneration) {
+                    replayed += replayLog(logFile(logGeneration));
+                }
+            }
+
+            long count = 0;
+            for (Animal root : roots) {
+                count += root.getSubtreeSize();
+            }
+            log.info(String.format("Loaded '%d' animals from '%s' ('%d' replayed from the log).",
+                    count, directory, replayed));
+            return roots;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Returns the highest ID in the loaded tree
+    public long getLoadedMaxId() {
+        return loadedMaxId;
+    }
+
+    // Returns the loaded snapshot, if it was loaded in the mapped format, or null otherwise
+    public MappedAnimalTree getMappedTree() {
+        return mappedTree;
+    }
+
+    // Returns the animal with the given ID if it is in the loaded snapshot but not loaded yet
+    // (loading the animals on the path to it), or null otherwise
+    public Animal findAnimal(long id) {
+        return mappedTree == null ? null : mappedTree.find(id);
+    }
+
+    // Removes every animal of the given subtree (just removed from the tree) from the index of loaded
+    // animals, and marks the ones from the loaded snapshot as removed there, without loading the ones
+    // that are not loaded yet. The label and ID of each removed animal are passed to the given consumer
+    public void forgetSubtree(Animal root, ObjLongConsumer<String> removed) {
+        AnimalTreeTraversal.depthFirst(List.of(root), (animal, depth) -> {
+            long id = animal.getId();
+            animalsById.remove(id);
+            removed.accept(animal.getLabel(), id);
+            if (mappedTree != null && id <= mappedTree.getMaxId()) {
+                mappedTree.remove(id);
+            }
+
+            // A subtree that is not loaded has not changed, so it is still the rows after its root
+            if (animal.getLazyChildren() instanceof MappedAnimalTree.Children lazy) {
+                lazy.getTree().removeDescendants(lazy.getRow(), removed);
+                return AnimalTreeTraversal.Action.SKIP_CHILDREN;
+            }
+            return AnimalTreeTraversal.Action.CONTINUE;
+        });
+    }
+
+    // Starts storing changes to the given tree in a new log. A snapshot of the tree is written first,
+    // unless it was just loaded from a snapshot in the current format (the logs replayed are kept)
+    public void open(List<Animal> animals) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(directory);
+            generation = findLogGenerations().stream().mapToLong(Long::longValue).max().orElse(0);
+            this.animals = animals == null ? List.of() : animals;
+            snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "animal-tree-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (mappedTree != null) {
+                switchLog();
+            } else {
+                snapshot();
+            }
+            log.info(String.format("Storing the tree in '%s' with %s durability.", directory, durability));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Logs the insert of the given (new) animal under the given parent, then applies it to the tree
+    // (before any later insert is logged), and returns the log position to commit
+    public long logInsert(long parentId, Animal animal, Runnable apply) {
+        if (!isEnabled()) {
+            apply.run();
+            return 0;
+        }
+
+        appendLock.lock();
+        try {
+            recordBuffer.reset();
+            writeInsert(animal, parentId);
+            return append(1, apply);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Logs the inserts of the given animals, where the i-th animal is added under the i-th parent,
+    // as a single record (replayed all or nothing), then applies them to the tree, and returns the
+    // log position to commit
+    public long logInserts(long[] parentIds, List<Animal> animals, Runnable apply) {
+        if (!isEnabled()) {
+            apply.run();
+            return 0;
+        }
+
+        appendLock.lock();
+        try {
+            recordBuffer.reset();
+            int start = recordBuffer.startRecord();
+            recordBuffer.write(BATCH_INSERT);
+            recordBuffer.writeInt(animals.size());
+            for (int i = 0; i < animals.size(); i++) {
+                Animal animal = animals.get(i);
+                recordBuffer.writeLong(animal.getId());
+                recordBuffer.writeLong(parentIds[i]);
+                recordBuffer.writeString(animal.getLabel());
+            }
+            recordBuffer.endRecord(start);
+            return append(animals.size(), apply);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // Logs the move of the animal with the given ID under the given (new) parent, then applies it to the
+    // tree, and returns the log position to commit
+    public long logMove(long id, long parentId, Runnable apply) {
+        return logStructureChange(MOVE, id, parentId, apply);
+    }
+
+    // Logs the delete of the animal with the given ID (and its subtree), then applies it to the tree,
+    // and returns the log position to commit
+    public long logDelete(long id, Runnable apply) {
+        return logStructureChange(DELETE, id, Animal.NO_ID, apply);
+    }
+
+    // Called by a move or a delete before it takes the structure lock of the tree, and followed by
+    // endStructureChange once it is logged. Waits while the last attempt at a snapshot holds moves and
+    // deletes off, so that waiting never holds the structure lock (and with it every insert and read of
+    // the tree). The lock order is always this one, then the structure lock
+    public void beginStructureChange() {
+        structureChangeLock.lock();
+    }
+
+    public void endStructureChange() {
+        structureChangeLock.unlock();
+    }
+
+    // Also takes structureChangeLock (again, if beginStructureChange took it already)
+    private long logStructureChange(byte type, long id, long parentId, Runnable apply) {
+        if (!isEnabled()) {
+            apply.run();
+            return 0;
+        }
+
+        structureChangeLock.lock();
+        appendLock.lock();
+        try {
+            recordBuffer.reset();
+            int start = recordBuffer.startRecord();
+            recordBuffer.write(type);
+            recordBuffer.writeLong(id);
+            if (type == MOVE) {
+                recordBuffer.writeLong(parentId);
+            }
+            recordBuffer.endRecord(start);
+            structureChanges++;
+            return append(1, apply);
+        } finally {
+            appendLock.unlock();
+            structureChangeLock.unlock();
+        }
+    }
+
+    // Must be called while holding appendLock
+    private void writeInsert(Animal animal, long parentId) {
+        int start = recordBuffer.startRecord();
+        recordBuffer.write(INSERT);
+        recordBuffer.writeLong(animal.getId());
+        recordBuffer.writeLong(parentId);
+        recordBuffer.writeString(animal.getLabel());
+        recordBuffer.endRecord(start);
+    }
+
+    // Appends the records encoded in the record buffer (for the given number of changes) to the log,
+    // then applies them to the tree, and returns the log position to commit. Must be called while
+    // holding appendLock
+    private long append(int changes, Runnable apply) {
+        try {
+            ByteBuffer bytes = recordBuffer.toByteBuffer();
+            while (bytes.hasRemaining()) {
+                logChannel.write(bytes);
+            }
+            appendedPosition += recordBuffer.size();
+            insertsSinceSnapshot.addAndGet(changes);
+            apply.run();
+
+            if (durability == Durability.SYNC) {
+                logChannel.force(false);
+                durablePosition = appendedPosition;
+            }
+            return appendedPosition;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Waits until the log is on disk up to the given position, and starts a snapshot in the
+    // background once enough inserts have been logged since the last one
+    public void commit(long position) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        if (position > durablePosition) {
+            forceLock.lock();
+            try {
+                // An insert that forced the log while this one waited may have covered it already
+                if (position > durablePosition) {
+                    FileChannel channel;
+                    long target;
+                    appendLock.lock();
+                    try {
+                        channel = logChannel;
+                        target = appendedPosition;
+                    } finally {
+                        appendLock.unlock();
+                    }
+                    try {
+                        channel.force(false);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    durablePosition = target;
+                }
+            } finally {
+                forceLock.unlock();
+            }
+        }
+
+        if (insertsSinceSnapshot.get() >= snapshotInterval && snapshotRunning.compareAndSet(false, true)) {
+            snapshotExecutor.execute(() -> {
+                try {
+                    snapshot();
+                } catch (IOException e) {
+                    log.error(String.format("Failed to write a snapshot of the tree to '%s'.", directory), e);
+                } finally {
+                    snapshotRunning.set(false);
+                }
+            });
+        }
+    }
+
+    // Switches to a new log, writes a snapshot of the tree, and deletes the logs it replaces.
+    // Changes carry on (into the new log) while the snapshot is written. Inserts found in the snapshot
+    // are skipped when the new log is replayed, but a move or a delete while it is written could leave
+    // it with an animal twice or not at all, so the snapshot is then dropped and written again. After a
+    // few attempts, moves and deletes wait for the last one (before they take the structure lock of the
+    // tree, see beginStructureChange, so inserts never do), so that a steady stream of them cannot keep
+    // the logs from ever being replaced
+    public void snapshot() throws IOException {
+        synchronized (snapshotLock) {
+            for (int attempt = 1; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+                if (writeSnapshot()) {
+                    return;
+                }
+            }
+            structureChangeLock.lock();
+            try {
+                writeSnapshot();
+            } finally {
+                structureChangeLock.unlock();
+            }
+        }
+    }
+
+    // Writes a snapshot (see snapshot), and returns false if it was dropped. Must be called while
+    // holding snapshotLock
+    private boolean writeSnapshot() throws IOException {
+        long changesBefore;
+        appendLock.lock();
+        try {
+            changesBefore = structureChanges;
+        } finally {
+            appendLock.unlock();
+        }
+        long snapshotGeneration = switchLog();
+
+        // Written next to the old snapshot, which is only replaced once the new one is on disk
+        Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        Path temporaryFile = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        long count;
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            count = MappedAnimalTree.write(channel, animals, snapshotGeneration);
+            channel.force(true);
+        }
+        appendLock.lock();
+        try {
+            if (structureChanges != changesBefore) {
+                Files.delete(temporaryFile);
+                log.info("Dropped the snapshot of the tree, animals were moved or deleted while it was written.");
+                return false;
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        Files.move(temporaryFile, snapshotFile,
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+
+        for (long logGeneration : findLogGenerations()) {
+            if (logGeneration < snapshotGeneration) {
+                Files.deleteIfExists(logFile(logGeneration));
+            }
+        }
+        log.info(String.format("Wrote a snapshot of '%d' animals to '%s'.", count, snapshotFile));
+        return true;
+    }
+
+    // Forces the current log to disk and starts the next one, and returns its generation
+    private long switchLog() throws IOException {
+        forceLock.lock();
+        try {
+            appendLock.lock();
+            try {
+                if (logChannel != null) {
+                    logChannel.force(false);
+                    logChannel.close();
+                    durablePosition = appendedPosition;
+                }
+                logChannel = FileChannel.open(logFile(++generation),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                insertsSinceSnapshot.set(0);
+                return generation;
+            } finally {
+                appendLock.unlock();
+            }
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdown();
+            snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        forceLock.lock();
+        try {
+            appendLock.lock();
+            try {
+                if (logChannel != null) {
+                    logChannel.force(false);
+                    logChannel.close();
+                    logChannel = null;
+                    durablePosition = appendedPosition;
+                }
+            } finally {
+                appendLock.unlock();
+            }
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    // Reads the animals of a legacy snapshot, written in pre-order as [ID][label][number of children].
+    // The tree is not shared yet, so each animal is linked to its parent as soon as it is read
+    // (setting its depth and jump from the parent's), and its subtree size is only set once its own
+    // subtree is complete, without walking all the ancestors for every animal
+    private List<Animal> readTree(DataInput input) throws IOException {
+        int rootCount = input.readInt();
+        List<Animal> roots = new ArrayList<>(rootCount);
+        Animal[] path = new Animal[16];
+        int[] remainingChildren = new int[16];
+
+        for (int r = 0; r < rootCount; r++) {
+            int depth = 0;
+            do {
+                if (depth > 0) {
+                    remainingChildren[depth - 1]--;
+                }
+                long id = Long.parseLong(readString(input));
+                String label = readString(input);
+                Animal animal = new Animal(id, label);
+                if (depth > 0) {
+                    path[depth - 1].linkChild(animal);
+                    animal.updateAncestry();
+                }
+                animalsById.put(animal);
+                loadedMaxId = Math.max(loadedMaxId, id);
+
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                    remainingChildren = Arrays.copyOf(remainingChildren, depth * 2);
+                }
+                path[depth] = animal;
+                remainingChildren[depth] = input.readInt();
+                depth++;
+
+                while (depth > 0 && remainingChildren[depth - 1] == 0) {
+                    depth--;
+                    path[depth].updateSubtreeSize();
+                    if (depth == 0) {
+                        roots.add(path[depth]);
+                    }
+                    path[depth] = null;
+                }
+            } while (depth > 0);
+        }
+        return roots;
+    }
+
+    // Applies the records of the given log to the tree, up to the first torn or corrupt record,
+    // and returns the number of animals added. Animals already in the tree are skipped
+    private long replayLog(Path file) throws IOException {
+        long replayed = 0;
+        long remaining = Files.size(file);
+        CRC32 crc = new CRC32();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (remaining >= RECORD_HEADER_SIZE) {
+                int length = input.readInt();
+                int checksum = input.readInt();
+                remaining -= RECORD_HEADER_SIZE;
+                if (length <= 0 || length > remaining) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                input.readFully(payload);
+                remaining -= length;
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                byte type = record.readByte();
+                if (type == MOVE || type == DELETE) {
+                    replayStructureChange(type, record.readLong(), type == MOVE ? record.readLong() : Animal.NO_ID,
+                            file);
+                } else if (type == LEGACY_MOVE || type == LEGACY_DELETE) {
+                    replayStructureChange(type == LEGACY_MOVE ? MOVE : DELETE, Long.parseLong(readString(record)),
+                            type == LEGACY_MOVE ? Long.parseLong(readString(record)) : Animal.NO_ID, file);
+                } else if (type == INSERT) {
+                    replayed += replayInsert(record.readLong(), record.readLong(), readString(record), file);
+                } else if (type == BATCH_INSERT) {
+                    for (int i = record.readInt(); i > 0; i--) {
+                        replayed += replayInsert(record.readLong(), record.readLong(), readString(record), file);
+                    }
+                } else if (type == LEGACY_INSERT) {
+                    replayed += replayInsert(Long.parseLong(readString(record)), Long.parseLong(readString(record)),
+                            readString(record), file);
+                }
+            }
+        } catch (EOFException e) {
+            // Torn record at the end of the log
+        }
+        if (remaining > 0) {
+            log.warn(String.format("Ignored '%d' bytes of torn or corrupt records at the end of '%s'.",
+                    remaining, file));
+        }
+        return replayed;
+    }
+
+    // Adds a replayed animal, unless it is in the tree already, and returns the number of animals added
+    private int replayInsert(long id, long parentId, String label, Path file) {
+        Animal parent = getLoadedAnimal(parentId);
+        if (parent == null) {
+            log.warn(String.format("Skipped animal '%d' in '%s', its parent '%d' was not found.", id, file, parentId));
+            return 0;
+        }
+        if (getLoadedAnimal(id) != null) {
+            return 0;
+        }
+        Animal animal = new Animal(id, label);
+        parent.addChild(animal);
+        animalsById.put(animal);
+        loadedMaxId = Math.max(loadedMaxId, id);
+        return 1;
+    }
+
+    // Moves and deletes in a replayed log always come after everything in the snapshot
+    private void replayStructureChange(byte type, long id, long parentId, Path file) {
+        Animal animal = getLoadedAnimal(id);
+        Animal parent = type == MOVE ? getLoadedAnimal(parentId) : null;
+        if (animal == null || animal.getParent() == null || (type == MOVE
+                && (parent == null || parent.getAncestor(animal.getDepth()) == animal))) {
+            log.warn(String.format("Skipped the %s of animal '%d' in '%s'.",
+                    type == MOVE ? "move" : "delete", id, file));
+        } else if (type == MOVE) {
+            animal.moveTo(parent);
+        } else {
+            animal.remove();
+            forgetSubtree(animal, (label, removedId) -> { });
+        }
+    }
+
+    private Animal getLoadedAnimal(long id) {
+        Animal animal = animalsById.get(id);
+        return animal != null ? animal : findAnimal(id);
+    }
+
+    // Makes the rename of the snapshot durable (not supported on every platform)
+    private void forceDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // The rename is still atomic, only its durability is left to the file system
+        }
+    }
+
+    private List<Long> findLogGenerations() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(LOG_FILE_PREFIX) && name.endsWith(LOG_FILE_SUFFIX))
+                    .map(name -> Long.parseLong(
+                            name.substring(LOG_FILE_PREFIX.length(), name.length() - LOG_FILE_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path logFile(long logGeneration) {
+        return directory.resolve(String.format("%s%016d%s", LOG_FILE_PREFIX, logGeneration, LOG_FILE_SUFFIX));
+    }
+
+    private static String readString(DataInput input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Buffer the records of one append are encoded into, reused across appends
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+
+        private final CRC32 crc = new CRC32();
+
+        private ByteBuffer bytes;
+
+        // Reserves the header of a new record, and returns where the record starts
+        int startRecord() {
+            int start = count;
+            write(EMPTY_RECORD_HEADER, 0, RECORD_HEADER_SIZE);
+            return start;
+        }
+
+        // Fills in the header of the record that starts at the given position
+        void endRecord(int start) {
+            int payloadStart = start + RECORD_HEADER_SIZE;
+            crc.reset();
+            crc.update(buf, payloadStart, count - payloadStart);
+            putInt(start, count - payloadStart);
+            putInt(start + 4, (int) crc.getValue());
+        }
+
+        // Writes the length of the given string (-1 for null) and its UTF-8 bytes. Most labels are ASCII,
+        // whose bytes are copied straight into the buffer, without encoding them into a new array
+        void writeString(String value) {
+            if (value == null) {
+                writeInt(-1);
+                return;
+            }
+            int length = value.length();
+            for (int i = 0; i < length; i++) {
+                if (value.charAt(i) >= 0x80) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    writeInt(bytes.length);
+                    write(bytes, 0, bytes.length);
+                    return;
+                }
+            }
+
+            writeInt(length);
+            ensureCapacity(count + length);
+            for (int i = 0; i < length; i++) {
+                buf[count + i] = (byte) value.charAt(i);
+            }
+            count += length;
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(count + 4);
+            putInt(count, value);
+            count += 4;
+        }
+
+        // Big-endian, like DataInput.readInt
+        private void putInt(int offset, int value) {
+            buf[offset] = (byte) (value >>> 24);
+            buf[offset + 1] = (byte) (value >>> 16);
+            buf[offset + 2] = (byte) (value >>> 8);
+            buf[offset + 3] = (byte) value;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(capacity, buf.length * 2));
+            }
+        }
+
+        // Returns the bytes written so far, through a view that is reused until the buffer grows
+        ByteBuffer toByteBuffer() {
+            if (bytes == null || bytes.array() != buf) {
+                bytes = ByteBuffer.wrap(buf);
+            }
+            bytes.clear().limit(count);
+            return bytes;
+        }
+
+    }
+
+}
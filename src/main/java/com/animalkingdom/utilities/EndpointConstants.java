@@ -7,5 +7,21 @@ public class EndpointConstants {
 
     public static final String API = "/api";
     public static final String TREE = "/tree";
+    public static final String TREE_BY_ID = "/tree/{id}";
+    public static final String TREE_BULK = "/tree/bulk";
+    public static final String TREE_SEARCH = "/tree/search";
+    public static final String TREE_PATH = "/tree/{id}/path";
+    public static final String TREE_COMMON_ANCESTOR = "/tree/lca";
+    public static final String TREE_PARENT = "/tree/{id}/parent";
+    public static final String TREE_STATISTICS = "/tree/stats";
+    public static final String TREE_CHANGES = "/tree/changes";
+    public static final String TREE_CHANGES_STREAM = "/tree/changes/stream";
+
+    // Prefix of the endpoints of the tree of a tenant, e.g. /api/tenants/{tenant}/tree
+    public static final String TENANTS = "/tenants";
+    public static final String TENANT = "/tenants/{tenant}";
+
+    public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+    public static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
 
 }
@@ -15,5 +15,30 @@ public class ErrorMessages {
 
     public static final String ANIMAL_NOT_CREATED = "Animal not created.";
     public static final String ANIMAL_NOT_CREATED_WITH_ID = "Animal not created with ID: ";
+    public static final String ANIMAL_PARENT_MODIFIED = "Animal not created, the subtree of the parent has changed since it was read.";
+
+    public static final String ANIMAL_NOT_FOUND = "Animal not found.";
+    public static final String ANIMAL_IDS_REQUIRED = "At least one animal ID is required.";
+    public static final String NO_COMMON_ANCESTOR = "Animals have no common ancestor.";
+    public static final String ROOT_CANNOT_BE_MOVED_OR_DELETED = "The root of a tree cannot be moved or deleted.";
+    public static final String ANIMAL_CANNOT_BE_MOVED_UNDER_ITSELF = "Animal cannot be moved under itself or its own descendants.";
+
+    public static final String ANIMALS_REQUIRED = "At least one animal is required.";
+    public static final String ANIMALS_NOT_CREATED_AT_INDEX = "Animals not created, invalid animal at index:";
+    public static final String INVALID_DEPTH = "Depth must be zero or greater.";
+    public static final String INVALID_PAGE = "Offset must be zero or greater and limit must be greater than zero.";
+    public static final String SEARCH_QUERY_REQUIRED = "Search query is required.";
+    public static final String INVALID_SEARCH_LIMIT = "Limit must be between 1 and 1000.";
+    public static final String INVALID_LABEL_LIMIT = "Label limit must be between 1 and 1000.";
+    public static final String CHANGES_VERSION_REQUIRED = "A valid version to get the changes since is required (as \"<epoch>-<version>\").";
+    public static final String CHANGES_NOT_AVAILABLE = "Changes since this version are no longer available, reload the tree.";
+
+    public static final String TENANT_NOT_FOUND = "Tenant not found.";
+    public static final String INVALID_TENANT = "Tenant must be 1 to 63 lower case letters, digits, '-' or '_'.";
+    public static final String TENANT_LIMIT_REACHED = "Tenant not created, the maximum number of tenants has been reached.";
+
+    public static final String INVALID_IMPORT_LINE = "Animals not imported, invalid animal at line:";
+    public static final String DUPLICATE_IMPORT_ID = "Animals not imported, duplicate animal ID at line:";
+    public static final String IMPORT_CYCLE = "Animals not imported, cycle of parents at line:";
 
 }
@@ -0,0 +1,535 @@
+package com.animalkingdom.utilities;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
+
+import com.animalkingdom.model.Animal;
+import com.animalkingdom.model.AnimalTreeTraversal;
+import com.animalkingdom.model.LazyChildren;
+
+// A snapshot of the tree in a binary file laid out to be memory-mapped: a fixed-size row for every
+// animal (in pre-order, so the subtree of an animal is the rows right after its own), a table of the
+// distinct labels, and an index of the rows sorted by ID.
+// Opening it only reads the header and the labels. Animals are turned into Animal objects one level
+// at a time, the first time the children of their parent are needed, so a large tree can be served
+// right after startup instead of being rebuilt as a whole first
+public class MappedAnimalTree {
+
+    public static final int MAGIC = 0x414B5453; // "AKTS"
+    public static final int FORMAT = 2;
+
+    // Magic, format, generation, number of rows, of roots and of labels, highest ID, offset of the
+    // labels and offset of the ID index. The rows start right after the header
+    private static final int HEADER_SIZE = 64;
+
+    // Row of an animal: ID, label number, number of children, size of its subtree, row of its parent
+    private static final int ROW_SIZE = 24;
+    private static final int ROW_ID = 0;
+    private static final int ROW_LABEL = 8;
+    private static final int ROW_CHILD_COUNT = 12;
+    private static final int ROW_SUBTREE_SIZE = 16;
+    private static final int ROW_PARENT = 20;
+
+    // Entry of the ID index: ID, row
+    private static final int INDEX_ENTRY_SIZE = 12;
+
+    // A single mapping is limited to 2 GB, so the rows and the index are mapped in chunks
+    private static final int CHUNK_SHIFT = 24;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    // Number of rows buffered while writing, see TreeWriter
+    private static final int WRITE_WINDOW_ROWS = 1 << 16;
+
+    private final AnimalIdIndex animalsById;
+    private final long generation;
+    private final int rowCount;
+    private final int rootCount;
+    private final long maxId;
+    private final String[] labels;
+    private final ByteBuffer[] rows;
+    private final ByteBuffer[] idIndex;
+
+    // Rows of the animals removed from the tree since the snapshot was loaded (null until one is)
+    private volatile BitSet removedRows;
+
+    private MappedAnimalTree(AnimalIdIndex animalsById, long generation, int rowCount, int rootCount,
+            long maxId, String[] labels, ByteBuffer[] rows, ByteBuffer[] idIndex) {
+        this.animalsById = animalsById;
+        this.generation = generation;
+        this.rowCount = rowCount;
+        this.rootCount = rootCount;
+        this.maxId = maxId;
+        this.labels = labels;
+        this.rows = rows;
+        this.idIndex = idIndex;
+    }
+
+    // Maps the given file. Every animal that gets loaded is added to the given index
+    public static MappedAnimalTree open(Path file, AnimalIdIndex animalsById) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT) {
+                throw new IOException("Unknown snapshot format: " + file);
+            }
+            long generation = header.getLong();
+            int rowCount = header.getInt();
+            int rootCount = header.getInt();
+            int labelCount = header.getInt();
+            long maxId = header.getLong();
+            long labelsOffset = header.getLong();
+            long idIndexOffset = header.getLong();
+
+            // Labels are decoded (and interned) once, however many animals share them
+            ByteBuffer labelBytes = channel.map(FileChannel.MapMode.READ_ONLY, labelsOffset,
+                    idIndexOffset - labelsOffset);
+            String[] labels = new String[labelCount];
+            for (int i = 0; i < labelCount; i++) {
+                byte[] bytes = new byte[labelBytes.getInt()];
+                labelBytes.get(bytes);
+                labels[i] = new String(bytes, StandardCharsets.UTF_8).intern();
+            }
+
+            // The mappings stay valid once the channel is closed
+            return new MappedAnimalTree(animalsById, generation, rowCount, rootCount, maxId, labels,
+                    map(channel, HEADER_SIZE, rowCount, ROW_SIZE),
+                    map(channel, idIndexOffset, rowCount, INDEX_ENTRY_SIZE));
+        }
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long getMaxId() {
+        return maxId;
+    }
+
+    // Creates the root animals (their children are loaded lazily) and adds them to the index
+    public List<Animal> loadRoots() {
+        List<Animal> roots = new ArrayList<>(rootCount);
+        for (int row = 0; roots.size() < rootCount; row += getSubtreeSize(row)) {
+            roots.add(createAnimal(row));
+        }
+        return roots;
+    }
+
+    // Returns the animal with the given ID, loading the animals on the path to it that are not
+    // loaded yet, or null if it is not in this snapshot or has been removed from the tree since
+    public Animal find(long id) {
+        int row = findRow(id);
+        if (row < 0) {
+            return null;
+        }
+
+        // Walk up to the closest ancestor that is loaded already...
+        int[] path = new int[16];
+        int depth = 0;
+        Animal animal;
+        while ((animal = animalsById.get(getId(row))) == null) {
+            if (depth == path.length) {
+                path = Arrays.copyOf(path, depth * 2);
+            }
+            path[depth++] = row;
+            row = getParent(row);
+            if (row < 0) {
+                return null;
+            }
+        }
+
+        // ...then load the children one level at a time down to the animal
+        while (depth > 0) {
+            animal.getChildren();
+            animal = animalsById.get(getId(path[--depth]));
+            if (animal == null) {
+                return null;
+            }
+        }
+        return animal;
+    }
+
+    public long getId(int row) {
+        return rows[row >>> CHUNK_SHIFT].getLong((row & CHUNK_MASK) * ROW_SIZE + ROW_ID);
+    }
+
+    public String getLabel(int row) {
+        int label = rows[row >>> CHUNK_SHIFT].getInt((row & CHUNK_MASK) * ROW_SIZE + ROW_LABEL);
+        return label < 0 ? null : labels[label];
+    }
+
+    public int getChildCount(int row) {
+        return rows[row >>> CHUNK_SHIFT].getInt((row & CHUNK_MASK) * ROW_SIZE + ROW_CHILD_COUNT);
+    }
+
+    public int getSubtreeSize(int row) {
+        return rows[row >>> CHUNK_SHIFT].getInt((row & CHUNK_MASK) * ROW_SIZE + ROW_SUBTREE_SIZE);
+    }
+
+    public int getParent(int row) {
+        return rows[row >>> CHUNK_SHIFT].getInt((row & CHUNK_MASK) * ROW_SIZE + ROW_PARENT);
+    }
+
+    // Returns true if the animal of the given row has been removed from the tree
+    public boolean isRemoved(int row) {
+        BitSet removed = removedRows;
+        return removed != null && removed.get(row);
+    }
+
+    // Returns the height of the subtree of the given row (0 for a leaf), without the animals that have
+    // been removed, by scanning its rows in pre-order (without loading them)
+    public int getHeight(int row) {
+        // End row of the subtree of every animal on the path from the given row to the current one
+        int[] ends = new int[16];
+        int depth = 0;
+        int height = 0;
+        int end = row + getSubtreeSize(row);
+        for (int descendant = row + 1; descendant < end;) {
+            while (depth > 0 && ends[depth - 1] <= descendant) {
+                depth--;
+            }
+            int descendantEnd = descendant + getSubtreeSize(descendant);
+            if (isRemoved(descendant)) {
+                descendant = descendantEnd; // Its whole subtree has been removed with it
+                continue;
+            }
+            if (depth == ends.length) {
+                ends = Arrays.copyOf(ends, depth * 2);
+            }
+            ends[depth++] = descendantEnd;
+            height = Math.max(height, depth);
+            descendant++;
+        }
+        return height;
+    }
+
+    // Marks the animal with the given ID (a loaded one) as removed from the tree, if it is in this snapshot
+    public synchronized void remove(long id) {
+        int row = findRow(id);
+        if (row >= 0) {
+            getRemovedRows().set(row);
+        }
+    }
+
+    // Marks every descendant of the animal of the given row (none of them loaded) as removed from the
+    // tree, without loading them, and passes the label and ID of each one to the given consumer
+    public synchronized void removeDescendants(int row, ObjLongConsumer<String> removed) {
+        int end = row + getSubtreeSize(row);
+        getRemovedRows().set(row + 1, end);
+        for (int descendant = row + 1; descendant < end; descendant++) {
+            removed.accept(getLabel(descendant), getId(descendant));
+        }
+    }
+
+    // Writes the given tree in this format to the given (empty) file, and returns the number of
+    // animals written. Subtrees that are still lazily loaded from a mapped tree are copied from it
+    public static long write(FileChannel channel, List<Animal> roots, long generation) throws IOException {
+        TreeWriter writer = new TreeWriter(channel);
+        writer.writeTree(roots);
+        writer.finish(generation);
+        return writer.rowCount;
+    }
+
+    // Binary search of the ID index
+    private int findRow(long id) {
+        int low = 0;
+        int high = rowCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            ByteBuffer chunk = idIndex[middle >>> CHUNK_SHIFT];
+            int offset = (middle & CHUNK_MASK) * INDEX_ENTRY_SIZE;
+            long middleId = chunk.getLong(offset);
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return chunk.getInt(offset + Long.BYTES);
+            }
+        }
+        return -1;
+    }
+
+    private BitSet getRemovedRows() {
+        if (removedRows == null) {
+            removedRows = new BitSet(rowCount);
+        }
+        return removedRows;
+    }
+
+    private Animal createAnimal(int row) {
+        Animal animal = new Animal(getId(row), getLabel(row), getSubtreeSize(row),
+                getChildCount(row) > 0 ? new Children(row) : null);
+        animalsById.put(animal);
+        return animal;
+    }
+
+    private static ByteBuffer[] map(FileChannel channel, long offset, int count, int entrySize) throws IOException {
+        int chunkCount = (int) (((long) count + CHUNK_MASK) >>> CHUNK_SHIFT);
+        ByteBuffer[] chunks = new ByteBuffer[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            long first = (long) c << CHUNK_SHIFT;
+            long entries = Math.min(count - first, 1L << CHUNK_SHIFT);
+            chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, offset + first * entrySize, entries * entrySize);
+        }
+        return chunks;
+    }
+
+    // The children of the animal of a row, which are the rows following it, each one after
+    // the subtree of the previous one
+    public final class Children implements LazyChildren {
+
+        private final int row;
+
+        private Children(int row) {
+            this.row = row;
+        }
+
+        public MappedAnimalTree getTree() {
+            return MappedAnimalTree.this;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        @Override
+        public Animal[] load(Animal parent) {
+            Animal[] children = new Animal[getChildCount(row)];
+            int child = row + 1;
+            for (int i = 0; i < children.length; i++) {
+                children[i] = createAnimal(child);
+                child += getSubtreeSize(child);
+            }
+            return children;
+        }
+
+    }
+
+    // Writes the rows through a window of the most recent rows. The size of a subtree is only
+    // known once all of it is written, so it is filled in afterwards: in the window if the row is
+    // still there (the case for most animals), or in the file otherwise
+    private static final class TreeWriter {
+
+        private final FileChannel channel;
+        private final ByteBuffer window = ByteBuffer.allocate(WRITE_WINDOW_ROWS * ROW_SIZE);
+        private int windowStart;
+        private int rowCount;
+        private int rootCount;
+        private long maxId = Long.MIN_VALUE;
+
+        private final Map<String, Integer> labelNumbers = new HashMap<>();
+        private final List<String> labels = new ArrayList<>();
+        private final Map<MappedAnimalTree, int[]> copiedLabelNumbers = new IdentityHashMap<>();
+
+        // ID of every row, to build the ID index
+        private long[] ids = new long[1024];
+        private int[] idRows = new int[1024];
+
+        private TreeWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        // Writes the animals in pre-order, iteratively (to be safe on deep trees)
+        private void writeTree(List<Animal> roots) throws IOException {
+            AnimalTreeTraversal.depthFirst(roots, new AnimalTreeTraversal.Visitor<IOException>() {
+
+                // Row of the animal at each open depth, or -1 for a copied subtree
+                private int[] openRows = new int[16];
+
+                // The children read by enter, so the count written matches the children written
+                private List<Animal> children;
+
+                @Override
+                public AnimalTreeTraversal.Action enter(Animal animal, int depth) throws IOException {
+                    int parentRow = depth > 0 ? openRows[depth - 1] : -1;
+                    if (parentRow < 0) {
+                        rootCount++;
+                    }
+                    if (depth == openRows.length) {
+                        openRows = Arrays.copyOf(openRows, depth * 2);
+                    }
+
+                    // A subtree that is not loaded has not changed, so its rows are copied as they are
+                    if (animal.getLazyChildren() instanceof Children lazy) {
+                        copySubtree(animal, lazy.getTree(), lazy.getRow(), parentRow);
+                        openRows[depth] = -1;
+                        return AnimalTreeTraversal.Action.SKIP_CHILDREN;
+                    }
+
+                    children = animal.getChildren();
+                    openRows[depth] = addRow(animal.getId(), labelNumber(animal.getLabel()),
+                            children.size(), 1, parentRow);
+                    return AnimalTreeTraversal.Action.CONTINUE;
+                }
+
+                @Override
+                public List<Animal> children(Animal animal, int depth) {
+                    return children;
+                }
+
+                @Override
+                public AnimalTreeTraversal.Action leave(Animal animal, int depth) throws IOException {
+                    int row = openRows[depth];
+                    if (row >= 0 && rowCount - row > 1) {
+                        setSubtreeSize(row, rowCount - row);
+                    }
+                    return AnimalTreeTraversal.Action.CONTINUE;
+                }
+
+            });
+        }
+
+        private void copySubtree(Animal animal, MappedAnimalTree tree, int treeRow, int parentRow)
+                throws IOException {
+            int size = tree.getSubtreeSize(treeRow);
+            int row = addRow(animal.getId(), labelNumber(animal.getLabel()),
+                    tree.getChildCount(treeRow), size, parentRow);
+
+            int[] labelNumbers = copiedLabelNumbers.computeIfAbsent(tree, t -> {
+                int[] numbers = new int[t.labels.length];
+                Arrays.fill(numbers, -1);
+                return numbers;
+            });
+            for (int i = 1; i < size; i++) {
+                int copied = treeRow + i;
+                int label = tree.rows[copied >>> CHUNK_SHIFT].getInt((copied & CHUNK_MASK) * ROW_SIZE + ROW_LABEL);
+                if (label >= 0 && labelNumbers[label] < 0) {
+                    labelNumbers[label] = labelNumber(tree.labels[label]);
+                }
+                addRow(tree.getId(copied), label < 0 ? -1 : labelNumbers[label], tree.getChildCount(copied),
+                        tree.getSubtreeSize(copied), tree.getParent(copied) - treeRow + row);
+            }
+        }
+
+        private int addRow(long id, int label, int childCount, int subtreeSize, int parentRow) throws IOException {
+            if (!window.hasRemaining()) {
+                flushWindow();
+            }
+            window.putLong(id).putInt(label).putInt(childCount).putInt(subtreeSize).putInt(parentRow);
+
+            if (rowCount == ids.length) {
+                ids = Arrays.copyOf(ids, rowCount + (rowCount >> 1));
+                idRows = Arrays.copyOf(idRows, ids.length);
+            }
+            ids[rowCount] = id;
+            idRows[rowCount] = rowCount;
+            maxId = Math.max(maxId, id);
+            return rowCount++;
+        }
+
+        private void setSubtreeSize(int row, int subtreeSize) throws IOException {
+            if (row >= windowStart) {
+                window.putInt((row - windowStart) * ROW_SIZE + ROW_SUBTREE_SIZE, subtreeSize);
+            } else {
+                ByteBuffer value = ByteBuffer.allocate(Integer.BYTES).putInt(0, subtreeSize);
+                channel.write(value, HEADER_SIZE + (long) row * ROW_SIZE + ROW_SUBTREE_SIZE);
+            }
+        }
+
+        private void flushWindow() throws IOException {
+            window.flip();
+            long position = HEADER_SIZE + (long) windowStart * ROW_SIZE;
+            while (window.hasRemaining()) {
+                position += channel.write(window, position);
+            }
+            window.clear();
+            windowStart = rowCount;
+        }
+
+        private int labelNumber(String label) {
+            if (label == null) {
+                return -1;
+            }
+            return labelNumbers.computeIfAbsent(label, l -> {
+                labels.add(l);
+                return labels.size() - 1;
+            });
+        }
+
+        // Writes the labels and the ID index after the rows, then the header
+        private void finish(long generation) throws IOException {
+            flushWindow();
+
+            long labelsOffset = HEADER_SIZE + (long) rowCount * ROW_SIZE;
+            channel.position(labelsOffset);
+            DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            for (String label : labels) {
+                byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+            long idIndexOffset = labelsOffset + output.size();
+
+            sortIdsAndRows();
+            for (int i = 0; i < rowCount; i++) {
+                output.writeLong(ids[i]);
+                output.writeInt(idRows[i]);
+            }
+            output.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT).putLong(generation)
+                    .putInt(rowCount).putInt(rootCount).putInt(labels.size())
+                    .putLong(rowCount == 0 ? 0 : maxId).putLong(labelsOffset).putLong(idIndexOffset);
+            header.clear();
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+        }
+
+        // Sorts the IDs (and their rows along with them) with a radix sort, 16 bits at a time
+        private void sortIdsAndRows() {
+            long[] sortedIds = new long[rowCount];
+            int[] sortedRows = new int[rowCount];
+            int[] counts = new int[(1 << 16) + 1];
+            for (int shift = 0; shift < Long.SIZE; shift += 16) {
+                Arrays.fill(counts, 0);
+                for (int i = 0; i < rowCount; i++) {
+                    counts[digit(ids[i], shift) + 1]++;
+                }
+                for (int d = 1; d < counts.length; d++) {
+                    counts[d] += counts[d - 1];
+                }
+                for (int i = 0; i < rowCount; i++) {
+                    int target = counts[digit(ids[i], shift)]++;
+                    sortedIds[target] = ids[i];
+                    sortedRows[target] = idRows[i];
+                }
+
+                long[] swapIds = ids;
+                ids = sortedIds;
+                sortedIds = swapIds;
+                int[] swapRows = idRows;
+                idRows = sortedRows;
+                sortedRows = swapRows;
+            }
+        }
+
+        // Flips the sign bit, so that negative IDs sort before positive ones
+        private static int digit(long id, int shift) {
+            return (int) (((id ^ Long.MIN_VALUE) >>> shift) & 0xFFFF);
+        }
+
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.animalkingdom.utilities;
+
+// Approximate sizes of objects on the heap, for accounting of the memory of a tree, on a 64-bit JVM with
+// compressed references (the default for heaps up to 32 GB): objects have a 12 byte header (16 bytes
+// for arrays, with the length) and are aligned to 8 bytes
+public final class MemorySizes {
+
+    public static final int REFERENCE = 4;
+
+    private MemorySizes() {
+    }
+
+    // Returns the size of an array of the given length, with elements of the given size
+    public static long array(int length, int elementSize) {
+        return align(16 + (long) length * elementSize);
+    }
+
+    // Returns the size of a (Latin-1) string of the given length, with its array of bytes
+    public static long string(int length) {
+        return 24 + array(length, Byte.BYTES);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+}
@@ -1,13 +1,11 @@
 package com.animalkingdom.utilities;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
 import java.util.List;
-import java.util.Map;
 
 import org.springframework.stereotype.Component;
 
 import com.animalkingdom.model.Animal;
+import com.animalkingdom.model.AnimalTreeTraversal;
 
 // Utility class for operations on the tree data set of Animals
 @Component
@@ -16,67 +14,25 @@ public class Utilities {
     public Utilities() {
     }
 
-    // Searches the tree for an Animal whose map key matches the given animal ID
-    public Animal findParentbyAnimalId(List<Map<String, Animal>> animals, String animalId) {
-        for (Map<String, Animal> map : animals) {
-            for (Map.Entry<String, Animal> entry : map.entrySet()) {
-                String id = entry.getKey();
-                Animal animal = entry.getValue();
-
-                if (id.equals(animalId)) {
-                    return animal; // Found a match
-                }
-
-                // Recurse into the children (if present)
-                if (animal.getChildren() != null && !animal.getChildren().isEmpty()) {
-                    Animal parent = findParentbyAnimalId(animal.getChildren(), animalId);
-                    if (parent != null) {
-                        return parent;
-                    }
-                }
-            }
-        }
-        return null; // Not
+    // Searches the tree (in pre-order, iteratively) for an Animal whose ID matches the given animal ID
+    public Animal findParentbyAnimalId(List<Animal> animals, long animalId) {
+        return AnimalTreeTraversal.find(animals, animal -> animal.getId() == animalId);
     }
 
     // Performs a DFS on the given tree to find the highest ID among all nodes.
     // Returns that ID + 1 as a new ID
-    public String createId(List<Map<String, Animal>> animals) {
-        int maxId = 0;
-        Deque<List<Map<String, Animal>>> deque = new ArrayDeque<>();
-        deque.push(animals);
-
-        while (!deque.isEmpty()) {
-            List<Map<String, Animal>> listOfAnimals = deque.pop();
-            for (Map<String, Animal> map : listOfAnimals) {
-                for (Map.Entry<String, Animal> entry : map.entrySet()) {
-                    int id = Integer.parseInt(entry.getKey());
-                    maxId = Math.max(maxId, id);
-
-                    // Push the children of the current Animal (if any)
-                    Animal animal = entry.getValue();
-                    if (animal.getChildren() != null && !animal.getChildren().isEmpty()) {
-                        deque.push(animal.getChildren());
-                    }
-                }
-            }
-        }
-        return String.valueOf(maxId + 1); // New Animal ID
+    public long createId(List<Animal> animals) {
+        long[] maxId = new long[1];
+        AnimalTreeTraversal.depthFirst(animals, (animal, depth) -> {
+            maxId[0] = Math.max(maxId[0], animal.getId());
+            return AnimalTreeTraversal.Action.CONTINUE;
+        });
+        return maxId[0] + 1; // New Animal ID
     }
 
-    // Recursively counts how many Animal nodes are in the tree data set
-    public int countAnimals(List<Map<String, Animal>> animals) {
-        int count = 0;
-        for (Map<String, Animal> map : animals) {
-            for (Animal animal : map.values()) {
-                count++; // Count the current animal
-                // Recurse into the animal's children (if any)
-                if (animal.getChildren() != null && !animal.getChildren().isEmpty()) {
-                    count += countAnimals(animal.getChildren());
-                }
-            }
-        }
-        return count;
+    // Counts how many Animal nodes are in the tree data set (iteratively, so any depth is safe)
+    public int countAnimals(List<Animal> animals) {
+        return AnimalTreeTraversal.count(animals);
     }
 
 }
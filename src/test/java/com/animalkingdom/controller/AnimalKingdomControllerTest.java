@@ -1,25 +1,49 @@
 package com.animalkingdom.controller;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import com.fasterxml.jackson.core.JsonGenerator;
 
 import com.animalkingdom.model.Animal;
 import com.animalkingdom.service.AnimalKingdomService;
+import com.animalkingdom.service.AnimalKingdomTenants;
+import com.animalkingdom.service.AnimalTreeChange;
+import com.animalkingdom.service.AnimalTreeChangeFeed;
+import com.animalkingdom.service.AnimalTreeSnapshot;
+import com.animalkingdom.utilities.AnimalTreeJsonWriter;
+import com.animalkingdom.utilities.AnimalTreeStatistics;
 import com.animalkingdom.utilities.EndpointConstants;
 import com.animalkingdom.utilities.ErrorMessages;
 
@@ -34,18 +58,20 @@ public class AnimalKingdomControllerTest {
         @MockBean
         private AnimalKingdomService animalKingdomService;
 
+        @MockBean
+        private AnimalKingdomTenants animalKingdomTenants;
+
         // GET /api/tree
         @Test
         public void getAnimals_ShouldReturnAnimals_WhenDataExists() throws Exception {
-                Animal root = new Animal("root");
-                Animal dog = new Animal("dog");
-                root.getChildren().add(Map.of("2", dog));
+                Animal root = new Animal(1, "root");
+                Animal dog = new Animal(2, "dog");
+                root.addChild(dog);
 
-                final List<Map<String, Animal>> animals = List.of(Map.of("1", root));
-                when(animalKingdomService.getAnimals()).thenReturn(animals);
+                final List<Animal> animals = List.of(root);
+                stubTree(animals);
 
-                ResultActions response = mockMvc.perform(get(URL)
-                                .accept(MediaType.APPLICATION_JSON_VALUE));
+                ResultActions response = performStreamingGet(URL);
 
                 response.andExpect(status().isOk())
                                 .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
@@ -73,20 +99,19 @@ public class AnimalKingdomControllerTest {
 
         @Test
         public void getAnimals_ShouldReturnNestedChildren() throws Exception {
-                Animal root = new Animal("root");
-                Animal lion = new Animal("lion");
-                Animal tiger = new Animal("tiger");
-                Animal cat = new Animal("cat"); // Grandchild
+                Animal root = new Animal(1, "root");
+                Animal lion = new Animal(2, "lion");
+                Animal tiger = new Animal(4, "tiger");
+                Animal cat = new Animal(3, "cat"); // Grandchild
 
-                lion.getChildren().add(Map.of("3", cat));
-                root.getChildren().add(Map.of("2", lion));
-                root.getChildren().add(Map.of("4", tiger));
+                lion.addChild(cat);
+                root.addChild(lion);
+                root.addChild(tiger);
 
-                List<Map<String, Animal>> animals = List.of(Map.of("1", root));
-                Mockito.when(animalKingdomService.getAnimals()).thenReturn(animals);
+                List<Animal> animals = List.of(root);
+                stubTree(animals);
 
-                ResultActions response = mockMvc.perform(get(URL)
-                                .accept(MediaType.APPLICATION_JSON_VALUE));
+                ResultActions response = performStreamingGet(URL);
 
                 response.andExpect(status().isOk())
                                 .andExpect(jsonPath("$.animals[0]['1'].label").value("root"))
@@ -98,16 +123,15 @@ public class AnimalKingdomControllerTest {
 
         @Test
         public void getAnimals_ShouldHandleLargeDataSet() throws Exception {
-                Animal root = new Animal("root");
+                Animal root = new Animal(1, "root");
                 for (int i = 1; i <= 1000; i++) {
-                        root.getChildren().add(Map.of(String.valueOf(i), new Animal("cat" + i)));
+                        root.addChild(new Animal(i, "cat" + i));
                 }
 
-                List<Map<String, Animal>> animals = List.of(Map.of("1", root));
-                Mockito.when(animalKingdomService.getAnimals()).thenReturn(animals);
+                List<Animal> animals = List.of(root);
+                stubTree(animals);
 
-                ResultActions response = mockMvc.perform(get(URL)
-                                .accept(MediaType.APPLICATION_JSON_VALUE));
+                ResultActions response = performStreamingGet(URL);
 
                 response.andExpect(status().isOk())
                                 .andExpect(jsonPath("$.animals[0]['1'].label").value("root"))
@@ -115,17 +139,357 @@ public class AnimalKingdomControllerTest {
                                 .andExpect(jsonPath("$.animals[0]['1'].children.length()").value(1000));
         }
 
+        @Test
+        public void getAnimals_ShouldStreamDeepChainOfAnimals() throws Exception {
+                Animal root = new Animal(1, "root");
+                Animal parent = root;
+                for (int i = 2; i <= 5000; i++) {
+                        Animal child = new Animal(i, "animal" + i);
+                        parent.addChild(child);
+                        parent = child;
+                }
+
+                List<Animal> animals = List.of(root);
+                stubTree(animals);
+
+                String json = performStreamingGet(URL)
+                                .andExpect(status().isOk())
+                                .andReturn().getResponse().getContentAsString();
+
+                assertTrue(json.startsWith("{\"animals\":[{\"1\":{\"label\":\"root\",\"children\":[{\"2\":"));
+                assertTrue(json.contains("{\"5000\":{\"label\":\"animal5000\",\"children\":[]}}"));
+                assertTrue(json.endsWith("]}}]}"));
+        }
+
+        @Test
+        public void getAnimals_ShouldServeSnapshotWithETag() throws Exception {
+                byte[] json = "{\"animals\":[{\"1\":{\"label\":\"root\",\"children\":[]}}]}"
+                                .getBytes(StandardCharsets.UTF_8);
+                Mockito.when(animalKingdomService.getTreeSnapshot())
+                                .thenReturn(new AnimalTreeSnapshot("e", 3, json, new byte[] { 1, 2, 3 }));
+
+                performStreamingGet(get(URL).accept(MediaType.APPLICATION_JSON_VALUE))
+                                .andExpect(status().isOk())
+                                .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
+                                .andExpect(header().string(HttpHeaders.ETAG, "\"e-3\""))
+                                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                                .andExpect(jsonPath("$.animals[0]['1'].label").value("root"));
+        }
+
+        @Test
+        public void getAnimals_ShouldServeGzipSnapshot_WhenClientAcceptsGzip() throws Exception {
+                byte[] gzipJson = new byte[] { 31, -117, 8, 0 };
+                Mockito.when(animalKingdomService.getTreeSnapshot())
+                                .thenReturn(new AnimalTreeSnapshot("e", 3, new byte[] { '{', '}' }, gzipJson));
+
+                byte[] body = performStreamingGet(get(URL)
+                                .accept(MediaType.APPLICATION_JSON_VALUE)
+                                .header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                                .andExpect(status().isOk())
+                                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                                .andExpect(header().string(HttpHeaders.ETAG, "\"e-3-gzip\""))
+                                .andReturn().getResponse().getContentAsByteArray();
+
+                assertArrayEquals(gzipJson, body);
+        }
+
+        @Test
+        public void getAnimals_ShouldReturnNotModified_WhenClientHasCurrentVersion() throws Exception {
+                Mockito.when(animalKingdomService.getTreeSnapshot())
+                                .thenReturn(new AnimalTreeSnapshot("e", 3, new byte[] { '{', '}' }, null));
+
+                mockMvc.perform(get(URL)
+                                .accept(MediaType.APPLICATION_JSON_VALUE)
+                                .header(HttpHeaders.IF_NONE_MATCH, "\"e-2\", \"e-3\""))
+                                .andExpect(status().isNotModified())
+                                .andExpect(header().string(HttpHeaders.ETAG, "\"e-3\""))
+                                .andExpect(content().string(""));
+
+                performStreamingGet(get(URL)
+                                .accept(MediaType.APPLICATION_JSON_VALUE)
+                                .header(HttpHeaders.IF_NONE_MATCH, "\"e-2\""))
+                                .andExpect(status().isOk())
+                                .andExpect(content().string("{}"));
+
+                // The same version before a restart (another start time) is another tree
+                performStreamingGet(get(URL)
+                                .accept(MediaType.APPLICATION_JSON_VALUE)
+                                .header(HttpHeaders.IF_NONE_MATCH, "\"d-3\""))
+                                .andExpect(status().isOk())
+                                .andExpect(content().string("{}"));
+        }
+
+        // GET /api/tree/{id}
+        @Test
+        public void getAnimal_ShouldReturnSubtree_WhenAnimalExists() throws Exception {
+                Animal lion = new Animal(2, "lion");
+                Animal cub = new Animal(3, "cub");
+                lion.addChild(cub);
+                Mockito.when(animalKingdomService.getAnimal(2)).thenReturn(lion);
+                Mockito.when(animalKingdomService.getETag(lion)).thenReturn("\"e-1\"");
+
+                performStreamingGet(URL + "/2")
+                                .andExpect(status().isOk())
+                                .andExpect(content().contentType(MediaType.APPLICATION_JSON_VALUE))
+                                .andExpect(header().string(EndpointConstants.TOTAL_COUNT_HEADER, "1"))
+                                .andExpect(header().string(HttpHeaders.ETAG, "\"e-1\""))
+                                .andExpect(jsonPath("$.animals.length()").value(1))
+                                .andExpect(jsonPath("$.animals[0]['2'].label").value("lion"))
+                                .andExpect(jsonPath("$.animals[0]['2'].children[0]['3'].label").value("cub"));
+        }
+
+        @Test
+        public void getAnimal_ShouldLimitDepth() throws Exception {
+                Animal root = new Animal(1, "root");
+                Animal lion = new Animal(2, "lion");
+                Animal cub = new Animal(3, "cub");
+                lion.addChild(cub);
+                root.addChild(lion);
+                Mockito.when(animalKingdomService.getAnimal(1)).thenReturn(root);
+
+                performStreamingGet(URL + "/1?depth=1")
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.animals[0]['1'].children[0]['2'].label").value("lion"))
+                                .andExpect(jsonPath("$.animals[0]['1'].children[0]['2'].children").isEmpty());
+
+                performStreamingGet(URL + "/1?depth=0")
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.animals[0]['1'].label").value("root"))
+                                .andExpect(jsonPath("$.animals[0]['1'].children").isEmpty());
+        }
+
+        @Test
+        public void getAnimal_ShouldPageChildren() throws Exception {
+                Animal root = new Animal(1, "root");
+                for (int i = 2; i <= 11; i++) {
+                        root.addChild(new Animal(i, "cat" + i));
+                }
+                Mockito.when(animalKingdomService.getAnimal(1)).thenReturn(root);
+
+                performStreamingGet(URL + "/1?offset=3&limit=4")
+                                .andExpect(status().isOk())
+                                .andExpect(header().string(EndpointConstants.TOTAL_COUNT_HEADER, "10"))
+                                .andExpect(jsonPath("$.animals[0]['1'].children.length()").value(4))
+                                .andExpect(jsonPath("$.animals[0]['1'].children[0]['5'].label").value("cat5"))
+                                .andExpect(jsonPath("$.animals[0]['1'].children[3]['8'].label").value("cat8"));
+
+                performStreamingGet(URL + "/1?offset=20")
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.animals[0]['1'].children").isEmpty());
+        }
+
+        @Test
+        public void getAnimal_ShouldReturnNotFound_WhenAnimalDoesNotExist() throws Exception {
+                Mockito.when(animalKingdomService.getAnimal(999)).thenReturn(null);
+
+                mockMvc.perform(get(URL + "/999")
+                                .accept(MediaType.APPLICATION_JSON_VALUE))
+                                .andExpect(status().isNotFound());
+                mockMvc.perform(get(URL + "/cat") // Not a number, so no animal has it
+                                .accept(MediaType.APPLICATION_JSON_VALUE))
+                                .andExpect(status().isNotFound());
+        }
+
+        @Test
+        public void getAnimal_ShouldReturnBadRequest_ForInvalidDepthOrPage() throws Exception {
+                mockMvc.perform(get(URL + "/1?depth=-1"))
+                                .andExpect(status().isBadRequest())
+                                .andExpect(content().string(ErrorMessages.INVALID_DEPTH));
+
+                mockMvc.perform(get(URL + "/1?offset=-1"))
+                                .andExpect(status().isBadRequest())
+                                .andExpect(content().string(ErrorMessages.INVALID_PAGE));
+
+                mockMvc.perform(get(URL + "/1?limit=0"))
+                                .andExpect(status().isBadRequest())
+                                .andExpect(content().string(ErrorMessages.INVALID_PAGE));
+        }
+
+        // GET /api/tree/search
+        @Test
+        public void searchAnimals_ShouldReturnMatchesWithTheirPath() throws Exception {
+                Animal root = new Animal(1, "root");
+                Animal cat = new Animal(2, "cat");
+                Animal kitten = new Animal(3, "cat kitten");
+                root.addChild(cat);
+                cat.addChild(kitten);
+                Mockito.when(animalKingdomService.searchAnimals("ca", 2))
+                                .thenReturn(new long[] { 2, 3 });
+                Mockito.when(animalKingdomService.getAncestorPath(2)).thenReturn(List.of(root, cat));
+                Mockito.when(animalKingdomService.getAncestorPath(3)).thenReturn(List.of(root, cat, kitten));
+
+                mockMvc.perform(get(URL + "/search?q=ca&limit=2"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.length()").value(2))
+                                .andExpect(jsonPath("$[0].animalId").value("2"))
+                                .andExpect(jsonPath("$[0].label").value("cat"))
+                                .andExpect(jsonPath("$[0].path.length()").value(2))
+                                .andExpect(jsonPath("$[0].path[0]").value("1"))
+                                .andExpect(jsonPath("$[0].path[1]").value("2"))
+                                .andExpect(jsonPath("$[1].path.length()").value(3))
+                                .andExpect(jsonPath("$[1].path[2]").value("3"));
+        }
+
+        @Test
+        public void searchAnimals_ShouldReturnBadRequest_ForMissingQueryOrInvalidLimit() throws Exception {
+                mockMvc.perform(get(URL + "/search?q= "))
+                                .andExpect(status().isBadRequest())
+                                .andExpect(content().string(ErrorMessages.SEARCH_QUERY_REQUIRED));
+
+                mockMvc.perform(get(URL + "/search?q=cat&limit=1001"))
+                                .andExpect(status().isBadRequest())
+                                .andExpect(content().string(ErrorMessages.INVALID_SEARCH_LIMIT));
+        }
+
+        // GET /api/tree/stats
+        @Test
+        public void getTreeStatistics_ShouldReturnAggregates() throws Exception {
+                AnimalTreeStatistics statistics = Mockito.mock(AnimalTreeStatistics.class);
+                Mockito.when(statistics.getAnimalCount()).thenReturn(3L);
+                Mockito.when(statistics.getMaxDepth()).thenReturn(1);
+                Mockito.when(statistics.getAnimalsByDepth()).thenReturn(new long[] { 1, 2 });
+                Mockito.when(statistics.getAnimalsByChildCount()).thenReturn(new TreeMap<>(Map.of(0, 2L, 2, 1L)));
+                Mockito.when(statistics.getLabelCount()).thenReturn(2);
+                Mockito.when(statistics.getTopLabels(1)).thenReturn(Map.of("cat", 2L));
+                Mockito.when(animalKingdomService.getTreeStatistics()).thenReturn(statistics);
+
+                mockMvc.perform(get(URL + "/stats?limit=1"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.animalCount").value(3))
+                                .andExpect(jsonPath("$.maxDepth").value(1))
+                                .andExpect(jsonPath("$.animalsByDepth[1]").value(2))
+                                .andExpect(jsonPath("$.animalsByChildCount.2").value(1))
+                                .andExpect(jsonPath("$.labelCount").value(2))
+                                .andExpect(jsonPath("$.topLabels.cat").value(2));
+
+                mockMvc.perform(get(URL + "/stats?limit=0"))
+                                .andExpect(status().isBadRequest())
+                                .andExpect(content().string(ErrorMessages.INVALID_LABEL_LIMIT));
+        }
+
+        // GET /api/tree/{id}/path
+        @Test
+        public void getAncestorPath_ShouldReturnAnimalsFromTheRoot() throws Exception {
+                Animal root = new Animal(1, "root");
+                Animal bear = new Animal(3, "bear");
+                root.addChild(bear);
+                Mockito.when(animalKingdomService.getAncestorPath(3)).thenReturn(List.of(root, bear));
+
+                mockMvc.perform(get(URL + "/3/path"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.length()").value(2))
+                                .andExpect(jsonPath("$[0].animalId").value("1"))
+                                .andExpect(jsonPath("$[0].parent").doesNotExist())
+                                .andExpect(jsonPath("$[1].animalId").value("3"))
+                                .andExpect(jsonPath("$[1].label").value("bear"))
+                                .andExpect(jsonPath("$[1].parent").value("1"));
+
+                Mockito.when(animalKingdomService.getAncestorPath(999)).thenReturn(null);
+                mockMvc.perform(get(URL + "/999/path"))
+                                .andExpect(status().isNotFound())
+                                .andExpect(content().string(ErrorMessages.ANIMAL_NOT_FOUND));
+        }
+
+        // GET /api/tree/lca
+        @Test
+        public void getCommonAncestor_ShouldReturnTheDeepestCommonAncestor() throws Exception {
+                Animal bear = new Animal(3, "bear");
+                Animal cat = new Animal(4, "cat");
+                Animal dog = new Animal(5, "dog");
+                bear.addChild(cat);
+                bear.addChild(dog);
+                Mockito.when(animalKingdomService.getAnimal(4)).thenReturn(cat);
+                Mockito.when(animalKingdomService.getAnimal(5)).thenReturn(dog);
+                Mockito.when(animalKingdomService.getAnimal(8)).thenReturn(new Animal(8, "owl"));
+                Mockito.when(animalKingdomService.getCommonAncestor(4, 5)).thenReturn(bear);
+
+                mockMvc.perform(get(URL + "/lca?ids=4,5"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.animalId").value("3"))
+                                .andExpect(jsonPath("$.label").value("bear"));
+
+                mockMvc.perform(get(URL + "/lca?ids=4,8"))
+                                .andExpect(status().isNotFound())
+                                .andExpect(content().string(ErrorMessages.NO_COMMON_ANCESTOR));
+
+                mockMvc.perform(get(URL + "/lca?ids=4,999"))
+                                .andExpect(status().isNotFound())
+                                .andExpect(content().string(ErrorMessages.ANIMAL_NOT_FOUND));
+
+                mockMvc.perform(get(URL + "/lca"))
+                                .andExpect(status().isBadRequest())
+                                .andExpect(content().string(ErrorMessages.ANIMAL_IDS_REQUIRED));
+        }
+
+        // PUT /api/tree/{id}/parent
+        @Test
+        public void moveAnimal_ShouldReturnTheAnimalUnderItsNewParent() throws Exception {
+                Animal cat = new Animal(5, "cat");
+                Animal wolf = new Animal(3, "wolf");
+                cat.addChild(wolf);
+                Mockito.when(animalKingdomService.moveAnimal(3, 5)).thenReturn(wolf);
+                Mockito.when(animalKingdomService.moveAnimal(5, 4))
+                                .thenThrow(new IllegalArgumentException(ErrorMessages.ANIMAL_CANNOT_BE_MOVED_UNDER_ITSELF));
+
+                mockMvc.perform(put(URL + "/3/parent")
+                                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                                .content("{\"parent\": \"5\"}"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.animalId").value("3"))
+                                .andExpect(jsonPath("$.label").value("wolf"))
+                                .andExpect(jsonPath("$.parent").value("5"));
+
+                mockMvc.perform(put(URL + "/5/parent")
+                                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                                .content("{\"parent\": \"4\"}"))
+                                .andExpect(status().isBadRequest())
+                                .andExpect(content().string(ErrorMessages.ANIMAL_CANNOT_BE_MOVED_UNDER_ITSELF));
+
+                mockMvc.perform(put(URL + "/999/parent")
+                                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                                .content("{\"parent\": \"5\"}"))
+                                .andExpect(status().isNotFound())
+                                .andExpect(content().string(ErrorMessages.ANIMAL_NOT_FOUND));
+
+                mockMvc.perform(put(URL + "/3/parent")
+                                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                                .content("{}"))
+                                .andExpect(status().isBadRequest())
+                                .andExpect(content().string(ErrorMessages.ANIMAL_PARENT_NOT_FOUND));
+        }
+
+        // DELETE /api/tree/{id}
+        @Test
+        public void deleteAnimal_ShouldReturnTheNumberOfDeletedAnimals() throws Exception {
+                Mockito.when(animalKingdomService.deleteAnimal(3)).thenReturn(2);
+                Mockito.when(animalKingdomService.deleteAnimal(1))
+                                .thenThrow(new IllegalArgumentException(ErrorMessages.ROOT_CANNOT_BE_MOVED_OR_DELETED));
+
+                mockMvc.perform(delete(URL + "/3"))
+                                .andExpect(status().isNoContent())
+                                .andExpect(header().string(EndpointConstants.TOTAL_COUNT_HEADER, "2"));
+
+                mockMvc.perform(delete(URL + "/1"))
+                                .andExpect(status().isBadRequest())
+                                .andExpect(content().string(ErrorMessages.ROOT_CANNOT_BE_MOVED_OR_DELETED));
+
+                mockMvc.perform(delete(URL + "/999"))
+                                .andExpect(status().isNotFound())
+                                .andExpect(content().string(ErrorMessages.ANIMAL_NOT_FOUND));
+        }
+
         // POST /api/tree
         @Test
         public void addAnimal_ShouldReturnCreated_WhenAnimalIsAddedSuccessfully() throws Exception {
-                String newAnimalId = "3";
+                long newAnimalId = 3;
                 final String requestBody = """
                                 {
                                     "parent": "1",
                                     "label": "cat"
                                 }
                                 """;
-                Mockito.when(animalKingdomService.addAnimal(eq("1"), eq("cat"))).thenReturn(newAnimalId);
+                Mockito.when(animalKingdomService.addAnimal(eq(1L), eq("cat"), eq(Animal.ANY_VERSION))).thenReturn(newAnimalId);
 
                 ResultActions response = mockMvc.perform(post(URL)
                                 .contentType(MediaType.APPLICATION_JSON_VALUE)
@@ -138,6 +502,46 @@ public class AnimalKingdomControllerTest {
                                 .andExpect(jsonPath("$.parent").value("1"));
         }
 
+        @Test
+        public void addAnimal_ShouldReturnPreconditionFailed_WhenParentSubtreeChanged() throws Exception {
+                final String requestBody = """
+                                {
+                                    "parent": "1",
+                                    "label": "cat"
+                                }
+                                """;
+                Mockito.when(animalKingdomService.parseETags("\"e-3\", \"e-4\"")).thenReturn(new long[] { 3, 4 });
+                Mockito.when(animalKingdomService.addAnimal(eq(1L), eq("cat"), aryEq(new long[] { 3, 4 })))
+                                .thenThrow(new ConcurrentModificationException(ErrorMessages.ANIMAL_PARENT_MODIFIED));
+
+                mockMvc.perform(post(URL)
+                                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                                .header(HttpHeaders.IF_MATCH, "\"e-3\", \"e-4\"")
+                                .content(requestBody))
+                                .andExpect(status().isPreconditionFailed())
+                                .andExpect(content().string(ErrorMessages.ANIMAL_PARENT_MODIFIED));
+        }
+
+        @Test
+        public void addAnimal_ShouldReturnCreated_WhenIfMatchIsAnyAndParentExists() throws Exception {
+                final String requestBody = """
+                                {
+                                    "parent": "1",
+                                    "label": "cat"
+                                }
+                                """;
+                Mockito.when(animalKingdomService.parseETags("*")).thenReturn(new long[] { Animal.ANY_VERSION });
+                Mockito.when(animalKingdomService.addAnimal(eq(1L), eq("cat"), aryEq(new long[] { Animal.ANY_VERSION })))
+                                .thenReturn(3L);
+
+                mockMvc.perform(post(URL)
+                                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                                .header(HttpHeaders.IF_MATCH, "*")
+                                .content(requestBody))
+                                .andExpect(status().isCreated())
+                                .andExpect(jsonPath("$.animalId").value("3"));
+        }
+
         @Test
         public void addAnimal_ShouldReturnBadRequest_WhenParentIdIsMissing() throws Exception {
                 final String requestBody = """
@@ -170,7 +574,7 @@ public class AnimalKingdomControllerTest {
 
         @Test
         public void addAnimal_ShouldReturnBadRequest_WhenServiceFailsToAddAnimal() throws Exception {
-                Mockito.when(animalKingdomService.addAnimal(eq("1"), eq("lion"))).thenReturn(null);
+                Mockito.when(animalKingdomService.addAnimal(eq(1L), eq("lion"), eq(Animal.ANY_VERSION))).thenReturn(Animal.NO_ID);
 
                 final String requestBody = """
                                 {
@@ -217,4 +621,224 @@ public class AnimalKingdomControllerTest {
                                 .andExpect(content().string(ErrorMessages.ANIMAL_LABEL_REQUIRED));
         }
 
-}
\ No newline at end of file
+        // POST /api/tree/bulk
+        @Test
+        public void addAnimals_ShouldReturnCreatedAnimalsInOrder() throws Exception {
+                final String requestBody = """
+                                [
+                                    { "parent": "1", "label": "bird" },
+                                    { "parent": "@0", "label": "eagle" }
+                                ]
+                                """;
+                Mockito.when(animalKingdomService.addAnimals(List.of("1", "@0"), List.of("bird", "eagle")))
+                                .thenReturn(new long[] { 8, 9 });
+                Mockito.when(animalKingdomService.getParentId(8)).thenReturn(1L);
+                Mockito.when(animalKingdomService.getParentId(9)).thenReturn(8L);
+
+                mockMvc.perform(post(URL + "/bulk")
+                                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                                .content(requestBody))
+                                .andExpect(status().isCreated())
+                                .andExpect(jsonPath("$.length()").value(2))
+                                .andExpect(jsonPath("$[0].animalId").value("8"))
+                                .andExpect(jsonPath("$[0].label").value("bird"))
+                                .andExpect(jsonPath("$[0].parent").value("1"))
+                                .andExpect(jsonPath("$[1].animalId").value("9"))
+                                .andExpect(jsonPath("$[1].label").value("eagle"))
+                                .andExpect(jsonPath("$[1].parent").value("8"));
+        }
+
+        @Test
+        public void addAnimals_ShouldReturnBadRequest_WhenBatchIsInvalid() throws Exception {
+                String errorMessage = ErrorMessages.ANIMALS_NOT_CREATED_AT_INDEX + " 1";
+                Mockito.when(animalKingdomService.addAnimals(anyList(), anyList()))
+                                .thenThrow(new IllegalArgumentException(errorMessage));
+
+                mockMvc.perform(post(URL + "/bulk")
+                                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                                .content("[{ \"parent\": \"1\", \"label\": \"bird\" }, { \"parent\": \"999\" }]"))
+                                .andExpect(status().isBadRequest())
+                                .andExpect(content().string(errorMessage));
+        }
+
+        @Test
+        public void addAnimals_ShouldReturnBadRequest_ForInvalidJson() throws Exception {
+                mockMvc.perform(post(URL + "/bulk")
+                                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                                .content("{ \"parent\": \"1\" }"))
+                                .andExpect(status().isBadRequest());
+        }
+
+        // GET /api/tree/changes
+        @Test
+        public void getChanges_ShouldReturnChangesSinceVersion() throws Exception {
+                stubVersionTokens(animalKingdomService);
+                when(animalKingdomService.getChangesSince(41)).thenReturn(List.of(
+                                new AnimalTreeChange(42, AnimalTreeChange.Type.ADDED, 8, "bird", 1),
+                                new AnimalTreeChange(43, AnimalTreeChange.Type.MOVED, 8, "bird", 2)));
+                when(animalKingdomService.getChangesSince(43)).thenReturn(List.of());
+
+                mockMvc.perform(get(URL + "/changes").param("since", "e-41"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.version").value("e-43"))
+                                .andExpect(jsonPath("$.changes.length()").value(2))
+                                .andExpect(jsonPath("$.changes[0].version").value("e-42"))
+                                .andExpect(jsonPath("$.changes[0].type").value("ADDED"))
+                                .andExpect(jsonPath("$.changes[0].animalId").value("8"))
+                                .andExpect(jsonPath("$.changes[0].label").value("bird"))
+                                .andExpect(jsonPath("$.changes[0].parent").value("1"))
+                                .andExpect(jsonPath("$.changes[1].type").value("MOVED"))
+                                .andExpect(jsonPath("$.changes[1].parent").value("2"));
+
+                mockMvc.perform(get(URL + "/changes").param("since", "e-43"))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.version").value("e-43"))
+                                .andExpect(jsonPath("$.changes.length()").value(0));
+        }
+
+        @Test
+        public void getChanges_ShouldReturnGone_WhenChangesAreNoLongerKept_OrFromBeforeARestart() throws Exception {
+                stubVersionTokens(animalKingdomService);
+                when(animalKingdomService.getChangesSince(1)).thenReturn(null);
+                when(animalKingdomService.getChangesSince(AnimalTreeChangeFeed.UNKNOWN_VERSION)).thenReturn(null);
+
+                mockMvc.perform(get(URL + "/changes").param("since", "e-1"))
+                                .andExpect(status().isGone())
+                                .andExpect(content().string(ErrorMessages.CHANGES_NOT_AVAILABLE));
+
+                mockMvc.perform(get(URL + "/changes").param("since", "d-1"))
+                                .andExpect(status().isGone());
+
+                mockMvc.perform(get(URL + "/changes"))
+                                .andExpect(status().isBadRequest())
+                                .andExpect(content().string(ErrorMessages.CHANGES_VERSION_REQUIRED));
+
+                mockMvc.perform(get(URL + "/changes").param("since", "41"))
+                                .andExpect(status().isBadRequest())
+                                .andExpect(content().string(ErrorMessages.CHANGES_VERSION_REQUIRED));
+        }
+
+        // GET /api/tree/changes/stream
+        @Test
+        public void streamChanges_ShouldSendChangesAsEvents_FromLastEventId() throws Exception {
+                stubVersionTokens(animalKingdomService);
+                AnimalTreeChangeFeed.Subscription subscription = Mockito.mock(AnimalTreeChangeFeed.Subscription.class);
+                ArgumentCaptor<AnimalTreeChangeFeed.Listener> listener =
+                                ArgumentCaptor.forClass(AnimalTreeChangeFeed.Listener.class);
+                when(animalKingdomService.subscribeToChanges(eq(42L), listener.capture())).thenReturn(subscription);
+
+                MvcResult result = mockMvc.perform(get(URL + "/changes/stream").param("since", "e-7")
+                                .header(EndpointConstants.LAST_EVENT_ID_HEADER, "e-42"))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+                listener.getValue().onChange(new AnimalTreeChange(43, AnimalTreeChange.Type.DELETED, 8, "bird", 1));
+                listener.getValue().onReset(50);
+
+                String body = result.getResponse().getContentAsString();
+                assertTrue(body.contains("id:e-43\nevent:DELETED\ndata:{\"version\":\"e-43\",\"type\":\"DELETED\","
+                                + "\"animalId\":\"8\",\"label\":\"bird\",\"parent\":\"1\"}\n\n"), body);
+                assertTrue(body.contains("event:reset\ndata:e-50\n\n"), body);
+                mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+                Mockito.verify(subscription).cancel();
+        }
+
+        @Test
+        public void streamChanges_ShouldEnd_WhenFeedIsClosed() throws Exception {
+                AnimalTreeChangeFeed.Subscription subscription = Mockito.mock(AnimalTreeChangeFeed.Subscription.class);
+                ArgumentCaptor<AnimalTreeChangeFeed.Listener> listener =
+                                ArgumentCaptor.forClass(AnimalTreeChangeFeed.Listener.class);
+                when(animalKingdomService.getTreeVersion()).thenReturn(42L);
+                when(animalKingdomService.subscribeToChanges(eq(42L), listener.capture())).thenReturn(subscription);
+
+                MvcResult result = mockMvc.perform(get(URL + "/changes/stream"))
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+                listener.getValue().onClose();
+
+                mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+                Mockito.verify(subscription).cancel();
+        }
+
+        // /api/tenants/{tenant}/tree
+        @Test
+        public void addAnimal_ShouldAddToTreeOfTenant() throws Exception {
+                AnimalKingdomService acme = Mockito.mock(AnimalKingdomService.class);
+                when(animalKingdomTenants.getOrCreateShard("acme")).thenReturn(acme);
+                when(acme.addAnimal(eq(1L), eq("cat"), eq(Animal.ANY_VERSION))).thenReturn(2L);
+
+                mockMvc.perform(post(EndpointConstants.API + "/tenants/acme" + EndpointConstants.TREE)
+                                .contentType(MediaType.APPLICATION_JSON_VALUE)
+                                .content("{\"parent\": \"1\", \"label\": \"cat\"}"))
+                                .andExpect(status().isCreated())
+                                .andExpect(jsonPath("$.animalId").value("2"));
+                Mockito.verify(animalKingdomService, Mockito.never()).addAnimal(anyLong(), anyString(), anyLong());
+        }
+
+        @Test
+        public void getAnimal_ShouldReturnNotFound_WhenTenantDoesNotExist() throws Exception {
+                mockMvc.perform(get(EndpointConstants.API + "/tenants/nobody" + EndpointConstants.TREE + "/1"))
+                                .andExpect(status().isNotFound())
+                                .andExpect(content().string(ErrorMessages.TENANT_NOT_FOUND));
+                Mockito.verify(animalKingdomTenants).getShard("nobody");
+        }
+
+        // GET /api/tenants
+        @Test
+        public void getTenants_ShouldReturnEveryTenantWithItsMemory() throws Exception {
+                AnimalKingdomService acme = Mockito.mock(AnimalKingdomService.class);
+                when(acme.getAnimalCount()).thenReturn(3L);
+                when(acme.getRetainedSize()).thenReturn(1024L);
+                TreeMap<String, AnimalKingdomService> shards = new TreeMap<>();
+                shards.put("acme", acme);
+                shards.put("stored", null);
+                when(animalKingdomTenants.getShards()).thenReturn(shards);
+
+                mockMvc.perform(get(EndpointConstants.API + EndpointConstants.TENANTS))
+                                .andExpect(status().isOk())
+                                .andExpect(jsonPath("$.length()").value(2))
+                                .andExpect(jsonPath("$[0].tenant").value("acme"))
+                                .andExpect(jsonPath("$[0].loaded").value(true))
+                                .andExpect(jsonPath("$[0].animalCount").value(3))
+                                .andExpect(jsonPath("$[0].retainedBytes").value(1024))
+                                .andExpect(jsonPath("$[1].tenant").value("stored"))
+                                .andExpect(jsonPath("$[1].loaded").value(false));
+        }
+
+        // GET /api/tree streams its body, so the response is only complete after the async dispatch
+        private ResultActions performStreamingGet(String url) throws Exception {
+                return performStreamingGet(get(url).accept(MediaType.APPLICATION_JSON_VALUE));
+        }
+
+        private ResultActions performStreamingGet(MockHttpServletRequestBuilder request) throws Exception {
+                MvcResult result = mockMvc.perform(request)
+                                .andExpect(request().asyncStarted())
+                                .andReturn();
+                return mockMvc.perform(asyncDispatch(result));
+        }
+
+        // The tree of the service, written as the service would (without the snapshot cache)
+        private void stubTree(List<Animal> animals) throws IOException {
+                when(animalKingdomService.getAnimals()).thenReturn(animals);
+                Mockito.doAnswer(invocation -> {
+                        AnimalTreeJsonWriter writer = new AnimalTreeJsonWriter();
+                        try (JsonGenerator generator = writer.createGenerator(invocation.getArgument(0, OutputStream.class))) {
+                                writer.writeAnimals(animals, generator);
+                        }
+                        return null;
+                }).when(animalKingdomService).writeTree(any(OutputStream.class));
+        }
+
+        // Tokens of the versions of the tree as "e-<version>", where any other epoch is from before a restart
+        private static void stubVersionTokens(AnimalKingdomService service) {
+                when(service.getVersionToken(anyLong())).thenAnswer(invocation -> "e-" + invocation.getArgument(0));
+                when(service.parseVersionToken(anyString())).thenAnswer(invocation -> {
+                        String token = invocation.getArgument(0);
+                        if (!token.matches("[a-z]+-[0-9]+")) {
+                                throw new IllegalArgumentException(ErrorMessages.CHANGES_VERSION_REQUIRED);
+                        }
+                        return token.startsWith("e-") ? Long.parseLong(token.substring(2))
+                                        : AnimalTreeChangeFeed.UNKNOWN_VERSION;
+                });
+        }
+
+}
@@ -0,0 +1,158 @@
+package com.animalkingdom.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.animalkingdom.controller.dto.GetAnimalsResponse;
+import com.animalkingdom.utilities.AnimalTreeJsonWriter;
+import com.animalkingdom.utilities.Utilities;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class AnimalTreeTraversalTest {
+
+    // Far deeper than any recursive walk (or Jackson's default nesting limit) can go
+    private static final int MILLION = 1_000_000;
+
+    @Test
+    public void depthFirst_ShouldCallEnterAndLeaveInPreAndPostOrder() {
+        List<String> events = new ArrayList<>();
+        boolean completed = AnimalTreeTraversal.depthFirst(createTree(), new AnimalTreeTraversal.Visitor<RuntimeException>() {
+
+            @Override
+            public AnimalTreeTraversal.Action enter(Animal animal, int depth) {
+                events.add("+" + animal.getId() + "@" + depth);
+                return AnimalTreeTraversal.Action.CONTINUE;
+            }
+
+            @Override
+            public AnimalTreeTraversal.Action leave(Animal animal, int depth) {
+                events.add("-" + animal.getId());
+                return AnimalTreeTraversal.Action.CONTINUE;
+            }
+
+        });
+
+        assertTrue(completed);
+        assertEquals(List.of("+1@0", "+2@1", "-2", "+3@1", "+4@2", "-4", "+5@2", "+6@3", "-6", "-5", "-3",
+                "+7@1", "-7", "-1", "+8@0", "-8"), events);
+    }
+
+    @Test
+    public void depthFirst_ShouldSkipChildrenAndStop() {
+        List<Long> entered = new ArrayList<>();
+        boolean completed = AnimalTreeTraversal.depthFirst(createTree(), (animal, depth) -> {
+            entered.add(animal.getId());
+            if (animal.getId() == 3) {
+                return AnimalTreeTraversal.Action.SKIP_CHILDREN;
+            }
+            return animal.getId() == 7 ? AnimalTreeTraversal.Action.STOP : AnimalTreeTraversal.Action.CONTINUE;
+        });
+
+        assertFalse(completed);
+        assertEquals(List.of(1L, 2L, 3L, 7L), entered);
+    }
+
+    @Test
+    public void breadthFirst_ShouldVisitLevelByLevel() {
+        List<String> entered = new ArrayList<>();
+        boolean completed = AnimalTreeTraversal.breadthFirst(createTree(), (animal, depth) -> {
+            entered.add(animal.getId() + "@" + depth);
+            return animal.getId() == 5 ? AnimalTreeTraversal.Action.STOP : AnimalTreeTraversal.Action.CONTINUE;
+        });
+
+        assertFalse(completed);
+        assertEquals(List.of("1@0", "8@0", "2@1", "3@1", "7@1", "4@2", "5@2"), entered);
+    }
+
+    @Test
+    public void traversals_ShouldNotOverflow_OnMillionDeepChain() {
+        List<Animal> roots = createChain(MILLION);
+        Animal last = roots.get(0);
+        while (last.getChildCount() > 0) {
+            last = last.getChildren().get(0);
+        }
+
+        int[] maxDepth = new int[2];
+        assertTrue(AnimalTreeTraversal.depthFirst(roots, new AnimalTreeTraversal.Visitor<RuntimeException>() {
+
+            @Override
+            public AnimalTreeTraversal.Action enter(Animal animal, int depth) {
+                maxDepth[0] = Math.max(maxDepth[0], depth);
+                return AnimalTreeTraversal.Action.CONTINUE;
+            }
+
+            @Override
+            public AnimalTreeTraversal.Action leave(Animal animal, int depth) {
+                animal.updateSubtreeSize(); // Bottom-up, so every child is done before its parent
+                return AnimalTreeTraversal.Action.CONTINUE;
+            }
+
+        }));
+        assertTrue(AnimalTreeTraversal.breadthFirst(roots, (animal, depth) -> {
+            maxDepth[1] = Math.max(maxDepth[1], depth);
+            return AnimalTreeTraversal.Action.CONTINUE;
+        }));
+
+        assertEquals(MILLION - 1, maxDepth[0]);
+        assertEquals(MILLION - 1, maxDepth[1]);
+        assertEquals(MILLION, roots.get(0).getSubtreeSize());
+        assertEquals(MILLION, AnimalTreeTraversal.count(roots));
+        assertSame(last, AnimalTreeTraversal.find(roots, animal -> animal.getId() == MILLION));
+        assertNull(AnimalTreeTraversal.find(roots, animal -> animal.getId() == 0));
+
+        Utilities utilities = new Utilities();
+        assertEquals(MILLION, utilities.countAnimals(roots));
+        assertSame(last, utilities.findParentbyAnimalId(roots, MILLION));
+        assertEquals(MILLION + 1, utilities.createId(roots));
+    }
+
+    @Test
+    public void serialization_ShouldNotOverflow_OnDeepChain() throws Exception {
+        final int length = 100_000;
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.getFactory().setStreamWriteConstraints(AnimalTreeJsonWriter.DEEP_TREE_CONSTRAINTS);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        objectMapper.writeValue(output, new GetAnimalsResponse(createChain(length)));
+
+        String json = output.toString();
+        assertTrue(json.startsWith("{\"animals\":[{\"1\":{\"label\":\"animal\",\"children\":[{\"2\":"));
+        assertTrue(json.endsWith("{\"" + length + "\":{\"label\":\"animal\",\"children\":[]}}" + "]}}".repeat(length - 1) + "]}"));
+    }
+
+    // 1 -> 2 (ant), 3 (bear) -> 4 (cat), 5 (dog) -> 6 (elephant), 7 (frog); and a second root 8 (owl)
+    private static List<Animal> createTree() {
+        Animal root = new Animal(1, "root");
+        Animal bear = new Animal(3, "bear");
+        Animal dog = new Animal(5, "dog");
+        dog.addChild(new Animal(6, "elephant"));
+        bear.addChild(new Animal(4, "cat"));
+        bear.addChild(dog);
+        root.addChild(new Animal(2, "ant"));
+        root.addChild(bear);
+        root.addChild(new Animal(7, "frog"));
+        return List.of(root, new Animal(8, "owl"));
+    }
+
+    // A single chain of the given number of animals (IDs 1 to length), linked without walking the ancestors
+    private static List<Animal> createChain(int length) {
+        Animal root = new Animal(1, "animal");
+        Animal animal = root;
+        for (int id = 2; id <= length; id++) {
+            Animal child = new Animal(id, "animal");
+            animal.linkChild(child);
+            animal = child;
+        }
+        return List.of(root);
+    }
+
+}
@@ -1,65 +1,99 @@
 package com.animalkingdom.service;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.List;
-import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.animalkingdom.controller.dto.GetAnimalsResponse;
 import com.animalkingdom.model.Animal;
 import com.animalkingdom.utilities.AnimalTreeDataLoader;
+import com.animalkingdom.utilities.AnimalTreeStatistics;
+import com.animalkingdom.utilities.AnimalTreeStore;
+import com.animalkingdom.utilities.ErrorMessages;
 import com.animalkingdom.utilities.Utilities;
 
-@SpringBootTest
+@SpringBootTest(properties = "animalkingdom.storage.directory=")
 public class AnimalKingdomServiceTest {
 
     private AnimalKingdomService animalKingdomService;
     private AnimalTreeDataLoader animalTreeDataLoader;
     private Utilities utilities;
+    private AnimalTreeStore animalTreeStore;
 
-    private List<Map<String, Animal>> animals;
+    private static final String BATCH_REFERENCE = AnimalKingdomService.BATCH_REFERENCE_PREFIX;
+
+    private List<Animal> animals;
 
     @BeforeEach
     public void setUp() {
         animalTreeDataLoader = mock(AnimalTreeDataLoader.class);
         utilities = mock(Utilities.class);
+        animalTreeStore = new AnimalTreeStore(); // In memory only
 
-        Animal root = new Animal("root");
-        Animal dog = new Animal("dog");
-        root.getChildren().add(Map.of("2", dog));
-        animals = List.of(Map.of("1", root));
+        Animal root = new Animal(1, "root");
+        Animal dog = new Animal(2, "dog");
+        root.addChild(dog);
+        animals = List.of(root);
     }
 
     // GET api/tree
     @Test
     public void getAnimals_ShouldReturnAnimals_WhenDataExists() {
         when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
-        when(utilities.countAnimals(animals)).thenReturn(2);
-        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
 
-        List<Map<String, Animal>> animalList = animalKingdomService.getAnimals();
+        List<Animal> animalList = animalKingdomService.getAnimals();
 
         assertNotNull(animalList);
         assertEquals(1, animalList.size());
-        assertEquals("root", animalList.get(0).get("1").getLabel());
+        assertEquals(1, animalList.get(0).getId());
+        assertEquals("root", animalList.get(0).getLabel());
     }
 
     @Test
     public void getAnimals_ShouldReturnEmptyList_WhenNoAnimalsExists() {
         when(animalTreeDataLoader.createAnimals()).thenReturn(Collections.emptyList());
-        when(utilities.countAnimals(Collections.emptyList())).thenReturn(0);
-        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
 
-        List<Map<String, Animal>> animalList = animalKingdomService.getAnimals();
+        List<Animal> animalList = animalKingdomService.getAnimals();
 
         assertNotNull(animalList);
         assertTrue(animalList.isEmpty());
@@ -68,9 +102,9 @@ public class AnimalKingdomServiceTest {
     @Test
     public void getAnimals_ShouldReturnEmptyList_WhenDataLoaderReturnsNull() {
         when(animalTreeDataLoader.createAnimals()).thenReturn(null);
-        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
 
-        List<Map<String, Animal>> animalList = animalKingdomService.getAnimals();
+        List<Animal> animalList = animalKingdomService.getAnimals();
 
         assertNotNull(animalList);
         assertTrue(animalList.isEmpty());
@@ -78,104 +112,1104 @@ public class AnimalKingdomServiceTest {
 
     @Test
     public void getAnimals_ShouldReturnNestedChildren() throws Exception {
-        Animal root = new Animal("root");
-        Animal lion = new Animal("lion");
-        Animal tiger = new Animal("tiger");
-        Animal cat = new Animal("cat"); // Grandchild
+        Animal root = new Animal(1, "root");
+        Animal lion = new Animal(2, "lion");
+        Animal tiger = new Animal(4, "tiger");
+        Animal cat = new Animal(3, "cat"); // Grandchild
 
-        lion.getChildren().add(Map.of("3", cat));
-        root.getChildren().add(Map.of("2", lion));
-        root.getChildren().add(Map.of("4", tiger));
+        lion.addChild(cat);
+        root.addChild(lion);
+        root.addChild(tiger);
 
-        animals = List.of(Map.of("1", root));
+        animals = List.of(root);
         when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
-        when(utilities.countAnimals(animals)).thenReturn(4);
-        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
 
-        List<Map<String, Animal>> animalList = animalKingdomService.getAnimals();
+        List<Animal> animalList = animalKingdomService.getAnimals();
 
         assertNotNull(animalList);
         assertEquals(1, animalList.size());
-        assertEquals("root", animalList.get(0).get("1").getLabel());
-        assertEquals(2, animalList.get(0).get("1").getChildren().size()); // 2 children
-        assertEquals("lion", animalList.get(0).get("1").getChildren().get(0).get("2").getLabel());
-        assertEquals(1, animalList.get(0).get("1").getChildren().get(0).get("2").getChildren().size()); // 1 child
+        assertEquals("root", animalList.get(0).getLabel());
+        assertEquals(2, animalList.get(0).getChildren().size()); // 2 children
+        assertEquals(2, animalList.get(0).getChildren().get(0).getId());
+        assertEquals("lion", animalList.get(0).getChildren().get(0).getLabel());
+        assertEquals(1, animalList.get(0).getChildren().get(0).getChildren().size()); // 1 child
+        assertEquals(3, animalList.get(0).getChildren().get(0).getChildren().get(0).getId());
         assertEquals("cat",
-                animalList.get(0).get("1").getChildren().get(0).get("2").getChildren().get(0).get("3").getLabel());
-        assertEquals("tiger", animalList.get(0).get("1").getChildren().get(1).get("4").getLabel());
+                animalList.get(0).getChildren().get(0).getChildren().get(0).getLabel());
+        assertEquals(4, animalList.get(0).getChildren().get(1).getId());
+        assertEquals("tiger", animalList.get(0).getChildren().get(1).getLabel());
+    }
+
+    @Test
+    public void getAnimalCount_ShouldCountLoadedAnimals() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        assertEquals(2, animalKingdomService.getAnimalCount());
+    }
+
+    @Test
+    public void getAnimalCount_ShouldReturnZero_WhenDataLoaderReturnsNull() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(null);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        assertEquals(0, animalKingdomService.getAnimalCount());
+    }
+
+    @Test
+    public void getAnimalCount_ShouldBePublishedAsGauge() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        new AnimalKingdomMetrics(animalKingdomService).bindTo(registry);
+
+        assertEquals(2.0, registry.get(AnimalKingdomMetrics.ANIMAL_COUNT).gauge().value());
+        animalKingdomService.addAnimal(2, "puppy");
+        assertEquals(3.0, registry.get(AnimalKingdomMetrics.ANIMAL_COUNT).gauge().value());
+    }
+
+    @Test
+    public void addAnimal_ShouldRecordTimersAndTreeDepth() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore,
+                new AnimalTreeChangeFeed(), registry);
+        new AnimalKingdomMetrics(animalKingdomService).bindTo(registry);
+
+        assertEquals(1.0, registry.get(AnimalKingdomMetrics.TREE_DEPTH).gauge().value());
+        long puppyId = animalKingdomService.addAnimal(2, "puppy");
+        animalKingdomService.addAnimal(999, "cat"); // Parent not found
+        animalKingdomService.getTreeSnapshot();
+
+        assertEquals(2, registry.get(AnimalKingdomMetrics.ADD_ANIMAL).timer().count());
+        assertEquals(2, registry.get(AnimalKingdomMetrics.PARENT_LOOKUP).timer().count());
+        assertEquals(1, registry.get(AnimalKingdomMetrics.ID_GENERATION).timer().count());
+        assertEquals(1, registry.get(AnimalKingdomMetrics.SERIALIZATION)
+                .tag(AnimalKingdomMetrics.SERIALIZATION_MODE, AnimalKingdomMetrics.SERIALIZATION_MODE_SNAPSHOT)
+                .timer().count());
+        assertEquals(2.0, registry.get(AnimalKingdomMetrics.TREE_DEPTH).gauge().value());
+
+        animalKingdomService.moveAnimal(puppyId, 1);
+        assertEquals(1.0, registry.get(AnimalKingdomMetrics.TREE_DEPTH).gauge().value());
+    }
+
+    @Test
+    public void getTreeStatistics_ShouldBeReused_UntilTreeChanges() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        AnimalTreeStatistics statistics = animalKingdomService.getTreeStatistics();
+        assertEquals(2, statistics.getAnimalCount());
+        assertArrayEquals(new long[] { 1, 1 }, statistics.getAnimalsByDepth());
+        assertSame(statistics, animalKingdomService.getTreeStatistics());
+
+        animalKingdomService.addAnimal(2, "dog");
+        AnimalTreeStatistics changed = animalKingdomService.getTreeStatistics();
+        assertArrayEquals(new long[] { 1, 1, 1 }, changed.getAnimalsByDepth());
+        assertEquals(2L, changed.getTopLabels(1).get("dog"));
+    }
+
+    @Test
+    public void getTreeSnapshot_ShouldBeReused_UntilTreeChanges() throws Exception {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        AnimalTreeSnapshot snapshot = animalKingdomService.getTreeSnapshot();
+        assertNotNull(snapshot);
+        assertEquals(animalKingdomService.getTreeVersion(), snapshot.getVersion());
+        assertEquals("{\"animals\":[{\"1\":{\"label\":\"root\",\"children\":"
+                + "[{\"2\":{\"label\":\"dog\",\"children\":[]}}]}}]}",
+                new String(snapshot.getJson(), StandardCharsets.UTF_8));
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(snapshot.getGzipJson()))) {
+            assertEquals(new String(snapshot.getJson(), StandardCharsets.UTF_8),
+                    new String(gzip.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        assertSame(snapshot, animalKingdomService.getTreeSnapshot()); // Not rebuilt
+
+        animalKingdomService.addAnimal(2, "puppy");
+
+        AnimalTreeSnapshot changed = animalKingdomService.getTreeSnapshot();
+        assertNotSame(snapshot, changed);
+        assertTrue(changed.getVersion() > snapshot.getVersion());
+        assertTrue(new String(changed.getJson(), StandardCharsets.UTF_8).contains("puppy"));
+
+        animalKingdomService.addAnimals(List.of("1"), List.of("owl"));
+        assertTrue(animalKingdomService.getTreeSnapshot().getVersion() > changed.getVersion());
+    }
+
+    @Test
+    public void getTreeSnapshot_ShouldReturnNull_WhenNoAnimalsExist() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(Collections.emptyList());
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        assertNull(animalKingdomService.getTreeSnapshot());
     }
 
     // POST api/tree
     @Test
     public void addAnimal_ShouldAddAnimalSuccessfully() {
-        Animal root = new Animal("root");
-        animals = List.of(Map.of("1", root));
+        Animal root = new Animal(1, "root");
+        animals = List.of(root);
 
         when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
-        when(utilities.findParentbyAnimalId(animals, "1")).thenReturn(root);
-        when(utilities.createId(animals)).thenReturn("2");
-        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
 
-        String newAnimalId = animalKingdomService.addAnimal("1", "spider");
+        long newAnimalId = animalKingdomService.addAnimal(1, "spider");
 
         assertEquals(1, root.getChildren().size());
         assertNotNull(newAnimalId);
-        assertEquals("2", newAnimalId);
-        Animal spider = root.getChildren().get(0).get("2");
+        assertEquals(2, newAnimalId);
+        Animal spider = root.getChildren().get(0);
         assertNotNull(spider);
+        assertEquals(2, spider.getId());
         assertEquals("spider", spider.getLabel());
+        assertEquals(root, spider.getParent());
     }
 
     @Test
-    public void addAnimal_ShouldReturnNull_WhenParentNotFound() {
-        when(utilities.findParentbyAnimalId(animals, "999")).thenReturn(null);
-        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities);
+    public void addAnimal_ShouldReturnNoId_WhenParentNotFound() {
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
 
-        String newAnimalId = animalKingdomService.addAnimal("999", "lion");
-        assertNull(newAnimalId);
+        long newAnimalId = animalKingdomService.addAnimal(999, "lion");
+        assertEquals(Animal.NO_ID, newAnimalId);
     }
 
     @Test
-    public void addAnimal_ShouldReturnNull_WhenLabelIsEmpty() {
-        Animal root = new Animal("root");
-        animals = List.of(Map.of("1", root));
+    public void addAnimal_ShouldReturnNoId_WhenLabelIsEmpty() {
+        Animal root = new Animal(1, "root");
+        animals = List.of(root);
 
         when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
-        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
 
-        String newAnimalId = animalKingdomService.addAnimal("1", "");
-        assertNull(newAnimalId);
+        long newAnimalId = animalKingdomService.addAnimal(1, "");
+        assertEquals(Animal.NO_ID, newAnimalId);
     }
 
     @Test
     public void addAnimal_ShouldAddMultipleChildrenSuccessfully() {
-        Animal root = new Animal("root");
-        animals = List.of(Map.of("1", root));
+        Animal root = new Animal(1, "root");
+        animals = List.of(root);
 
         when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
-        when(utilities.findParentbyAnimalId(animals, "1")).thenReturn(root);
-        when(utilities.createId(animals)).thenReturn("2").thenReturn("3");
-        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
 
         assertEquals(0, root.getChildren().size());
 
-        String lionId = animalKingdomService.addAnimal("1", "lion");
-        String tigerId = animalKingdomService.addAnimal("1", "tiger");
+        long lionId = animalKingdomService.addAnimal(1, "lion");
+        long tigerId = animalKingdomService.addAnimal(1, "tiger");
 
         assertNotNull(lionId);
         assertNotNull(tigerId);
-        assertEquals("2", lionId);
-        assertEquals("3", tigerId);
+        assertEquals(2, lionId);
+        assertEquals(3, tigerId);
 
         assertEquals(2, root.getChildren().size()); // 2 children;
 
-        Animal lion = root.getChildren().get(0).get("2");
-        Animal tiger = root.getChildren().get(1).get("3");
+        Animal lion = root.getChildren().get(0);
+        Animal tiger = root.getChildren().get(1);
 
         assertNotNull(lion);
         assertNotNull(tiger);
+        assertEquals(2, lion.getId());
+        assertEquals(3, tiger.getId());
         assertEquals("lion", lion.getLabel());
         assertEquals("tiger", tiger.getLabel());
     }
 
+    @Test
+    public void addAnimal_ShouldAddAnimalUnderNestedParent() {
+        Animal root = new Animal(1, "root");
+        Animal lion = new Animal(2, "lion");
+        Animal cat = new Animal(3, "cat"); // Grandchild
+
+        lion.addChild(cat);
+        root.addChild(lion);
+        animals = List.of(root);
+
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        long kittenId = animalKingdomService.addAnimal(3, "kitten");
+
+        assertEquals(4, kittenId);
+        assertEquals("kitten", cat.getChildren().get(0).getLabel());
+        assertEquals(3, animalKingdomService.getParentId(4));
+        assertEquals(2, animalKingdomService.getParentId(3));
+        assertEquals(1, animalKingdomService.getParentId(2));
+        assertEquals(Animal.NO_ID, animalKingdomService.getParentId(1));
+    }
+
+    @Test
+    public void addAnimal_ShouldIndexNewlyAddedAnimalsAsParents() {
+        Animal root = new Animal(1, "root");
+        animals = List.of(root);
+
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        long lionId = animalKingdomService.addAnimal(1, "lion");
+        long cubId = animalKingdomService.addAnimal(lionId, "cub");
+
+        assertEquals(3, cubId);
+        Animal lion = animalKingdomService.getAnimal(lionId);
+        assertNotNull(lion);
+        assertEquals("cub", lion.getChildren().get(0).getLabel());
+        assertEquals(lionId, animalKingdomService.getParentId(cubId));
+    }
+
+    @Test
+    public void addAnimal_ShouldHandleDeepChainOfAnimals() {
+        Animal root = new Animal(1, "root");
+        animals = List.of(root);
+
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        long parentId = 1;
+        for (int i = 0; i < 10000; i++) {
+            long childId = animalKingdomService.addAnimal(parentId, "animal" + i);
+            assertNotEquals(Animal.NO_ID, childId);
+            assertEquals(parentId, animalKingdomService.getParentId(childId));
+            parentId = childId;
+        }
+
+        assertEquals(10001, parentId);
+        assertEquals("animal9999", animalKingdomService.getAnimal(parentId).getLabel());
+    }
+
+    @Test
+    public void addAnimal_ShouldContinueFromHighestIdInLoadedTree() {
+        Animal root = new Animal(1, "root");
+        root.addChild(new Animal(42, "owl"));
+        root.addChild(new Animal(7, "bat"));
+        animals = List.of(root);
+
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        assertEquals(43, animalKingdomService.addAnimal(1, "hawk"));
+        assertEquals(44, animalKingdomService.addAnimal(7, "moth"));
+    }
+
+    @Test
+    public void addAnimal_ShouldStayConsistent_WhenReadsAndWritesRunConcurrently() throws Exception {
+        final int writers = 8;
+        final int readers = 8;
+        final int animalsPerWriter = 2000;
+
+        Animal root = new Animal(1, "root");
+        animals = List.of(root);
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, new Utilities(), animalTreeStore);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        Set<Long> addedIds = ConcurrentHashMap.newKeySet();
+        addedIds.add(1L);
+        List<Long> knownIds = Collections.synchronizedList(new ArrayList<>(List.of(1L)));
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch writersDone = new CountDownLatch(writers);
+
+        ExecutorService executor = Executors.newFixedThreadPool(writers + readers);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                try {
+                    for (int i = 0; i < animalsPerWriter; i++) {
+                        long parentId = knownIds.get(ThreadLocalRandom.current().nextInt(knownIds.size()));
+                        long newId = animalKingdomService.addAnimal(parentId, "animal" + i);
+                        assertNotEquals(Animal.NO_ID, newId);
+                        assertTrue(addedIds.add(newId)); // No duplicate IDs
+                        knownIds.add(newId);
+                    }
+                } finally {
+                    writersDone.countDown();
+                }
+                return null;
+            }));
+        }
+        for (int r = 0; r < readers; r++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                while (writersDone.getCount() > 0) {
+                    // Serializes the live tree, exactly like GET /api/tree does
+                    String json = objectMapper.writeValueAsString(
+                            new GetAnimalsResponse(animalKingdomService.getAnimals()));
+                    assertTrue(json.startsWith("{\"animals\":[{\"1\":{\"label\":\"root\""));
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(); // Rethrows any exception (e.g. ConcurrentModificationException)
+        }
+        executor.shutdown();
+
+        int expected = writers * animalsPerWriter + 1;
+        assertEquals(expected, addedIds.size());
+        assertEquals(expected, new Utilities().countAnimals(animalKingdomService.getAnimals())); // No lost inserts
+        assertEquals(expected, animalKingdomService.getAnimalCount());
+        for (long id : addedIds) {
+            assertNotNull(animalKingdomService.getAnimal(id));
+        }
+    }
+
+    @Test
+    public void addAnimal_ShouldUpdateCountAndSubtreeSizes() {
+        Animal root = new Animal(1, "root");
+        Animal bear = new Animal(2, "bear");
+        Animal cat = new Animal(3, "cat");
+        bear.addChild(cat); // Subtree built before it is attached
+        root.addChild(bear);
+        animals = List.of(root);
+
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        assertEquals(3, animalKingdomService.getAnimalCount());
+        assertEquals(3, root.getSubtreeSize());
+        assertEquals(2, bear.getSubtreeSize());
+
+        long kittenId = animalKingdomService.addAnimal(3, "kitten");
+        animalKingdomService.addAnimal(kittenId, "tiny kitten");
+        animalKingdomService.addAnimal(1, "owl");
+
+        assertEquals(6, animalKingdomService.getAnimalCount());
+        assertEquals(6, root.getSubtreeSize());
+        assertEquals(4, bear.getSubtreeSize());
+        assertEquals(3, cat.getSubtreeSize());
+        assertEquals(2, animalKingdomService.getAnimal(kittenId).getSubtreeSize());
+        assertEquals(1, root.getChildren().get(1).getSubtreeSize());
+    }
+
+    @Test
+    public void addAnimal_ShouldOnlyAddUnderUnchangedSubtree_WhenConditional() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+        Animal root = animalKingdomService.getAnimal(1);
+        Animal dog = animalKingdomService.getAnimal(2);
+        long rootVersion = root.getVersion();
+        String rootETag = animalKingdomService.getETag(root);
+        String dogETag = animalKingdomService.getETag(dog);
+
+        // A change anywhere in a subtree changes the version of every animal above it
+        long puppyId = animalKingdomService.addAnimal(2, "puppy", animalKingdomService.parseETag(dogETag));
+        assertEquals(1, dog.getVersion());
+        assertEquals(rootVersion + 1, root.getVersion());
+        assertThrows(ConcurrentModificationException.class,
+                () -> animalKingdomService.addAnimal(2, "puppy", animalKingdomService.parseETag(dogETag)));
+        assertThrows(ConcurrentModificationException.class,
+                () -> animalKingdomService.addAnimal(1, "cat", animalKingdomService.parseETag(rootETag)));
+
+        // Not under the changed animal, so its version is still current
+        String puppyETag = animalKingdomService.getETag(animalKingdomService.getAnimal(puppyId));
+        animalKingdomService.addAnimal(1, "cat");
+        animalKingdomService.addAnimal(puppyId, "tiny puppy", animalKingdomService.parseETag(puppyETag));
+
+        assertEquals(5, animalKingdomService.getAnimalCount());
+        assertEquals(rootVersion + 3, root.getVersion());
+        assertEquals(Animal.ANY_VERSION, animalKingdomService.parseETag(" * "));
+        assertEquals(AnimalKingdomService.NO_VERSION, animalKingdomService.parseETag("\"0\""));
+        assertEquals(AnimalKingdomService.NO_VERSION, animalKingdomService.parseETag(rootETag.replace("-" + rootVersion, "-x")));
+        assertThrows(ConcurrentModificationException.class,
+                () -> animalKingdomService.addAnimal(1, "cat", AnimalKingdomService.NO_VERSION));
+        assertEquals(5, animalKingdomService.getAnimalCount());
+    }
+
+    @Test
+    public void addAnimal_ShouldAddUnderAnyOfTheListedVersions_OrAnyExistingParent() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+        Animal dog = animalKingdomService.getAnimal(2);
+        String oldETag = animalKingdomService.getETag(dog);
+        animalKingdomService.addAnimal(2, "puppy");
+        String currentETag = animalKingdomService.getETag(dog);
+
+        // Tags of other services (or with commas inside their quotes) match nothing, but do not fail the list
+        String ifMatch = "\"other, tag\"," + oldETag + " ,W/" + currentETag + ",  " + currentETag;
+        long[] versions = animalKingdomService.parseETags(ifMatch);
+        assertArrayEquals(new long[] { AnimalKingdomService.NO_VERSION, 0, AnimalKingdomService.NO_VERSION, 1 },
+                versions);
+        animalKingdomService.addAnimal(2, "puppy", versions);
+        assertEquals(2, dog.getVersion());
+        assertThrows(ConcurrentModificationException.class,
+                () -> animalKingdomService.addAnimal(2, "puppy", animalKingdomService.parseETags(ifMatch)));
+
+        // "*" only needs the parent to exist, and a missing parent fails any condition
+        long[] any = animalKingdomService.parseETags(" * ");
+        assertArrayEquals(new long[] { Animal.ANY_VERSION }, any);
+        animalKingdomService.addAnimal(2, "puppy", any);
+        ConcurrentModificationException exception = assertThrows(ConcurrentModificationException.class,
+                () -> animalKingdomService.addAnimal(99, "puppy", any));
+        assertEquals(ErrorMessages.ANIMAL_PARENT_NOT_FOUND, exception.getMessage());
+        assertEquals(Animal.NO_ID, animalKingdomService.addAnimal(99, "puppy"));
+        assertEquals(5, animalKingdomService.getAnimalCount());
+    }
+
+    @Test
+    public void addAnimal_ShouldLetOneConditionalWriterWin_WhenTheyRace() throws Exception {
+        final int writers = 8;
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        for (int round = 0; round < 200; round++) {
+            long version = animalKingdomService.getAnimal(2).getVersion();
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService executor = Executors.newFixedThreadPool(writers);
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        animalKingdomService.addAnimal(2, "puppy", version);
+                        return true;
+                    } catch (ConcurrentModificationException e) {
+                        return false;
+                    }
+                }));
+            }
+            start.countDown();
+            int added = 0;
+            for (Future<Boolean> future : futures) {
+                added += future.get() ? 1 : 0;
+            }
+            executor.shutdown();
+
+            assertEquals(1, added);
+            assertEquals(version + 1, animalKingdomService.getAnimal(2).getVersion());
+        }
+        assertEquals(2 + 200, animalKingdomService.getAnimalCount());
+    }
+
+    // POST api/tree/bulk
+    @Test
+    public void addAnimals_ShouldAddBatchInOrder_WithReferencesToEarlierAnimals() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        long[] newAnimalIds = animalKingdomService.addAnimals(
+                List.of("1", "@0", "2", "@1", "1"),
+                List.of("bird", "eagle", "puppy", "eaglet", "fish"));
+
+        assertArrayEquals(new long[] { 3, 4, 5, 6, 7 }, newAnimalIds);
+        assertEquals(1, animalKingdomService.getParentId(3));
+        assertEquals(3, animalKingdomService.getParentId(4));
+        assertEquals(2, animalKingdomService.getParentId(5));
+        assertEquals(4, animalKingdomService.getParentId(6));
+        assertEquals(1, animalKingdomService.getParentId(7));
+
+        Animal root = animalKingdomService.getAnimal(1);
+        assertEquals(List.of(2L, 3L, 7L), root.getChildren().stream().map(Animal::getId).toList());
+        assertEquals(7, animalKingdomService.getAnimalCount());
+        assertEquals(3, animalKingdomService.getAnimal(3).getSubtreeSize());
+        assertEquals(8, animalKingdomService.addAnimal(1, "cat"));
+    }
+
+    @Test
+    public void addAnimals_ShouldAddNothing_WhenAnyAnimalIsInvalid() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        IllegalArgumentException missingParent = assertThrows(IllegalArgumentException.class,
+                () -> animalKingdomService.addAnimals(List.of("1", "999"), List.of("bird", "eagle")));
+        assertEquals(ErrorMessages.ANIMALS_NOT_CREATED_AT_INDEX + " 1", missingParent.getMessage());
+
+        IllegalArgumentException forwardReference = assertThrows(IllegalArgumentException.class,
+                () -> animalKingdomService.addAnimals(List.of("@1", "1"), List.of("bird", "eagle")));
+        assertEquals(ErrorMessages.ANIMALS_NOT_CREATED_AT_INDEX + " 0", forwardReference.getMessage());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> animalKingdomService.addAnimals(List.of("1", "@x"), List.of("bird", "eagle")));
+        assertThrows(IllegalArgumentException.class,
+                () -> animalKingdomService.addAnimals(List.of("1"), List.of(" ")));
+        assertThrows(IllegalArgumentException.class,
+                () -> animalKingdomService.addAnimals(List.of(), List.of()));
+
+        assertEquals(2, animalKingdomService.getAnimalCount());
+        assertEquals(3, animalKingdomService.addAnimal(1, "cat")); // No IDs were used up
+    }
+
+    @Test
+    public void addAnimals_ShouldAddLargeBatch() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        final int size = 100000;
+        List<String> parentIds = new ArrayList<>(size);
+        List<String> labels = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            // Every tenth animal goes under the root, the others under the previous animal
+            parentIds.add(i % 10 == 0 ? "1" : BATCH_REFERENCE + (i - 1));
+            labels.add("animal" + i);
+        }
+
+        long[] newAnimalIds = animalKingdomService.addAnimals(parentIds, labels);
+
+        assertEquals(size, newAnimalIds.length);
+        assertEquals(size + 2, animalKingdomService.getAnimalCount());
+        assertEquals(size + 2, new Utilities().countAnimals(animalKingdomService.getAnimals()));
+        assertEquals(newAnimalIds[8], animalKingdomService.getParentId(newAnimalIds[9]));
+        assertEquals(1, animalKingdomService.getParentId(newAnimalIds[10]));
+    }
+
+    // GET api/tree/search
+    @Test
+    public void searchAnimals_ShouldFindLoadedAndAddedAnimals() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        animalKingdomService.addAnimal(2, "Hot Dog");
+        animalKingdomService.addAnimals(List.of("1", "@0"), List.of("bird", "dodo bird"));
+
+        // By matching word, then by label: "dodo bird", "Hot Dog", then "dog"
+        assertArrayEquals(new long[] { 5, 3, 2 }, animalKingdomService.searchAnimals("do", 10));
+
+        assertArrayEquals(new long[] { 5 }, animalKingdomService.searchAnimals("BIRD do", 10));
+        assertArrayEquals(new long[] { 4 }, animalKingdomService.searchAnimals("bird", 1));
+        assertArrayEquals(new long[0], animalKingdomService.searchAnimals("cat", 10));
+    }
+
+    // GET api/tree/{id}/path, GET api/tree/lca
+    @Test
+    public void getAncestorPathAndCommonAncestor_ShouldMatchParentLinks() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        // A random tree, with single inserts and batches of subtrees (attached at once)
+        Random random = new Random(7);
+        List<Long> ids = new ArrayList<>(List.of(1L, 2L));
+        for (int i = 0; i < 200; i++) {
+            List<String> parentIds = new ArrayList<>();
+            List<String> labels = new ArrayList<>();
+            for (int j = 0; j < 10; j++) {
+                parentIds.add(j == 0 || random.nextBoolean()
+                        ? String.valueOf(ids.get(ids.size() - 1 - random.nextInt(Math.min(ids.size(), 20))))
+                        : BATCH_REFERENCE + random.nextInt(j));
+                labels.add("animal");
+            }
+            for (long id : animalKingdomService.addAnimals(parentIds, labels)) {
+                ids.add(id);
+            }
+            ids.add(animalKingdomService.addAnimal(ids.get(random.nextInt(ids.size())), "animal"));
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            Animal a = animalKingdomService.getAnimal(ids.get(random.nextInt(ids.size())));
+            Animal b = animalKingdomService.getAnimal(ids.get(random.nextInt(ids.size())));
+
+            List<Animal> path = animalKingdomService.getAncestorPath(a.getId());
+            assertEquals(naivePath(a), path);
+            assertEquals(path.size() - 1, a.getDepth());
+
+            Animal expected = null;
+            for (Animal ancestor : naivePath(a)) {
+                if (naivePath(b).contains(ancestor)) {
+                    expected = ancestor;
+                }
+            }
+            assertSame(expected, animalKingdomService.getCommonAncestor(a.getId(), b.getId()));
+        }
+
+        assertSame(animalKingdomService.getAnimal(1), animalKingdomService.getCommonAncestor(2, 1, 3));
+        assertNull(animalKingdomService.getCommonAncestor(2, 99999));
+        assertNull(animalKingdomService.getAncestorPath(99999));
+        assertThrows(IllegalArgumentException.class, () -> animalKingdomService.getCommonAncestor());
+    }
+
+    @Test
+    public void getCommonAncestor_ShouldFindForkOfDeepChains() {
+        // A chain of half the animals, which then forks into two chains
+        final int size = 1000;
+        final int fork = size / 2 - 1;
+        Animal[] all = new Animal[size];
+        all[0] = new Animal(1, "root");
+        for (int i = 1; i < size; i++) {
+            all[i] = new Animal(i + 1, "animal");
+            all[i <= fork ? i - 1 : (i - fork <= 2 ? fork : i - 2)].linkChild(all[i]);
+            all[i].updateAncestry();
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            all[i].updateSubtreeSize();
+        }
+        when(animalTreeDataLoader.createAnimals()).thenReturn(List.of(all[0]));
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+
+        assertSame(all[fork], animalKingdomService.getCommonAncestor(all[size - 1].getId(), all[size - 2].getId()));
+        assertSame(all[fork + 1], animalKingdomService.getCommonAncestor(all[fork + 1].getId(), all[size - 2].getId()));
+        assertSame(all[fork], animalKingdomService.getCommonAncestor(all[fork + 1].getId(), all[size - 1].getId()));
+        assertSame(all[fork - 100], animalKingdomService.getCommonAncestor(all[fork - 100].getId(), all[size - 1].getId()));
+        assertEquals(size / 2 + size / 4 - 1, all[size - 1].getDepth());
+        assertEquals(List.of(all[0], all[1], all[2]), animalKingdomService.getAncestorPath(all[size - 1].getId()).subList(0, 3));
+    }
+
+    // PUT api/tree/{id}/parent
+    @Test
+    public void moveAnimal_ShouldMoveSubtree_AndRejectCycles() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+        // 1 -> 2 -> 3 -> 4, and 1 -> 5
+        animalKingdomService.addAnimals(List.of("2", "@0", "1"), List.of("wolf", "cub", "cat"));
+        Animal wolf = animalKingdomService.getAnimal(3);
+        Animal cat = animalKingdomService.getAnimal(5);
+        long version = animalKingdomService.getTreeVersion();
+
+        assertSame(wolf, animalKingdomService.moveAnimal(3, 5));
+
+        assertSame(cat, wolf.getParent());
+        assertEquals(List.of(wolf), cat.getChildren());
+        assertTrue(animalKingdomService.getAnimal(2).getChildren().isEmpty());
+        assertEquals(1, animalKingdomService.getAnimal(2).getSubtreeSize());
+        assertEquals(3, cat.getSubtreeSize());
+        assertEquals(5, animalKingdomService.getAnimalCount());
+        assertEquals(List.of(1L, 5L, 3L, 4L),
+                animalKingdomService.getAncestorPath(4).stream().map(Animal::getId).toList());
+        assertSame(cat, animalKingdomService.getCommonAncestor(4, 5));
+        assertTrue(animalKingdomService.getTreeVersion() > version);
+
+        IllegalArgumentException cycle = assertThrows(IllegalArgumentException.class,
+                () -> animalKingdomService.moveAnimal(5, 4));
+        assertEquals(ErrorMessages.ANIMAL_CANNOT_BE_MOVED_UNDER_ITSELF, cycle.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> animalKingdomService.moveAnimal(3, 3));
+        IllegalArgumentException root = assertThrows(IllegalArgumentException.class,
+                () -> animalKingdomService.moveAnimal(1, 2));
+        assertEquals(ErrorMessages.ROOT_CANNOT_BE_MOVED_OR_DELETED, root.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> animalKingdomService.moveAnimal(3, 99999));
+        assertNull(animalKingdomService.moveAnimal(99999, 1));
+        assertSame(cat, wolf.getParent());
+    }
+
+    @Test
+    public void moveAnimal_ShouldUpdateDepthsOfMovedSubtree() {
+        // Two animals under the root, and a subtree of 1000 animals (8 children each) under the first one
+        Animal root = new Animal(1, "root");
+        Animal first = new Animal(2, "first");
+        Animal second = new Animal(3, "second");
+        Animal[] subtree = new Animal[1000];
+        for (int i = 0; i < subtree.length; i++) {
+            subtree[i] = new Animal(i + 4, "animal");
+            if (i > 0) {
+                subtree[(i - 1) / 8].linkChild(subtree[i]);
+            }
+        }
+        for (int i = subtree.length - 1; i >= 0; i--) {
+            subtree[i].updateSubtreeSize();
+        }
+        first.addChild(subtree[0]);
+        root.addChildren(List.of(first, second));
+        when(animalTreeDataLoader.createAnimals()).thenReturn(List.of(root));
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+        long dog = animalKingdomService.addAnimal(3, "dog");
+
+        // Under the second animal, one level deeper, then back
+        animalKingdomService.moveAnimal(4, dog);
+        assertEquals(1, first.getSubtreeSize());
+        assertEquals(subtree.length + 2, second.getSubtreeSize());
+        for (Animal animal : subtree) {
+            assertEquals(naivePath(animal).size() - 1, animal.getDepth());
+            assertEquals(naivePath(animal), animalKingdomService.getAncestorPath(animal.getId()));
+        }
+        Animal deepest = subtree[subtree.length - 1];
+        assertSame(second, animalKingdomService.getCommonAncestor(deepest.getId(), 3));
+        assertSame(subtree[0], animalKingdomService.getCommonAncestor(deepest.getId(), subtree[2].getId()));
+
+        animalKingdomService.moveAnimal(4, 2);
+        for (Animal animal : subtree) {
+            assertEquals(naivePath(animal).size() - 1, animal.getDepth());
+        }
+        assertSame(root, animalKingdomService.getCommonAncestor(deepest.getId(), dog));
+    }
+
+    @Test
+    public void moveAnimal_ShouldUpdateDepths_WhenMovedToAnotherTree() {
+        // Two trees: first -> a -> b -> c -> d, and second -> e
+        Animal first = new Animal(1, "first");
+        Animal second = new Animal(2, "second");
+        when(animalTreeDataLoader.createAnimals()).thenReturn(List.of(first, second));
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+        long[] ids = animalKingdomService.addAnimals(List.of("1", "@0", "@1", "@2", "2"), List.of("a", "b", "c", "d", "e"));
+        long a = ids[0], b = ids[1], c = ids[2], d = ids[3], e = ids[4];
+        Animal deepest = animalKingdomService.getAnimal(d);
+        assertEquals(4, deepest.getDepth());
+
+        // The chain from b under e, in the other tree
+        animalKingdomService.moveAnimal(b, e);
+        assertEquals(4, deepest.getDepth());
+        assertEquals(List.of(2L, e, b, c, d),
+                animalKingdomService.getAncestorPath(d).stream().map(Animal::getId).toList());
+        assertSame(second, animalKingdomService.getCommonAncestor(d, 2));
+        assertNull(animalKingdomService.getCommonAncestor(d, a));
+
+        // Moves in either tree are seen by the moved chain, and by the rest of the tree it left
+        animalKingdomService.moveAnimal(c, 2);
+        assertEquals(2, deepest.getDepth());
+        animalKingdomService.moveAnimal(c, a);
+        assertEquals(3, deepest.getDepth());
+        assertEquals(List.of(1L, a, c, d),
+                animalKingdomService.getAncestorPath(d).stream().map(Animal::getId).toList());
+        assertEquals(2, animalKingdomService.getAnimal(b).getDepth());
+        assertSame(animalKingdomService.getAnimal(a), animalKingdomService.getCommonAncestor(d, a));
+    }
+
+    // DELETE api/tree/{id}
+    @Test
+    public void addAnimal_ShouldNotWaitForASnapshot_WhileAMoveDoes() throws Exception {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+        long catId = animalKingdomService.addAnimal(1, "cat");
+
+        // Holds moves and deletes off, like the last attempt at a snapshot while it is written
+        animalTreeStore.beginStructureChange();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Animal> move = executor.submit(() -> animalKingdomService.moveAnimal(catId, 2));
+            Thread.sleep(200); // Lets the move start waiting for the snapshot
+
+            // Inserts and reads of the tree still go on
+            Future<Long> insert = executor.submit(() -> animalKingdomService.addAnimal(catId, "kitten"));
+            assertEquals(4, insert.get(10, TimeUnit.SECONDS));
+            assertEquals(3, animalKingdomService.getAncestorPath(4).size());
+            assertFalse(move.isDone());
+
+            animalTreeStore.endStructureChange();
+            assertEquals(2, move.get(10, TimeUnit.SECONDS).getParent().getId());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void writeTree_ShouldHoldMovesOff_UntilTheTreeIsWritten() throws Exception {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+        long catId = animalKingdomService.addAnimal(1, "cat");
+        long kittenId = animalKingdomService.addAnimal(catId, "kitten");
+
+        // A client that does not read the tree until the move has had time to run
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        OutputStream client = new OutputStream() {
+
+            @Override
+            public void write(int b) {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                writing.countDown();
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                json.write(bytes, offset, length);
+            }
+
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> write = executor.submit(() -> {
+                animalKingdomService.writeTree(client);
+                return null;
+            });
+            assertTrue(writing.await(10, TimeUnit.SECONDS));
+            Future<Animal> move = executor.submit(() -> animalKingdomService.moveAnimal(kittenId, 2));
+            Thread.sleep(200);
+            assertFalse(move.isDone());
+
+            released.countDown();
+            write.get(10, TimeUnit.SECONDS);
+            move.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // The tree as of before the move, with the kitten once
+        String tree = json.toString(StandardCharsets.UTF_8);
+        assertEquals(1, tree.split("kitten", -1).length - 1, tree);
+        assertTrue(tree.contains("{\"" + catId + "\":{\"label\":\"cat\",\"children\":[{\"" + kittenId + "\""), tree);
+    }
+
+    @Test
+    public void deleteAnimal_ShouldRemoveSubtreeFromTreeAndIndexes() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+        // 1 -> 2 -> 3 -> 4, and 1 -> 5
+        animalKingdomService.addAnimals(List.of("2", "@0", "1"), List.of("wolf", "cub", "cat"));
+        Animal root = animalKingdomService.getAnimal(1);
+
+        assertEquals(3, animalKingdomService.deleteAnimal(2));
+
+        assertEquals(2, animalKingdomService.getAnimalCount());
+        assertEquals(2, root.getSubtreeSize());
+        assertEquals(List.of(animalKingdomService.getAnimal(5)), root.getChildren());
+        assertNull(animalKingdomService.getAnimal(2));
+        assertNull(animalKingdomService.getAnimal(4));
+        assertArrayEquals(new long[0], animalKingdomService.searchAnimals("wolf", 10));
+        assertArrayEquals(new long[] { 5 }, animalKingdomService.searchAnimals("c", 10));
+        assertEquals(Animal.NO_ID, animalKingdomService.addAnimal(3, "pup"));
+        assertThrows(IllegalArgumentException.class, () -> animalKingdomService.addAnimals(List.of("4"), List.of("pup")));
+
+        assertEquals(0, animalKingdomService.deleteAnimal(2));
+        assertThrows(IllegalArgumentException.class, () -> animalKingdomService.deleteAnimal(1));
+        assertEquals(2, animalKingdomService.getAnimalCount());
+    }
+
+    // GET api/tree/changes
+    @Test
+    public void getChangesSince_ShouldReturnChangesInOrder_UntilNoLongerKept() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore,
+                new AnimalTreeChangeFeed(4));
+        long version = animalKingdomService.getTreeVersion();
+
+        animalKingdomService.addAnimals(List.of("2", "@0"), List.of("wolf", "cub")); // 3 and 4
+        animalKingdomService.moveAnimal(4, 1);
+        animalKingdomService.deleteAnimal(3);
+
+        List<AnimalTreeChange> changes = animalKingdomService.getChangesSince(version);
+        assertEquals(4, changes.size());
+        assertEquals(version + 4, animalKingdomService.getTreeVersion());
+        assertChange(changes.get(0), version + 1, AnimalTreeChange.Type.ADDED, 3, "wolf", 2);
+        assertChange(changes.get(1), version + 2, AnimalTreeChange.Type.ADDED, 4, "cub", 3);
+        assertChange(changes.get(2), version + 3, AnimalTreeChange.Type.MOVED, 4, "cub", 1);
+        assertChange(changes.get(3), version + 4, AnimalTreeChange.Type.DELETED, 3, "wolf", 2);
+        assertEquals(changes.subList(3, 4), animalKingdomService.getChangesSince(version + 3));
+        assertEquals(List.of(), animalKingdomService.getChangesSince(version + 4));
+        assertNull(animalKingdomService.getChangesSince(version + 5));
+
+        animalKingdomService.addAnimal(1, "owl"); // Only the last 4 changes are kept
+        assertNull(animalKingdomService.getChangesSince(version));
+        assertEquals(4, animalKingdomService.getChangesSince(version + 1).size());
+    }
+
+    @Test
+    public void getChangesSince_ShouldCopyManyChanges_WhileWritersPublish() throws Exception {
+        // Every change has the version it is published at as its animal ID, so an overwritten change
+        // would show up as the wrong one
+        AnimalTreeChangeFeed feed = new AnimalTreeChangeFeed(5000);
+        Thread writer = Thread.ofVirtual().start(() -> {
+            for (int i = 0; i < 200000; i++) {
+                feed.publish(AnimalTreeChange.Type.ADDED, feed.getVersion() + 1, "animal", 1);
+            }
+        });
+
+        while (writer.isAlive()) {
+            List<AnimalTreeChange> changes = feed.getChangesSince(Math.max(1, feed.getVersion() - 4000));
+            if (changes != null) {
+                for (AnimalTreeChange change : changes) {
+                    assertEquals(change.getVersion(), change.getAnimalId());
+                }
+            }
+        }
+        writer.join();
+
+        List<AnimalTreeChange> changes = feed.getChangesSince(feed.getVersion() - 5000);
+        assertEquals(5000, changes.size());
+        assertEquals(feed.getVersion(), changes.get(4999).getAnimalId());
+    }
+
+    @Test
+    public void subscribeToChanges_ShouldSendPastAndNewChanges() throws Exception {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+        long version = animalKingdomService.getTreeVersion();
+        animalKingdomService.addAnimal(1, "cat");
+
+        List<AnimalTreeChange> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(2);
+        AnimalTreeChangeFeed.Subscription subscription = animalKingdomService.subscribeToChanges(version,
+                new AnimalTreeChangeFeed.Listener() {
+
+                    @Override
+                    public void onChange(AnimalTreeChange change) {
+                        received.add(change);
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onReset(long currentVersion) {
+                    }
+
+                    @Override
+                    public void onKeepAlive() {
+                    }
+
+                    @Override
+                    public void onClose() {
+                    }
+
+                });
+        animalKingdomService.addAnimal(3, "kitten");
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        subscription.cancel();
+        assertEquals(2, received.size());
+        assertChange(received.get(0), version + 1, AnimalTreeChange.Type.ADDED, 3, "cat", 1);
+        assertChange(received.get(1), version + 2, AnimalTreeChange.Type.ADDED, 4, "kitten", 3);
+    }
+
+    @Test
+    public void subscribeToChanges_ShouldKeepSendingToOtherSubscribers_WhileOneIsStalled() throws Exception {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore,
+                new AnimalTreeChangeFeed(4));
+        long version = animalKingdomService.getTreeVersion();
+
+        // The first subscriber is stuck on its first change (like a client that stopped reading)
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        List<Long> resets = Collections.synchronizedList(new ArrayList<>());
+        AnimalTreeChangeFeed.Subscription slow = animalKingdomService.subscribeToChanges(version,
+                new AnimalTreeChangeFeed.Listener() {
+
+                    @Override
+                    public void onChange(AnimalTreeChange change) throws IOException {
+                        stalled.countDown();
+                        try {
+                            released.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                    }
+
+                    @Override
+                    public void onReset(long currentVersion) {
+                        resets.add(currentVersion);
+                    }
+
+                    @Override
+                    public void onKeepAlive() {
+                    }
+
+                    @Override
+                    public void onClose() {
+                    }
+
+                });
+        animalKingdomService.addAnimal(1, "cat");
+        assertTrue(stalled.await(10, TimeUnit.SECONDS));
+
+        List<AnimalTreeChange> received = Collections.synchronizedList(new ArrayList<>());
+        Semaphore sent = new Semaphore(0);
+        AnimalTreeChangeFeed.Subscription fast = animalKingdomService.subscribeToChanges(version + 1,
+                new AnimalTreeChangeFeed.Listener() {
+
+                    @Override
+                    public void onChange(AnimalTreeChange change) {
+                        received.add(change);
+                        sent.release();
+                    }
+
+                    @Override
+                    public void onReset(long currentVersion) {
+                    }
+
+                    @Override
+                    public void onKeepAlive() {
+                    }
+
+                    @Override
+                    public void onClose() {
+                    }
+
+                });
+        // The other subscriber keeps up with every change, while the stalled one falls behind
+        for (int i = 0; i < 6; i++) {
+            animalKingdomService.addAnimal(1, "dog");
+            assertTrue(sent.tryAcquire(10, TimeUnit.SECONDS));
+        }
+
+        // More changes than the feed keeps went by: only the stalled subscriber is reset, once released
+        assertEquals(version + 7, received.get(5).getVersion());
+        released.countDown();
+        for (int i = 0; i < 100 && resets.isEmpty(); i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(List.of(version + 7), resets);
+        fast.cancel();
+        slow.cancel();
+    }
+
+    @Test
+    public void close_ShouldEndEverySubscription() throws Exception {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+        long version = animalKingdomService.getTreeVersion();
+
+        CountDownLatch closes = new CountDownLatch(2);
+        AnimalTreeChangeFeed.Listener listener = new AnimalTreeChangeFeed.Listener() {
+
+            @Override
+            public void onChange(AnimalTreeChange change) {
+            }
+
+            @Override
+            public void onReset(long currentVersion) {
+            }
+
+            @Override
+            public void onKeepAlive() {
+            }
+
+            @Override
+            public void onClose() {
+                closes.countDown();
+            }
+
+        };
+        animalKingdomService.subscribeToChanges(version, listener);
+        animalKingdomService.close();
+        assertEquals(1, closes.getCount());
+
+        // Also the subscriptions made after
+        animalKingdomService.subscribeToChanges(version, listener);
+        assertTrue(closes.await(10, TimeUnit.SECONDS));
+        assertEquals(3, animalKingdomService.addAnimal(1, "cat"));
+    }
+
+    @Test
+    public void parseVersionToken_ShouldOnlyAcceptTokensOfThisStart() {
+        when(animalTreeDataLoader.createAnimals()).thenReturn(animals);
+        animalKingdomService = new AnimalKingdomService(animalTreeDataLoader, utilities, animalTreeStore);
+        long version = animalKingdomService.getTreeVersion();
+        String token = animalKingdomService.getVersionToken(version);
+
+        assertEquals(version, animalKingdomService.parseVersionToken(token));
+        assertEquals(version, animalKingdomService.parseVersionToken("\"" + token + "\""));
+        assertEquals(version, animalKingdomService.parseVersionToken(animalKingdomService.getTreeSnapshot().getETag()));
+        assertEquals(version, animalKingdomService.parseVersionToken(animalKingdomService.getTreeSnapshot().getGzipETag()));
+
+        // The same version from another start of the feed (e.g. before a restart) is never caught up from
+        String otherToken = "0" + token;
+        assertEquals(AnimalTreeChangeFeed.UNKNOWN_VERSION, animalKingdomService.parseVersionToken(otherToken));
+        assertNull(animalKingdomService.getChangesSince(AnimalTreeChangeFeed.UNKNOWN_VERSION));
+        for (String invalid : new String[] { "42", "-42", token + "x", "" }) {
+            assertThrows(IllegalArgumentException.class, () -> animalKingdomService.parseVersionToken(invalid));
+        }
+    }
+
+    private static void assertChange(AnimalTreeChange change, long version, AnimalTreeChange.Type type,
+            long animalId, String label, long parentId) {
+        assertEquals(version, change.getVersion());
+        assertEquals(type, change.getType());
+        assertEquals(animalId, change.getAnimalId());
+        assertEquals(label, change.getLabel());
+        assertEquals(parentId, change.getParentId());
+    }
+
+    // Returns the path from the root to the given animal, following parent links
+    private static List<Animal> naivePath(Animal animal) {
+        List<Animal> path = new ArrayList<>();
+        for (; animal != null; animal = animal.getParent()) {
+            path.add(0, animal);
+        }
+        return path;
+    }
+
 }
@@ -0,0 +1,159 @@
+package com.animalkingdom.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.animalkingdom.utilities.AnimalTreeStore;
+import com.animalkingdom.utilities.ErrorMessages;
+import com.animalkingdom.utilities.Utilities;
+
+public class AnimalKingdomTenantsTest {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    public void getOrCreateShard_ShouldKeepTenantsApart() {
+        AnimalKingdomTenants tenants = new AnimalKingdomTenants(new Utilities());
+
+        AnimalKingdomService acme = tenants.getOrCreateShard("acme");
+        AnimalKingdomService zoo = tenants.getOrCreateShard("zoo");
+        assertNotSame(acme, zoo);
+        assertSame(acme, tenants.getShard("acme"));
+        assertNull(tenants.getShard("nobody"));
+        assertNull(tenants.getShard(null));
+
+        // Every tenant has its own tree and IDs, starting from a single root
+        assertEquals(2, acme.addAnimal(1, "cat"));
+        assertEquals(3, acme.addAnimal(2, "kitten"));
+        assertEquals(2, zoo.addAnimal(1, "lion"));
+        assertEquals(3, acme.getAnimalCount());
+        assertEquals(2, zoo.getAnimalCount());
+        assertEquals("kitten", acme.getAnimal(3).getLabel());
+        assertNull(zoo.getAnimal(3));
+        assertEquals(1, zoo.searchAnimals("lion", 10).length);
+        assertEquals(0, acme.searchAnimals("lion", 10).length);
+        assertEquals(List.of("acme", "zoo"), List.copyOf(tenants.getShards().keySet()));
+    }
+
+    @Test
+    public void getOrCreateShard_ShouldRejectInvalidTenants_AndTenantsOverTheLimit() {
+        AnimalKingdomTenants tenants = new AnimalKingdomTenants(new Utilities(), "",
+                AnimalTreeStore.Durability.GROUP, 100, 10, 2);
+
+        for (String tenant : new String[] { "", "Acme", "../acme", "-acme", "a".repeat(64) }) {
+            IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                    () -> tenants.getOrCreateShard(tenant));
+            assertEquals(ErrorMessages.INVALID_TENANT, exception.getMessage());
+        }
+
+        tenants.getOrCreateShard("acme");
+        tenants.getOrCreateShard("zoo_2");
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class,
+                () -> tenants.getOrCreateShard("farm"));
+        assertEquals(ErrorMessages.TENANT_LIMIT_REACHED, exception.getMessage());
+        assertSame(tenants.getShard("acme"), tenants.getOrCreateShard("acme"));
+    }
+
+    @Test
+    public void getShard_ShouldLoadStoredTenants_AfterRestart() throws Exception {
+        AnimalKingdomTenants tenants = new AnimalKingdomTenants(new Utilities(), directory.toString(),
+                AnimalTreeStore.Durability.GROUP, 100, 10, 10);
+        AnimalKingdomService acme = tenants.getOrCreateShard("acme");
+        acme.addAnimal(acme.addAnimal(1, "cat"), "kitten");
+        tenants.getOrCreateShard("zoo").addAnimal(1, "lion");
+        tenants.close();
+        assertTrue(Files.isDirectory(directory.resolve(AnimalKingdomTenants.TENANTS_DIRECTORY).resolve("acme")));
+
+        AnimalKingdomTenants restarted = new AnimalKingdomTenants(new Utilities(), directory.toString(),
+                AnimalTreeStore.Durability.GROUP, 100, 10, 10);
+
+        // Listed right away, but only loaded on their first request
+        assertEquals(List.of("acme", "zoo"), List.copyOf(restarted.getShards().keySet()));
+        assertNull(restarted.getShards().get("acme"));
+        AnimalKingdomService loaded = restarted.getShard("acme");
+        assertEquals(3, loaded.getAnimalCount());
+        assertEquals("kitten", loaded.getAnimal(3).getLabel());
+        assertEquals(4, loaded.addAnimal(1, "dog"));
+        assertSame(loaded, restarted.getShards().get("acme"));
+        restarted.close();
+    }
+
+    @Test
+    public void getOrCreateShard_ShouldTagTheMetersOfEveryTenant() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        AnimalKingdomTenants tenants = new AnimalKingdomTenants(new Utilities(), "",
+                AnimalTreeStore.Durability.GROUP, 100, 10, 10, registry);
+
+        tenants.getOrCreateShard("acme").addAnimal(1, "cat");
+        tenants.getOrCreateShard("zoo");
+        assertEquals(1, registry.get(AnimalKingdomMetrics.ADD_ANIMAL).tag(AnimalKingdomMetrics.TENANT, "acme")
+                .timer().count());
+        assertEquals(0, registry.get(AnimalKingdomMetrics.ADD_ANIMAL).tag(AnimalKingdomMetrics.TENANT, "zoo")
+                .timer().count());
+        assertEquals(2.0, registry.get(AnimalKingdomMetrics.ANIMAL_COUNT).tag(AnimalKingdomMetrics.TENANT, "acme")
+                .gauge().value());
+    }
+
+    @Test
+    public void close_ShouldEndTheStreamsOfTheChangesOfEveryTenant() throws Exception {
+        AnimalKingdomTenants tenants = new AnimalKingdomTenants(new Utilities());
+        AnimalKingdomService acme = tenants.getOrCreateShard("acme");
+        CountDownLatch closed = new CountDownLatch(1);
+        acme.subscribeToChanges(acme.getTreeVersion(), new AnimalTreeChangeFeed.Listener() {
+
+            @Override
+            public void onChange(AnimalTreeChange change) {
+            }
+
+            @Override
+            public void onReset(long currentVersion) {
+            }
+
+            @Override
+            public void onKeepAlive() {
+            }
+
+            @Override
+            public void onClose() {
+                closed.countDown();
+            }
+
+        });
+
+        tenants.close();
+        assertTrue(closed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void getRetainedSize_ShouldGrowWithTheTree() {
+        AnimalKingdomTenants tenants = new AnimalKingdomTenants(new Utilities());
+        AnimalKingdomService acme = tenants.getOrCreateShard("acme");
+
+        long empty = acme.getRetainedSize();
+        for (int i = 0; i < 1000; i++) {
+            acme.addAnimal(1 + i / 10, "animal " + i);
+        }
+        long full = acme.getRetainedSize();
+
+        // At least the animals, their IDs in the index and their labels in the label index
+        assertTrue(full - empty > 1000 * (64 + 4 + 8), full + " - " + empty);
+        assertEquals(full, acme.getRetainedSize());
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.animalkingdom.utilities;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+public class AnimalIdGeneratorTest {
+
+    @Test
+    public void nextId_ShouldStartFromSeedAndIncrement() {
+        AnimalIdGenerator animalIdGenerator = new AnimalIdGenerator(8);
+
+        assertEquals(8, animalIdGenerator.nextId());
+        assertEquals(9, animalIdGenerator.nextId());
+        assertEquals(10, animalIdGenerator.nextId());
+    }
+
+    @Test
+    public void nextId_ShouldNeverReturnDuplicates_WhenCalledConcurrently() throws Exception {
+        final int threads = 16;
+        final int idsPerThread = 20000;
+        AnimalIdGenerator animalIdGenerator = new AnimalIdGenerator(1);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < idsPerThread; i++) {
+                    assertTrue(ids.add(animalIdGenerator.nextId()));
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(threads * idsPerThread, ids.size());
+        assertEquals(threads * idsPerThread + 1, animalIdGenerator.nextId());
+    }
+
+}
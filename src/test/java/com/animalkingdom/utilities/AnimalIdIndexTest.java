@@ -0,0 +1,107 @@
+package com.animalkingdom.utilities;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import com.animalkingdom.model.Animal;
+
+public class AnimalIdIndexTest {
+
+    @Test
+    public void put_ShouldAddReplaceAndRemoveAnimals() {
+        AnimalIdIndex animalsById = new AnimalIdIndex();
+        Animal cat = new Animal(3, "cat");
+        Animal kitten = new Animal(3, "kitten");
+
+        assertNull(animalsById.get(3));
+        animalsById.put(cat);
+        assertSame(cat, animalsById.get(3));
+        assertSame(cat, animalsById.putIfAbsent(kitten));
+        assertSame(cat, animalsById.get(3));
+        animalsById.put(kitten);
+        assertSame(kitten, animalsById.get(3));
+        assertEquals(1, animalsById.size());
+
+        animalsById.remove(3);
+        animalsById.remove(4);
+        assertNull(animalsById.get(3));
+        assertEquals(0, animalsById.size());
+        assertNull(animalsById.putIfAbsent(cat));
+        assertSame(cat, animalsById.get(3));
+    }
+
+    @Test
+    public void put_ShouldKeepEveryAnimal_WhenSegmentsGrowAndAnimalsAreRemoved() {
+        AnimalIdIndex animalsById = new AnimalIdIndex();
+        final int count = 100000;
+        for (int id = 1; id <= count; id++) {
+            animalsById.put(new Animal(id, "animal"));
+        }
+        for (int id = 2; id <= count; id += 2) {
+            animalsById.remove(id);
+        }
+        for (int id = count + 1; id <= 2 * count; id++) {
+            animalsById.put(new Animal(id, "animal"));
+        }
+
+        assertEquals(count / 2 + count, animalsById.size());
+        for (int id = 1; id <= 2 * count; id++) {
+            Animal animal = animalsById.get(id);
+            if (id <= count && id % 2 == 0) {
+                assertNull(animal);
+            } else {
+                assertEquals(id, animal.getId());
+            }
+        }
+        Set<Long> ids = new HashSet<>();
+        animalsById.forEach(animal -> ids.add(animal.getId()));
+        assertEquals(animalsById.size(), ids.size());
+    }
+
+    @Test
+    public void put_ShouldKeepEveryAnimal_WhenCalledConcurrently() throws Exception {
+        final int threads = 8;
+        final int animalsPerThread = 20000;
+        AnimalIdIndex animalsById = new AnimalIdIndex();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < animalsPerThread; i++) {
+                    long id = (long) i * threads + thread;
+                    animalsById.put(new Animal(id, "animal"));
+                    assertEquals(id, animalsById.get(id).getId()); // Seen right away, while other segments grow
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(threads * animalsPerThread, animalsById.size());
+        for (long id = 0; id < threads * animalsPerThread; id++) {
+            assertEquals(id, animalsById.get(id).getId());
+        }
+    }
+
+}
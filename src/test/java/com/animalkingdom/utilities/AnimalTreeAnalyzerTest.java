@@ -0,0 +1,136 @@
+package com.animalkingdom.utilities;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.animalkingdom.model.Animal;
+
+public class AnimalTreeAnalyzerTest {
+
+    private static final String[] LABELS = { "cat", "dog", "owl", "cat", "ant", "cat", "dog" };
+
+    @TempDir
+    private Path directory;
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @AfterEach
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void analyze_ShouldCountAnimalsByDepthFanOutAndLabel() {
+        // 1 -> 2, 3 -> 4, 5 -> 6, 7; and a second root 8
+        Animal root = new Animal(1, "root");
+        Animal bear = new Animal(3, "bear");
+        Animal dog = new Animal(5, "dog");
+        dog.addChild(new Animal(6, "cat"));
+        bear.addChild(new Animal(4, "cat"));
+        bear.addChild(dog);
+        root.addChild(new Animal(2, "ant"));
+        root.addChild(bear);
+        root.addChild(new Animal(7, "cat"));
+
+        AnimalTreeStatistics statistics = new AnimalTreeAnalyzer(pool, 1).analyze(List.of(root, new Animal(8, "owl")));
+
+        assertEquals(8, statistics.getAnimalCount());
+        assertEquals(3, statistics.getMaxDepth());
+        assertArrayEquals(new long[] { 2, 3, 2, 1 }, statistics.getAnimalsByDepth());
+        assertEquals(new TreeMap<>(Map.of(0, 5L, 1, 1L, 2, 1L, 3, 1L)), statistics.getAnimalsByChildCount());
+        assertEquals(6, statistics.getLabelCount());
+        Map<String, Long> topLabels = new LinkedHashMap<>();
+        topLabels.put("cat", 3L);
+        topLabels.put("ant", 1L);
+        topLabels.put("bear", 1L);
+        assertEquals(topLabels, statistics.getTopLabels(3));
+    }
+
+    @Test
+    public void analyze_ShouldMatchSequentialWalk_WhenSplitIntoManyTasks() {
+        List<Animal> roots = createTree();
+
+        AnimalTreeStatistics parallel = new AnimalTreeAnalyzer(pool, 16).analyze(roots);
+        AnimalTreeStatistics sequential = new AnimalTreeAnalyzer(pool, Integer.MAX_VALUE).analyze(roots);
+
+        assertEquals(roots.get(0).getSubtreeSize() + 1, parallel.getAnimalCount());
+        assertSameStatistics(sequential, parallel);
+    }
+
+    @Test
+    public void analyze_ShouldCountMappedSubtrees_WithoutLoadingThem() throws Exception {
+        List<Animal> roots = createTree();
+        AnimalTreeStore store = new AnimalTreeStore(directory.toString(), AnimalTreeStore.Durability.GROUP, 1000);
+        store.open(new ArrayList<>(roots));
+        store.close();
+
+        AnimalIdIndex animalsById = new AnimalIdIndex();
+        List<Animal> loaded = new AnimalTreeStore(directory.toString(), AnimalTreeStore.Durability.GROUP, 1000)
+                .load(animalsById);
+        loaded.get(0).getChildren().get(0).getChildren(); // Some loaded animals above subtrees that are not
+
+        AnimalTreeStatistics mapped = new AnimalTreeAnalyzer(pool, 16).analyze(loaded);
+        assertEquals(2 + 3 + 40, animalsById.size()); // Nothing else was loaded
+        assertSameStatistics(new AnimalTreeAnalyzer(pool, Integer.MAX_VALUE).analyze(roots), mapped);
+    }
+
+    private static void assertSameStatistics(AnimalTreeStatistics expected, AnimalTreeStatistics actual) {
+        assertEquals(expected.getAnimalCount(), actual.getAnimalCount());
+        assertEquals(expected.getMaxDepth(), actual.getMaxDepth());
+        assertArrayEquals(expected.getAnimalsByDepth(), actual.getAnimalsByDepth());
+        assertEquals(expected.getAnimalsByChildCount(), actual.getAnimalsByChildCount());
+        assertEquals(expected.getLabelCount(), actual.getLabelCount());
+        assertEquals(expected.getTopLabels(100), actual.getTopLabels(100));
+    }
+
+    // A root with 3 children: one with 40 children of 300 children each (fan-outs above 256 included),
+    // one at the top of a chain of 20000 animals, and a leaf; and a second root that is a leaf
+    private static List<Animal> createTree() {
+        int[] nextId = { 1 };
+        Animal root = create(nextId);
+        Animal wide = create(nextId);
+        for (int i = 0; i < 40; i++) {
+            Animal child = create(nextId);
+            for (int j = 0; j < 300; j++) {
+                child.linkChild(create(nextId));
+            }
+            child.updateSubtreeSize();
+            wide.linkChild(child);
+        }
+        wide.updateSubtreeSize();
+
+        List<Animal> chain = new ArrayList<>();
+        chain.add(create(nextId));
+        for (int i = 1; i < 20000; i++) {
+            Animal animal = create(nextId);
+            chain.get(i - 1).linkChild(animal);
+            chain.add(animal);
+        }
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            chain.get(i).updateSubtreeSize();
+        }
+
+        root.addChild(wide);
+        root.addChild(chain.get(0));
+        root.addChild(create(nextId));
+        return List.of(root, create(nextId));
+    }
+
+    private static Animal create(int[] nextId) {
+        int id = nextId[0]++;
+        return new Animal(id, LABELS[id % LABELS.length]);
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.animalkingdom.utilities;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.animalkingdom.model.Animal;
+
+public class AnimalTreeImporterTest {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    public void importAnimals_ShouldLinkForwardReferencesAndOrphans_FromCsv() throws Exception {
+        Path file = write("animals.csv",
+                "id,parentId,label",
+                "5,3,dog", // Before its parent
+                "1,,root",
+                "6,5,elephant",
+                "2,1,ant",
+                "3,1,bear",
+                "4,3,\"cat, \"\"the\"\" cat\"",
+                "7,1,frog",
+                "",
+                "8,99,owl"); // Orphan
+
+        List<Animal> roots = new AnimalTreeImporter(AnimalTreeImporter.Format.CSV).importAnimals(file);
+
+        assertEquals("1:root(2:ant()3:bear(5:dog(6:elephant())4:cat, \"the\" cat())7:frog())8:owl()", toString(roots));
+        assertEquals(7, roots.get(0).getSubtreeSize());
+        assertEquals(4, roots.get(0).getChildren().get(1).getSubtreeSize());
+        assertEquals(1, roots.get(1).getSubtreeSize());
+        assertNull(roots.get(1).getParent());
+    }
+
+    @Test
+    public void importAnimals_ShouldReadNdjson() throws Exception {
+        Path file = write("animals.ndjson",
+                "{\"id\": \"2\", \"parentId\": \"1\", \"label\": \"ant\"}",
+                "{\"id\": \"1\", \"parentId\": null, \"label\": \"root\"}",
+                "{\"label\": \"bear\", \"id\": \"3\", \"parentId\": \"1\", \"legs\": 4}",
+                "{\"id\": \"4\", \"label\": \"owl\"}");
+
+        List<Animal> roots = new AnimalTreeImporter(AnimalTreeImporter.Format.NDJSON).importAnimals(file);
+
+        assertEquals("1:root(2:ant()3:bear())4:owl()", toString(roots));
+        assertEquals(3, roots.get(0).getSubtreeSize());
+    }
+
+    @Test
+    public void importAnimals_ShouldKeepFileOrder_AcrossParallelChunks() throws Exception {
+        // A chain of animals, each one written before its parent, over several chunks
+        final int count = 50000;
+        List<String> lines = new ArrayList<>();
+        for (int id = count; id > 1; id--) {
+            lines.add(id + "," + (id - 1) + ",animal" + id);
+        }
+        lines.add("1,,root");
+        Path file = write("chain.csv", lines.toArray(new String[0]));
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        List<Animal> roots = new AnimalTreeImporter(AnimalTreeImporter.Format.CSV, pool).importAnimals(file);
+        pool.shutdown();
+
+        assertEquals(1, roots.size());
+        Animal animal = roots.get(0);
+        for (int id = 1; id <= count; id++) {
+            assertEquals(id, animal.getId());
+            assertEquals(count - id + 1, animal.getSubtreeSize());
+            assertEquals(id - 1, animal.getDepth());
+            animal = id < count ? animal.getChildren().get(0) : null;
+        }
+    }
+
+    @Test
+    public void importAnimals_ShouldLinkInterleavedForwardReferences() throws Exception {
+        // A chain of animals in the order 1, 3, 2, 5, 4, ...: every other animal comes before its
+        // parent, and is adopted by it at the bottom of an ever longer chain
+        final int count = 200001;
+        List<String> lines = new ArrayList<>();
+        lines.add("1,,root");
+        for (int id = 3; id <= count; id += 2) {
+            lines.add(id + "," + (id - 1) + ",animal" + id);
+            lines.add((id - 1) + "," + (id - 2) + ",animal" + (id - 1));
+        }
+        Path file = write("interleaved.csv", lines.toArray(new String[0]));
+
+        List<Animal> roots = new AnimalTreeImporter(AnimalTreeImporter.Format.CSV).importAnimals(file);
+
+        assertEquals(1, roots.size());
+        Animal animal = roots.get(0);
+        for (int id = 1; id <= count; id++) {
+            assertEquals(id, animal.getId());
+            assertEquals(count - id + 1, animal.getSubtreeSize());
+            animal = id < count ? animal.getChildren().get(0) : null;
+        }
+
+        IllegalArgumentException cycle = assertThrows(IllegalArgumentException.class,
+                () -> new AnimalTreeImporter(AnimalTreeImporter.Format.CSV).importAnimals(
+                        write("interleaved-cycle.csv", "1,,root", "3,2,cat", "2,1,bear", "5,4,dog", "4,5,emu")));
+        assertEquals(ErrorMessages.IMPORT_CYCLE + " 5", cycle.getMessage());
+    }
+
+    @Test
+    public void importAnimals_ShouldRejectInvalidFiles() throws Exception {
+        AnimalTreeImporter importer = new AnimalTreeImporter(AnimalTreeImporter.Format.CSV);
+
+        IllegalArgumentException invalid = assertThrows(IllegalArgumentException.class,
+                () -> importer.importAnimals(write("invalid.csv", "1,,root", "2,1")));
+        assertEquals(ErrorMessages.INVALID_IMPORT_LINE + " 2", invalid.getMessage());
+
+        IllegalArgumentException duplicate = assertThrows(IllegalArgumentException.class,
+                () -> importer.importAnimals(write("duplicate.csv", "1,,root", "2,1,ant", "2,1,bear")));
+        assertEquals(ErrorMessages.DUPLICATE_IMPORT_ID + " 3", duplicate.getMessage());
+
+        IllegalArgumentException cycle = assertThrows(IllegalArgumentException.class,
+                () -> importer.importAnimals(write("cycle.csv", "1,,root", "2,4,ant", "3,2,bear", "4,3,cat")));
+        assertEquals(ErrorMessages.IMPORT_CYCLE + " 4", cycle.getMessage());
+    }
+
+    private Path write(String name, String... lines) throws Exception {
+        return Files.write(directory.resolve(name), List.of(lines));
+    }
+
+    // Writes the tree in pre-order as "id:label(children)", to compare two trees
+    private static String toString(List<Animal> animals) {
+        StringBuilder builder = new StringBuilder();
+        for (Animal animal : animals) {
+            builder.append(animal.getId()).append(':').append(animal.getLabel())
+                    .append('(').append(toString(animal.getChildren())).append(')');
+        }
+        return builder.toString();
+    }
+
+}
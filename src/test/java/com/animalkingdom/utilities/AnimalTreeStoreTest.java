@@ -0,0 +1,430 @@
+package com.animalkingdom.utilities;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import com.animalkingdom.model.Animal;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+public class AnimalTreeStoreTest {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    public void load_ShouldReturnNull_WhenNothingIsStored() {
+        assertNull(new AnimalTreeStore().load(new AnimalIdIndex()));
+        assertNull(createStore(AnimalTreeStore.Durability.GROUP, 100).load(new AnimalIdIndex()));
+    }
+
+    @Test
+    public void load_ShouldReplayLoggedInserts_AfterRestart() throws Exception {
+        AnimalTreeStore store = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        Animal root = new Animal(1, "root");
+        store.open(new ArrayList<>(List.of(root)));
+
+        Animal dog = insert(store, root, 2, "dog");
+        insert(store, dog, 3, "puppy");
+        insert(store, root, 4, "cat");
+        store.close();
+
+        List<Animal> loaded = createStore(AnimalTreeStore.Durability.GROUP, 100).load(new AnimalIdIndex());
+
+        assertEquals(1, loaded.size());
+        assertEquals(toString(List.of(root)), toString(loaded));
+        assertEquals(4, loaded.get(0).getSubtreeSize());
+    }
+
+    @Test
+    public void snapshot_ShouldReplaceOlderLogs() throws Exception {
+        AnimalTreeStore store = createStore(AnimalTreeStore.Durability.SYNC, 100);
+        Animal root = new Animal(1, "root");
+        store.open(new ArrayList<>(List.of(root)));
+
+        Animal parent = root;
+        for (int i = 2; i < 2000; i++) {
+            parent = insert(store, i % 3 == 0 ? root : parent, i, "animal" + i);
+        }
+        store.snapshot();
+        insert(store, root, 2000, "owl");
+        store.close();
+
+        assertEquals(1, countLogs());
+
+        List<Animal> loaded = createStore(AnimalTreeStore.Durability.SYNC, 100).load(new AnimalIdIndex());
+        assertEquals(toString(List.of(root)), toString(loaded));
+        assertEquals(2000, loaded.get(0).getSubtreeSize());
+    }
+
+    @Test
+    public void load_ShouldIgnoreTornRecordAtEndOfLog() throws Exception {
+        AnimalTreeStore store = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        Animal root = new Animal(1, "root");
+        store.open(new ArrayList<>(List.of(root)));
+        insert(store, root, 2, "dog");
+        store.close();
+
+        // A crash in the middle of writing the next record
+        try (Stream<Path> files = Files.list(directory)) {
+            Path log = files.filter(file -> file.getFileName().toString().endsWith(AnimalTreeStore.LOG_FILE_SUFFIX))
+                    .findFirst().orElseThrow();
+            Files.write(log, new byte[] { 0, 0, 0, 40, 1, 2, 3 }, StandardOpenOption.APPEND);
+        }
+
+        List<Animal> loaded = createStore(AnimalTreeStore.Durability.GROUP, 100).load(new AnimalIdIndex());
+        assertEquals(toString(List.of(root)), toString(loaded));
+    }
+
+    @Test
+    public void load_ShouldIgnoreTornBulkInsert_AsAWhole() throws Exception {
+        AnimalTreeStore store = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        Animal root = new Animal(1, "root");
+        store.open(new ArrayList<>(List.of(root)));
+        insert(store, root, 2, "dog");
+        Animal cat = new Animal(3, "cat");
+        Animal kitten = new Animal(4, "kitten");
+        store.commit(store.logInserts(new long[] { 1, 3 }, List.of(cat, kitten), () -> {
+            root.addChild(cat);
+            cat.addChild(kitten);
+        }));
+        store.close();
+        assertEquals(4, createStore(AnimalTreeStore.Durability.GROUP, 100).load(new AnimalIdIndex()).get(0)
+                .getSubtreeSize());
+
+        // A crash in the middle of writing the bulk insert, after the cat but before the kitten
+        try (Stream<Path> files = Files.list(directory)) {
+            Path log = files.filter(file -> file.getFileName().toString().endsWith(AnimalTreeStore.LOG_FILE_SUFFIX))
+                    .findFirst().orElseThrow();
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 4);
+            }
+        }
+
+        List<Animal> loaded = createStore(AnimalTreeStore.Durability.GROUP, 100).load(new AnimalIdIndex());
+        assertEquals("1:root(2:dog())", toString(loaded));
+    }
+
+    @Test
+    public void snapshot_ShouldReplaceOlderLogs_WhileAnimalsAreMovedAllTheTime() throws Exception {
+        AnimalTreeStore store = createStore(AnimalTreeStore.Durability.GROUP, Integer.MAX_VALUE);
+        Animal root = createTree(4, 6);
+        store.open(new ArrayList<>(List.of(root)));
+
+        // Moves of the animal 2 under the root (where it already is), as fast as they can be logged
+        AtomicBoolean stopped = new AtomicBoolean();
+        Thread mover = new Thread(() -> {
+            while (!stopped.get()) {
+                store.commit(store.logMove(2, 1, () -> { }));
+            }
+        });
+        mover.start();
+        for (int i = 0; i < 5; i++) {
+            store.snapshot();
+        }
+        stopped.set(true);
+        mover.join();
+        store.close();
+
+        assertEquals(1, countLogs());
+        List<Animal> loaded = createStore(AnimalTreeStore.Durability.GROUP, 100).load(new AnimalIdIndex());
+        assertEquals(root.getSubtreeSize(), loaded.get(0).getSubtreeSize());
+    }
+
+    @Test
+    public void load_ShouldReplayLegacyRecords_WithStringIds() throws Exception {
+        AnimalTreeStore store = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        Animal root = new Animal(1, "root");
+        store.open(new ArrayList<>(List.of(root)));
+        insert(store, root, 2, "dog");
+        store.close();
+
+        // Records as logged before IDs were numbers: an insert of 3 under 2, then a move of 3 under 1
+        try (Stream<Path> files = Files.list(directory)) {
+            Path log = files.filter(file -> file.getFileName().toString().endsWith(AnimalTreeStore.LOG_FILE_SUFFIX))
+                    .findFirst().orElseThrow();
+            Files.write(log, legacyRecord(1, "3", "2", "puppy"), StandardOpenOption.APPEND);
+            Files.write(log, legacyRecord(2, "3", "1"), StandardOpenOption.APPEND);
+        }
+
+        AnimalTreeStore loadedStore = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        List<Animal> loaded = loadedStore.load(new AnimalIdIndex());
+        assertEquals("1:root(2:dog()3:puppy())", toString(loaded));
+        assertEquals(3, loadedStore.getLoadedMaxId());
+    }
+
+    @Test
+    public void load_ShouldOnlyLoadAnimalsOnThePathToALookedUpAnimal() throws Exception {
+        Animal root = createTree(4, 4); // 1 + 4 + 16 + 64 + 256 animals
+        AnimalTreeStore store = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        store.open(new ArrayList<>(List.of(root)));
+        store.close();
+
+        AnimalIdIndex animalsById = new AnimalIdIndex();
+        AnimalTreeStore loadedStore = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        List<Animal> loaded = loadedStore.load(animalsById);
+
+        assertEquals(341, loaded.get(0).getSubtreeSize());
+        assertEquals(1, animalsById.size()); // Only the root
+        assertEquals(341, loadedStore.getLoadedMaxId());
+        assertEquals(4, loadedStore.getMappedTree().getHeight(0)); // Measured without loading anything
+        assertEquals(3, loadedStore.getMappedTree().getHeight(1));
+        assertEquals(1, animalsById.size());
+
+        Animal deepest = loadedStore.findAnimal(341);
+        assertNotNull(deepest);
+        assertEquals("animal341", deepest.getLabel());
+        assertEquals(4, deepest.getDepth());
+        assertEquals(1 + 4 * 4, animalsById.size()); // The root and the children of 4 animals on the path
+        assertSame(deepest, loadedStore.findAnimal(341));
+        assertSame(loaded.get(0), deepest.getParent().getParent().getParent().getParent());
+        assertNull(loadedStore.findAnimal(342));
+        assertNull(loadedStore.findAnimal(Animal.NO_ID));
+        assertSame(loaded.get(0), deepest.getCommonAncestor(loadedStore.findAnimal(86)));
+        assertSame(deepest.getParent().getParent(), deepest.getCommonAncestor(loadedStore.findAnimal(326)));
+    }
+
+    @Test
+    public void load_ShouldWriteSameJson_BeforeAndAfterAnimalsAreLoaded() throws Exception {
+        Animal root = createTree(3, 4);
+        AnimalTreeStore store = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        store.open(new ArrayList<>(List.of(root)));
+        store.close();
+
+        List<Animal> loaded = createStore(AnimalTreeStore.Durability.GROUP, 100).load(new AnimalIdIndex());
+
+        for (int maxDepth : new int[] { 0, 1, 2, 3, Integer.MAX_VALUE }) {
+            assertEquals(toJson(List.of(root), maxDepth), toJson(loaded, maxDepth)); // Written from the snapshot
+        }
+        toString(loaded); // Loads every animal
+        assertEquals(toJson(List.of(root), Integer.MAX_VALUE), toJson(loaded, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void snapshot_ShouldKeepAnimalsThatAreNotLoaded() throws Exception {
+        Animal root = createTree(3, 4);
+        AnimalTreeStore store = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        store.open(new ArrayList<>(List.of(root)));
+        store.close();
+
+        AnimalIdIndex animalsById = new AnimalIdIndex();
+        AnimalTreeStore loadedStore = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        List<Animal> loaded = loadedStore.load(animalsById);
+        loadedStore.open(loaded);
+        insert(loadedStore, loadedStore.findAnimal(40), 100, "owl"); // Loads a single path
+        insert(loadedStore, loaded.get(0), 101, "bat");
+        loadedStore.snapshot();
+        loadedStore.close();
+
+        List<Animal> reloaded = createStore(AnimalTreeStore.Durability.GROUP, 100).load(new AnimalIdIndex());
+        assertEquals(toString(loaded), toString(reloaded));
+        assertEquals(toString(List.of(root)).length() + "100:owl()101:bat()".length(), toString(reloaded).length());
+        assertEquals(85 + 2, reloaded.get(0).getSubtreeSize());
+    }
+
+    @Test
+    public void getMappedTree_ShouldIndexLabelsOfAnimalsThatAreNotLoaded() throws Exception {
+        Animal root = createTree(3, 4);
+        AnimalTreeStore store = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        store.open(new ArrayList<>(List.of(root)));
+        store.close();
+
+        AnimalIdIndex animalsById = new AnimalIdIndex();
+        AnimalTreeStore loadedStore = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        loadedStore.load(animalsById);
+        AnimalLabelIndex animalLabelIndex = new AnimalLabelIndex();
+        animalLabelIndex.addAll(loadedStore.getMappedTree());
+
+        assertArrayEquals(new long[] { 85 }, animalLabelIndex.search("animal85", 10));
+        assertEquals(84, animalLabelIndex.search("animal", 100).length);
+        assertEquals(1, animalsById.size()); // Nothing was loaded
+    }
+
+    @Test
+    public void load_ShouldReplayMovesAndDeletes_OfAnimalsThatAreNotLoaded() throws Exception {
+        Animal root = createTree(3, 4); // 1 + 4 + 16 + 64 animals
+        AnimalTreeStore store = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        store.open(new ArrayList<>(List.of(root)));
+        store.close();
+
+        AnimalIdIndex animalsById = new AnimalIdIndex();
+        AnimalTreeStore loadedStore = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        List<Animal> loaded = loadedStore.load(animalsById);
+        loadedStore.open(loaded);
+
+        Animal moved = loadedStore.findAnimal(6); // Under 2, with 4 children that are not loaded
+        Animal newParent = loadedStore.findAnimal(5);
+        loadedStore.commit(loadedStore.logMove(6, 5, () -> moved.moveTo(newParent)));
+
+        Animal deleted = loadedStore.findAnimal(3); // With 20 descendants that are not loaded
+        List<Long> deletedIds = new ArrayList<>();
+        loadedStore.commit(loadedStore.logDelete(3, () -> {
+            deleted.remove();
+            loadedStore.forgetSubtree(deleted, (label, id) -> deletedIds.add(id));
+        }));
+        loadedStore.close();
+
+        assertEquals(21, deletedIds.size());
+        assertNull(animalsById.get(3));
+        assertNull(loadedStore.findAnimal(40)); // Under 10, under 3
+        assertEquals(85 - 21, loaded.get(0).getSubtreeSize());
+
+        AnimalIdIndex reloadedById = new AnimalIdIndex();
+        AnimalTreeStore reloadedStore = createStore(AnimalTreeStore.Durability.GROUP, 100);
+        List<Animal> reloaded = reloadedStore.load(reloadedById);
+        assertEquals(toString(loaded), toString(reloaded));
+        assertEquals(85 - 21, reloaded.get(0).getSubtreeSize());
+        assertEquals(5, reloadedStore.findAnimal(6).getParent().getId());
+        assertEquals(2, reloadedStore.findAnimal(6).getDepth());
+        assertEquals(5, reloadedStore.findAnimal(6).getSubtreeSize());
+        assertNull(reloadedStore.findAnimal(40));
+
+        AnimalLabelIndex animalLabelIndex = new AnimalLabelIndex();
+        animalLabelIndex.addAll(reloadedStore.getMappedTree());
+        assertEquals(0, animalLabelIndex.search("animal40", 10).length);
+        assertEquals(84 - 21, animalLabelIndex.search("animal", 100).length);
+    }
+
+    @ParameterizedTest
+    @EnumSource(AnimalTreeStore.Durability.class)
+    public void commit_ShouldKeepEveryInsert_WhenCalledConcurrently(AnimalTreeStore.Durability durability)
+            throws Exception {
+        final int threads = 8;
+        final int insertsPerThread = 250;
+        AnimalTreeStore store = createStore(durability, 500);
+        Animal root = new Animal(1, "root");
+        store.open(new ArrayList<>(List.of(root)));
+        AnimalIdGenerator animalIdGenerator = new AnimalIdGenerator(2);
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < insertsPerThread; i++) {
+                    insert(store, root, animalIdGenerator.nextId(), "animal" + i);
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        store.close();
+
+        List<Animal> loaded = createStore(durability, 500).load(new AnimalIdIndex());
+        assertEquals(threads * insertsPerThread + 1, loaded.get(0).getSubtreeSize());
+        assertEquals(toString(List.of(root)), toString(loaded));
+        assertFalse(loaded.get(0).getChildren().isEmpty());
+    }
+
+    private AnimalTreeStore createStore(AnimalTreeStore.Durability durability, int snapshotInterval) {
+        return new AnimalTreeStore(directory.toString(), durability, snapshotInterval);
+    }
+
+    private static Animal insert(AnimalTreeStore store, Animal parent, long id, String label) {
+        Animal animal = new Animal(id, label);
+        long position = store.logInsert(parent.getId(), animal, () -> parent.addChild(animal));
+        store.commit(position);
+        return animal;
+    }
+
+    // Encodes a log record of the given type with string fields, as [length][CRC32][type][fields]
+    private static byte[] legacyRecord(int type, String... fields) throws Exception {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(payload);
+        output.writeByte(type);
+        for (String field : fields) {
+            byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream recordOutput = new DataOutputStream(record);
+        recordOutput.writeInt(payload.size());
+        recordOutput.writeInt((int) crc.getValue());
+        payload.writeTo(recordOutput);
+        return record.toByteArray();
+    }
+
+    // Creates a tree with the given number of levels below the root, where every animal
+    // (but the last level) has the given number of children, numbered in breadth-first order
+    private static Animal createTree(int levels, int children) {
+        Animal root = new Animal(1, "root");
+        List<Animal> level = List.of(root);
+        int nextId = 2;
+        for (int l = 0; l < levels; l++) {
+            List<Animal> nextLevel = new ArrayList<>();
+            for (Animal parent : level) {
+                for (int c = 0; c < children; c++) {
+                    Animal child = new Animal(nextId, "animal" + nextId++);
+                    parent.addChild(child);
+                    nextLevel.add(child);
+                }
+            }
+            level = nextLevel;
+        }
+        return root;
+    }
+
+    private static String toJson(List<Animal> animals, int maxDepth) throws Exception {
+        AnimalTreeJsonWriter animalTreeJsonWriter = new AnimalTreeJsonWriter();
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        try (JsonGenerator generator = animalTreeJsonWriter.createGenerator(json)) {
+            for (Animal animal : animals) {
+                animalTreeJsonWriter.writeAnimal(animal, generator, maxDepth, 0, Integer.MAX_VALUE);
+            }
+        }
+        return json.toString(StandardCharsets.UTF_8);
+    }
+
+    private long countLogs() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(AnimalTreeStore.LOG_FILE_SUFFIX))
+                    .count();
+        }
+    }
+
+    // Writes the tree in pre-order as "id:label(children)", to compare two trees
+    private static String toString(List<Animal> animals) {
+        StringBuilder builder = new StringBuilder();
+        for (Animal animal : animals) {
+            builder.append(animal.getId()).append(':').append(animal.getLabel())
+                    .append('(').append(toString(animal.getChildren())).append(')');
+        }
+        return builder.toString();
+    }
+
+}